@@ -0,0 +1,69 @@
+import java.nio.ByteBuffer ;
+import java.util.concurrent.RecursiveTask ;
+
+public class BankChecksumTask extends RecursiveTask<ROMChecksum>
+	{
+	private final static long	serialVersionUID = 1L ;			// tasks are never serialized, declared to keep the compiler quiet
+
+	private ByteBuffer	m_romImage ;							// gameboy rom image being summed
+	private int			m_bankSize ;							// size of a rom bank (in bytes)
+	private int			m_firstBank ;							// first rom bank summed by this task
+	private int			m_bankCount ;							// number of rom banks summed by this task
+
+
+	/****************************************************************
+	* NAME: BankChecksumTask (constructor)							*
+	* I/P:	romImage	-- rom image to sum							*
+	*		bankSize	-- size of a rom bank (in bytes)			*
+	*		firstBank	-- first rom bank to sum					*
+	*		bankCount	-- number of rom banks to sum				*
+	*																*
+	****************************************************************/
+
+	public BankChecksumTask(ByteBuffer romImage, int bankSize, int firstBank, int bankCount)
+		{
+		m_romImage = romImage ;
+		m_bankSize = bankSize ;
+		m_firstBank = firstBank ;
+		m_bankCount = bankCount ;
+		}
+
+
+	/****************************************************************
+	* NAME: compute (of BankChecksumTask)							*
+	* RET:	ROMChecksum	-- partial checksum of the banks of the task *
+	*																*
+	* A single bank is summed directly, anything larger is split	*
+	* in half with one half forked off for another worker to steal. *
+	* The rom image is only ever read with absolute gets, so every	*
+	* task can share the one buffer.								*
+	*																*
+	****************************************************************/
+
+	protected ROMChecksum compute()
+		{
+		BankChecksumTask	lowerBanks ;
+		BankChecksumTask	upperBanks ;
+		ROMChecksum			checksum ;
+
+		int	bankStart ;
+
+		if (m_bankCount == 1)
+			{
+			bankStart = m_firstBank * m_bankSize ;
+			checksum = new ROMChecksum() ;
+			checksum.Update(m_romImage, bankStart, Math.min(m_bankSize, m_romImage.capacity() - bankStart), bankStart) ;
+
+			return (checksum) ;
+			}
+
+		lowerBanks = new BankChecksumTask(m_romImage, m_bankSize, m_firstBank, m_bankCount / 2) ;
+		upperBanks = new BankChecksumTask(m_romImage, m_bankSize, m_firstBank + m_bankCount / 2, m_bankCount - m_bankCount / 2) ;
+		lowerBanks.fork() ;
+		checksum = upperBanks.compute() ;
+		checksum.Add(lowerBanks.join()) ;
+
+		return (checksum) ;
+		}
+
+	}
@@ -0,0 +1,186 @@
+import java.util.ArrayList ;
+import java.util.List ;
+import java.util.concurrent.Callable ;
+import java.util.concurrent.ExecutionException ;
+import java.util.concurrent.ExecutorService ;
+import java.util.concurrent.Executors ;
+import java.util.concurrent.Future ;
+
+public class BatchProcessor
+	{
+	public final static int	k_EXIT_OK = 0 ;						// exit code when every rom image was processed
+	public final static int	k_EXIT_FAILED = 1 ;					// exit code when any rom image failed
+
+	protected UserOptions	m_options ;							// options applied to every rom image
+
+	private MessageSink	m_messages ;							// where results of the batch are output
+	private int			m_failedCount ;							// number of rom images that failed
+
+
+	/****************************************************************
+	* NAME: BatchProcessor (constructor)							*
+	* I/P:	options	-- options to apply to every rom image			*
+	*																*
+	****************************************************************/
+
+	public BatchProcessor(UserOptions options)
+		{
+		m_options = options ;
+		m_messages = new ConsoleMessageSink() ;
+		m_failedCount = 0 ;
+		}
+
+
+	/****************************************************************
+	* NAME: ProcessImages (of BatchProcessor)						*
+	* I/P:	filenames	-- filenames of rom images to process		*
+	* RET:	List		-- result of each rom image, in order		*
+	*																*
+	* Applies the options to every rom image in parallel & counts	*
+	* the rom images that failed.									*
+	*																*
+	****************************************************************/
+
+	public List<ImageResult> ProcessImages(List<String> filenames)
+		{
+		List<ImageResult>	results ;
+
+		results = RunImages(filenames) ;
+		for (ImageResult result : results)
+			{
+			if (!result.isSuccess())
+				{
+				m_failedCount++ ;
+				}
+
+			}
+
+		return (results) ;
+		}
+
+
+	/****************************************************************
+	* NAME: RunImages (of BatchProcessor)							*
+	* I/P:	filenames	-- filenames of rom images to process		*
+	* RET:	List		-- result of each rom image, in order		*
+	*																*
+	* Every rom image is a separate task on a work-stealing pool	*
+	* with its own ROMProcessor, so idle workers take on images		*
+	* from busy ones and a few large images don't hold up the		*
+	* rest. Overridden by batch engines that schedule the steps of	*
+	* processing differently.										*
+	*																*
+	****************************************************************/
+
+	protected List<ImageResult> RunImages(List<String> filenames)
+		{
+		ExecutorService				pool ;
+		List<Future<ImageResult>>	futures ;
+		List<ImageResult>			results ;
+
+		pool = Executors.newWorkStealingPool() ;
+		futures = new ArrayList<Future<ImageResult>>() ;
+		for (String filename : filenames)
+			{
+			futures.add(pool.submit(new Callable<ImageResult>()
+				{
+				public ImageResult call()
+					{
+					return (ProcessImage(filename)) ;
+					}
+
+				})) ;
+			}
+
+		results = new ArrayList<ImageResult>() ;
+		for (int i=0; i<futures.size(); i++)
+			{
+			try
+				{
+				results.add(futures.get(i).get()) ;
+				}
+
+			// a rom image that throws fails on its own, with what it threw
+			catch (ExecutionException exEx)
+				{
+				results.add(new ImageResult(filenames.get(i), false, "Processing failed (" + exEx.getCause() + ")")) ;
+				}
+
+			// the interrupt is kept, so every rom image left is reported as interrupted too
+			catch (InterruptedException iEx)
+				{
+				Thread.currentThread().interrupt() ;
+				results.add(new ImageResult(filenames.get(i), false, "Processing was interrupted")) ;
+				}
+
+			}
+
+		pool.shutdown() ;
+
+		return (results) ;
+		}
+
+
+	/****************************************************************
+	* NAME: ProcessImage (of BatchProcessor)						*
+	* I/P:	filename	-- filename of rom image to process			*
+	* RET:	ImageResult	-- result of processing rom image			*
+	*																*
+	****************************************************************/
+
+	private ImageResult ProcessImage(String filename)
+		{
+		ROMProcessor	rom ;
+
+		rom = new ROMProcessor() ;
+		if (!rom.ProcessImage(m_options, filename))
+			{
+			return (new ImageResult(filename, false, rom.getError())) ;
+			}
+
+		return (new ImageResult(filename, true, "")) ;
+		}
+
+
+	/****************************************************************
+	* NAME: ReportResults (of BatchProcessor)						*
+	* I/P:	results	-- results of every rom image processed			*
+	*																*
+	****************************************************************/
+
+	public void ReportResults(List<ImageResult> results)
+		{
+		for (ImageResult result : results)
+			{
+			if (result.isSuccess())
+				{
+				m_messages.ForImage(result.getFilename()).println(result.getFilename() + ": OK") ;
+				}
+			else
+				{
+				m_messages.ForImage(result.getFilename()).error(result.getFilename() + ": ***ERROR: " + result.getError()) ;
+				}
+
+			}
+
+		m_messages.println("Processed " + results.size() + " images, " + m_failedCount + " failed") ;
+		}
+
+
+	/****************************************************************
+	* NAME: getExitCode (of BatchProcessor)							*
+	* RET:	int	-- aggregate exit code of every rom image processed *
+	*																*
+	****************************************************************/
+
+	public int getExitCode()
+		{
+		if (m_failedCount != 0)
+			{
+			return (k_EXIT_FAILED) ;
+			}
+
+		return (k_EXIT_OK) ;
+		}
+
+	}
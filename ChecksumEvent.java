@@ -0,0 +1,10 @@
+import jdk.jfr.Description ;
+import jdk.jfr.Label ;
+import jdk.jfr.Name ;
+
+@Name("onzfix.Checksum")
+@Label("Checksum")
+@Description("The checksums of a rom image were calculated & set")
+public class ChecksumEvent extends ROMEvent
+	{
+	}
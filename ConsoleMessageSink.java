@@ -0,0 +1,346 @@
+import java.io.* ;
+import java.util.ArrayList ;
+import java.util.List ;
+import java.util.concurrent.ArrayBlockingQueue ;
+import java.util.concurrent.BlockingQueue ;
+
+public class ConsoleMessageSink implements MessageSink
+	{
+	private final static int	k_QUEUE_SIZE = 4096 ;			// messages waiting to be written before senders have to wait
+	private final static int	k_BUFFER_SIZE = 0x10000 ;		// size of buffer of each console stream (in bytes)
+
+	private final static QueuedMessage	m_endOfOutput = new QueuedMessage(false, "") ;	// tells the writer thread to flush & finish
+
+	private static BlockingQueue<QueuedMessage>	m_queue ;		// messages waiting for the writer thread, null if not started
+	private static Thread			m_writer ;					// thread writing every message to the console
+	private static volatile boolean	m_stopped ;					// writer thread has finished, so messages are written directly
+	private static boolean			m_quiet ;					// only error messages are output
+	private static boolean			m_json ;					// every message is output as a line of JSON
+
+	private String	m_filename ;								// filename of rom image the messages are about, empty if none
+
+
+	/****************************************************************
+	* NAME: QueuedMessage (of ConsoleMessageSink)					*
+	*																*
+	* A message waiting for the writer thread, already formatted.	*
+	*																*
+	****************************************************************/
+
+	private static class QueuedMessage
+		{
+		private boolean	m_error ;								// message goes to standard error
+		private String	m_text ;								// formatted message
+
+		private QueuedMessage(boolean error, String text)
+			{
+			m_error = error ;
+			m_text = text ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: ConsoleMessageSink (constructor)						*
+	*																*
+	****************************************************************/
+
+	public ConsoleMessageSink()
+		{
+		m_filename = "" ;
+		}
+
+
+	/****************************************************************
+	* NAME: ConsoleMessageSink (constructor)						*
+	* I/P:	filename	-- filename of rom image the messages are	*
+	*					   about									*
+	*																*
+	****************************************************************/
+
+	public ConsoleMessageSink(String filename)
+		{
+		m_filename = filename ;
+		}
+
+
+	/****************************************************************
+	* NAME: Start (of ConsoleMessageSink)							*
+	* I/P:	quiet	-- only output error messages					*
+	*		json	-- output every message as a line of JSON		*
+	*																*
+	* Until this is called messages are written straight to the		*
+	* console by the thread that sends them. From then on they are	*
+	* queued for one writer thread, which writes everything that	*
+	* has queued up in one go through a large buffer, so workers of	*
+	* a batch no longer wait on the console & on each other. When	*
+	* the queue is full senders wait, so memory stays bounded. The	*
+	* queue is flushed when the program exits, however it exits.	*
+	*																*
+	****************************************************************/
+
+	public static void Start(boolean quiet, boolean json)
+		{
+		m_quiet = quiet ;
+		m_json = json ;
+		m_stopped = false ;
+		m_queue = new ArrayBlockingQueue<QueuedMessage>(k_QUEUE_SIZE) ;
+		m_writer = new Thread(() -> WriteMessages(), "ONZFIX messages") ;
+		m_writer.setDaemon(true) ;
+		m_writer.start() ;
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> Stop())) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Stop (of ConsoleMessageSink)							*
+	*																*
+	* Waits for every queued message to be written. Messages sent	*
+	* from now on are written straight to the console, and those	*
+	* queued by senders that got in first are still written by the	*
+	* writer thread before it finishes.								*
+	*																*
+	****************************************************************/
+
+	public static synchronized void Stop()
+		{
+		if ((m_queue == null) || (m_stopped))
+			{
+			return ;
+			}
+
+		m_stopped = true ;
+		try
+			{
+			m_queue.put(m_endOfOutput) ;
+			m_writer.join() ;
+			}
+
+		catch (InterruptedException intEx)
+			{
+			Thread.currentThread().interrupt() ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: println (of ConsoleMessageSink)							*
+	* I/P:	message	-- progress message to output					*
+	*																*
+	****************************************************************/
+
+	public void println(String message)
+		{
+		if (!m_quiet)
+			{
+			Send(false, message) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: error (of ConsoleMessageSink)							*
+	* I/P:	message	-- error message to output						*
+	*																*
+	****************************************************************/
+
+	public void error(String message)
+		{
+		Send(true, message) ;
+		}
+
+
+	/****************************************************************
+	* NAME: ForImage (of ConsoleMessageSink)						*
+	* I/P:	filename	-- filename of rom image being processed	*
+	* RET:	MessageSink	-- sink whose JSON messages name the image	*
+	*																*
+	****************************************************************/
+
+	public MessageSink ForImage(String filename)
+		{
+		return (new ConsoleMessageSink(filename)) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Send (of ConsoleMessageSink)							*
+	* I/P:	error	-- message is an error							*
+	*		message	-- message to output							*
+	*																*
+	* The message is formatted by the sender, so the writer thread	*
+	* only has to copy it.											*
+	*																*
+	****************************************************************/
+
+	private void Send(boolean error, String message)
+		{
+		StringBuilder	line ;
+
+		if ((m_queue == null) || (m_stopped))
+			{
+			if (error)
+				{
+				Message.error(message) ;
+				}
+			else
+				{
+				Message.println(message) ;
+				}
+
+			return ;
+			}
+
+		if (m_json)
+			{
+			line = new StringBuilder(message.length() + m_filename.length() + 48) ;
+			line.append("{\"level\":").append(error ? "\"error\"" : "\"info\"") ;
+			if (m_filename.length() != 0)
+				{
+				line.append(",\"file\":") ;
+				JSONText.AppendQuoted(line, m_filename) ;
+				}
+
+			line.append(",\"message\":") ;
+			JSONText.AppendQuoted(line, message.trim()) ;
+			line.append('}') ;
+			message = line.toString() ;
+			}
+
+		try
+			{
+			m_queue.put(new QueuedMessage(error, message)) ;
+			}
+
+		catch (InterruptedException intEx)
+			{
+			Thread.currentThread().interrupt() ;
+			}
+
+		// stopped while this was being queued, so the writer thread may have finished without it
+		if (m_stopped)
+			{
+			WriteLeftOver() ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: WriteLeftOver (of ConsoleMessageSink)					*
+	*																*
+	* Waits for the writer thread to finish, then writes straight	*
+	* to the console anything still queued after it.				*
+	*																*
+	****************************************************************/
+
+	private static synchronized void WriteLeftOver()
+		{
+		QueuedMessage	message ;
+
+		try
+			{
+			m_writer.join() ;
+			}
+
+		catch (InterruptedException intEx)
+			{
+			Thread.currentThread().interrupt() ;
+			}
+
+		while ((message = m_queue.poll()) != null)
+			{
+			if (message.m_error)
+				{
+				Message.error(message.m_text) ;
+				}
+			else if (message != m_endOfOutput)
+				{
+				Message.println(message.m_text) ;
+				}
+
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: WriteMessages (of ConsoleMessageSink)					*
+	*																*
+	* Run by the writer thread. Standard output & standard error	*
+	* each have a buffer, and the one being written is flushed		*
+	* before switching to the other so messages stay in order. It	*
+	* is also flushed whenever the queue runs dry. Once the end of	*
+	* output is reached, whatever else has been queued is written	*
+	* before the thread finishes.									*
+	*																*
+	****************************************************************/
+
+	private static void WriteMessages()
+		{
+		List<QueuedMessage>	messages ;
+		BufferedWriter		output ;
+		BufferedWriter		errors ;
+		BufferedWriter		writing ;
+		BufferedWriter		writer ;
+
+		boolean	ending ;
+
+		messages = new ArrayList<QueuedMessage>(k_QUEUE_SIZE) ;
+		output = new BufferedWriter(new OutputStreamWriter(System.out), k_BUFFER_SIZE) ;
+		errors = new BufferedWriter(new OutputStreamWriter(System.err), k_BUFFER_SIZE) ;
+		writing = output ;
+		ending = false ;
+		try
+			{
+			while (true)
+				{
+				if (!ending)
+					{
+					messages.add(m_queue.take()) ;
+					}
+
+				m_queue.drainTo(messages) ;
+				if ((ending) && (messages.isEmpty()))
+					{
+					return ;
+					}
+
+				for (QueuedMessage message : messages)
+					{
+					if (message == m_endOfOutput)
+						{
+						ending = true ;
+						continue ;
+						}
+
+					writer = message.m_error ? errors : output ;
+					if (writer != writing)
+						{
+						writing.flush() ;
+						writing = writer ;
+						}
+
+					writing.write(message.m_text) ;
+					writing.newLine() ;
+					}
+
+				messages.clear() ;
+				writing.flush() ;
+				}
+
+			}
+
+		catch (InterruptedException | IOException ex)
+			{
+			// the console has gone away, so senders mustn't wait for it
+			m_stopped = true ;
+			m_queue.clear() ;
+			}
+
+		}
+
+	}
@@ -0,0 +1,196 @@
+import java.io.IOException ;
+import java.nio.channels.FileChannel ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.nio.file.StandardCopyOption ;
+import java.nio.file.StandardOpenOption ;
+import java.util.ArrayList ;
+import java.util.HashSet ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.Set ;
+import java.util.concurrent.ConcurrentHashMap ;
+import java.util.stream.Collectors ;
+
+public class DeferredSync
+	{
+	private Map<Path, Path>	m_renames ;								// image each temporary file written but not yet synced replaces
+
+	private volatile String	m_errorMsg ;							// last error encountered syncing
+
+
+	/****************************************************************
+	* NAME: DeferredSync (constructor)								*
+	*																*
+	* The rom images written with the batch sync policy by one run	*
+	* or one server request, so every request only waits on, and	*
+	* only answers for, its own images.								*
+	*																*
+	****************************************************************/
+
+	public DeferredSync()
+		{
+		m_renames = new ConcurrentHashMap<Path, Path>() ;
+		m_errorMsg = "No error" ;
+		}
+
+
+	/****************************************************************
+	* NAME: Defer (of DeferredSync)									*
+	* I/P:	tempPath	-- temporary file holding the new image,	*
+	*					   written but not yet synced				*
+	*		imagePath	-- rom image it is to replace				*
+	*																*
+	****************************************************************/
+
+	public void Defer(Path tempPath, Path imagePath)
+		{
+		m_renames.put(tempPath.toAbsolutePath(), imagePath.toAbsolutePath()) ;
+		}
+
+
+	/****************************************************************
+	* NAME: SyncAll (of DeferredSync)								*
+	* RET:	boolean	-- false if any image could not be replaced		*
+	*																*
+	* Syncs every temporary file deferred so far in parallel, by	*
+	* which time the kernel has written back most of their pages,	*
+	* then renames each over its image & syncs each directory once. *
+	* Nothing is renamed before its data is durable, so a power cut *
+	* or a killed process leaves each image old or new. A temporary *
+	* file that can't be synced is deleted & its image left as it	*
+	* was. Each path is taken out as it is handled, so a file		*
+	* deferred meanwhile waits for the next call.					*
+	*																*
+	****************************************************************/
+
+	public synchronized boolean SyncAll()
+		{
+		List<Path>	tempPaths ;
+		List<Path>	unsynced ;
+		Set<Path>	directories ;
+		Path		imagePath ;
+
+		boolean	replaced ;
+
+		tempPaths = new ArrayList<Path>(m_renames.keySet()) ;
+		unsynced = tempPaths.parallelStream().filter(tempPath -> !SyncFile(tempPath)).collect(Collectors.toList()) ;
+		replaced = unsynced.isEmpty() ;
+		directories = new HashSet<Path>() ;
+		for (Path tempPath : tempPaths)
+			{
+			imagePath = m_renames.remove(tempPath) ;
+			try
+				{
+				if (unsynced.contains(tempPath))
+					{
+					Files.deleteIfExists(tempPath) ;
+					}
+				else
+					{
+					Files.move(tempPath, imagePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING) ;
+					directories.add(imagePath.getParent()) ;
+					}
+
+				}
+
+			catch (IOException ioEx)
+				{
+				m_errorMsg = "Could not replace " + imagePath + " (" + ioEx.getMessage() + ")" ;
+				replaced = false ;
+				}
+
+			}
+
+		for (Path directory : directories)
+			{
+			try
+				{
+				Sync(directory, true) ;
+				}
+
+			catch (IOException ioEx)
+				{
+				m_errorMsg = ioEx.getMessage() ;
+				replaced = false ;
+				}
+
+			}
+
+		return (replaced) ;
+		}
+
+
+	private boolean SyncFile(Path file)
+		{
+		try
+			{
+			Sync(file, false) ;
+			}
+
+		catch (IOException ioEx)
+			{
+			m_errorMsg = ioEx.getMessage() ;
+
+			return (false) ;
+			}
+
+		return (true) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Sync (of DeferredSync)									*
+	* I/P:	path		-- file or directory to sync				*
+	*		directory	-- path is a directory						*
+	*																*
+	* Not every platform can open a directory to sync it, and those *
+	* that can't don't need to, so a directory that can't be opened *
+	* is skipped.													*
+	*																*
+	****************************************************************/
+
+	public static void Sync(Path path, boolean directory) throws IOException
+		{
+		FileChannel	channel ;
+
+		try
+			{
+			channel = FileChannel.open(path, StandardOpenOption.READ) ;
+			}
+
+		catch (IOException ioEx)
+			{
+			if (directory)
+				{
+				return ;
+				}
+
+			throw new IOException("Could not open " + path + " to sync it (" + ioEx.getMessage() + ")", ioEx) ;
+			}
+
+		try (FileChannel syncChannel = channel)
+			{
+			syncChannel.force(true) ;
+			}
+
+		catch (IOException ioEx)
+			{
+			throw new IOException("Could not sync " + path + " (" + ioEx.getMessage() + ")", ioEx) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: getError (of DeferredSync)								*
+	* RET:	String	-- error message of last error encountered		*
+	*																*
+	****************************************************************/
+
+	public String getError()
+		{
+		return (m_errorMsg) ;
+		}
+
+	}
@@ -0,0 +1,21 @@
+import jdk.jfr.Description ;
+import jdk.jfr.Label ;
+import jdk.jfr.Name ;
+
+@Name("onzfix.HeaderChange")
+@Label("Header Change")
+@Description("A field of the header of a rom image was set")
+public class HeaderChangeEvent extends ROMEvent
+	{
+	@Label("Field")
+	public String	field ;										// name of header field
+
+	@Label("Address")
+	public int		address ;									// address of first byte of field
+
+	@Label("Old Value")
+	public String	oldValue ;									// bytes of field before it was set, in hex
+
+	@Label("New Value")
+	public String	newValue ;									// bytes of field after it was set, in hex
+	}
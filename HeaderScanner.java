@@ -0,0 +1,484 @@
+import java.io.* ;
+import java.nio.ByteBuffer ;
+import java.nio.channels.FileChannel ;
+import java.nio.file.* ;
+import java.util.ArrayList ;
+import java.util.Collections ;
+import java.util.List ;
+import java.util.concurrent.ForkJoinPool ;
+import java.util.concurrent.RecursiveAction ;
+import java.util.concurrent.atomic.AtomicInteger ;
+
+public class HeaderScanner
+	{
+	private final static int	k_HEADER_SIZE = 0x150 ;				// bytes read from each file, up to the end of the header
+	private final static int	k_FILES_PER_TASK = 32 ;				// files scanned by one task before it is split
+	private final static int	k_THREADS_PER_CORE = 4 ;			// scanning threads per core, as each mostly waits on i/o
+	private final static int	k_OUTPUT_BUFFER_SIZE = 0x10000 ;	// bytes of records buffered before they are written out
+
+	private final static String	k_CSV_HEADER = "path,file_size,title,cgb,sgb,cartridge_type,cartridge_description," +
+		"rom_size,rom_size_kb,ram_size,ram_size_kb,licensee,version" ;
+
+	private boolean			m_csv ;								// output records as csv rather than json
+	private Writer			m_output ;							// where records are streamed
+	private AtomicInteger	m_imageCount ;						// number of rom images found
+	private AtomicInteger	m_failedCount ;						// number of files that could not be read
+	private String			m_errorMsg ;						// last error encountered by scanner
+	private MessageSink		m_messages ;						// where files that could not be read are reported
+	private ThreadLocal<ScanBuffers>	m_buffers ;				// buffers reused by each scanning thread
+
+
+	/****************************************************************
+	* NAME: ScanDirectory (of HeaderScanner)						*
+	*																*
+	* Scans one directory. Every sub-directory becomes a task of	*
+	* its own, so the tree is walked by all threads at once.		*
+	*																*
+	****************************************************************/
+
+	private class ScanDirectory extends RecursiveAction
+		{
+		private final static long	serialVersionUID = 1L ;		// tasks are never serialized, declared to keep the compiler quiet
+
+		private Path	m_directory ;							// directory to scan
+
+		private ScanDirectory(Path directory)
+			{
+			m_directory = directory ;
+			}
+
+		protected void compute()
+			{
+			List<RecursiveAction>	tasks ;
+			List<Path>				files ;
+
+			tasks = new ArrayList<RecursiveAction>() ;
+			files = new ArrayList<Path>() ;
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(m_directory))
+				{
+				for (Path entry : entries)
+					{
+					// links to directories are not followed, so a link back up the tree can't loop forever
+					if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS))
+						{
+						tasks.add(new ScanDirectory(entry)) ;
+						}
+					else if (Files.isRegularFile(entry))
+						{
+						files.add(entry) ;
+						}
+
+					}
+
+				}
+
+			catch (IOException | DirectoryIteratorException ioEx)
+				{
+				Failed(m_directory, "Could not search directory") ;
+				}
+
+			tasks.add(new ScanFiles(files)) ;
+			invokeAll(tasks) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: ScanFiles (of HeaderScanner)							*
+	*																*
+	* Scans a list of files, splitting it in half until each task	*
+	* has only a few files left.									*
+	*																*
+	****************************************************************/
+
+	private class ScanFiles extends RecursiveAction
+		{
+		private final static long	serialVersionUID = 1L ;		// tasks are never serialized, declared to keep the compiler quiet
+
+		private List<Path>	m_files ;							// files to scan
+
+		private ScanFiles(List<Path> files)
+			{
+			m_files = files ;
+			}
+
+		protected void compute()
+			{
+			int	half ;
+
+			if (m_files.size() > k_FILES_PER_TASK)
+				{
+				half = m_files.size() / 2 ;
+				invokeAll(new ScanFiles(m_files.subList(0, half)), new ScanFiles(m_files.subList(half, m_files.size()))) ;
+
+				return ;
+				}
+
+			for (Path file : m_files)
+				{
+				ScanFile(file) ;
+				}
+
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: ScanBuffers (of HeaderScanner)							*
+	*																*
+	* Everything a thread needs to scan a file, kept from one file	*
+	* to the next so that scanning a file allocates nothing but		*
+	* the record it writes.											*
+	*																*
+	****************************************************************/
+
+	private static class ScanBuffers
+		{
+		private ByteBuffer		m_header ;						// header of file being scanned
+		private ROMHeader		m_fields ;						// view decoding the header
+		private StringBuilder	m_record ;						// record of file being scanned
+		private StringBuilder	m_text ;						// text field being quoted
+
+		private ScanBuffers()
+			{
+			m_header = ByteBuffer.allocate(k_HEADER_SIZE) ;
+			m_fields = new ROMHeader().Wrap(m_header) ;
+			m_record = new StringBuilder(256) ;
+			m_text = new StringBuilder(32) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: HeaderScanner (constructor)								*
+	* I/P:	format	-- "json" or "csv"								*
+	*		output	-- where records are streamed					*
+	*																*
+	* Lists the header of every rom image found without reading		*
+	* more than the header of any file. Only the first 0x150 bytes	*
+	* of a file are read and its size is taken from the file		*
+	* system, so a large archive is inventoried in seconds.			*
+	*																*
+	* Every file found is scanned, whatever its extension, and is	*
+	* listed if it has the Nintendo logo. One record is written		*
+	* per rom image as soon as it is scanned, either as a line of	*
+	* JSON or as a line of CSV. Files are scanned in parallel, so	*
+	* the records come out in the order the scans finish, not the	*
+	* order the files are found.									*
+	*																*
+	****************************************************************/
+
+	public HeaderScanner(String format, OutputStream output)
+		{
+		m_csv = format.equalsIgnoreCase("csv") ;
+		m_output = new BufferedWriter(new OutputStreamWriter(output), k_OUTPUT_BUFFER_SIZE) ;
+		m_imageCount = new AtomicInteger(0) ;
+		m_failedCount = new AtomicInteger(0) ;
+		m_messages = new ConsoleMessageSink() ;
+		m_buffers = ThreadLocal.withInitial(ScanBuffers::new) ;
+		m_errorMsg = "No error" ;
+		}
+
+
+	/****************************************************************
+	* NAME: getError (of HeaderScanner)								*
+	* RET:	String	-- error message of last error encountered		*
+	*																*
+	****************************************************************/
+
+	public String getError()
+		{
+		return (m_errorMsg) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getImageCount (of HeaderScanner)						*
+	* RET:	int	-- number of rom images found						*
+	*																*
+	****************************************************************/
+
+	public int getImageCount()
+		{
+		return (m_imageCount.get()) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Scan (of HeaderScanner)									*
+	* I/P:	names	-- filenames, directories & glob patterns		*
+	* RET:	boolean	-- false if any file could not be scanned		*
+	*																*
+	****************************************************************/
+
+	public boolean Scan(List<String> names)
+		{
+		ForkJoinPool			pool ;
+		List<RecursiveAction>	tasks ;
+		List<Path>				files ;
+
+		tasks = new ArrayList<RecursiveAction>() ;
+		files = new ArrayList<Path>() ;
+		for (String name : names)
+			{
+			if (new File(name).isDirectory())
+				{
+				tasks.add(new ScanDirectory(Paths.get(name))) ;
+				continue ;
+				}
+
+			// a glob pattern is expanded in to the files it matches
+			try
+				{
+				for (String filename : ImageCollector.Collect(Collections.singletonList(name), false))
+					{
+					files.add(Paths.get(filename)) ;
+					}
+
+				}
+
+			catch (IOException ioEx)
+				{
+				Failed(Paths.get(name), "Could not search for ROM images") ;
+				}
+
+			}
+
+		tasks.add(new ScanFiles(files)) ;
+		pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors() * k_THREADS_PER_CORE) ;
+		try
+			{
+			if (m_csv)
+				{
+				Write(k_CSV_HEADER + "\n") ;
+				}
+
+			pool.invoke(new RecursiveAction()
+				{
+				protected void compute()
+					{
+					invokeAll(tasks) ;
+					}
+
+				}) ;
+			m_output.flush() ;
+			}
+
+		catch (IOException ioEx)
+			{
+			m_errorMsg = "Could not write scan output (" + ioEx.getMessage() + ")" ;
+
+			return (false) ;
+			}
+
+		finally
+			{
+			pool.shutdown() ;
+			}
+
+		if (m_failedCount.get() != 0)
+			{
+			m_errorMsg = m_failedCount.get() + " files could not be scanned" ;
+
+			return (false) ;
+			}
+
+		return (true) ;
+		}
+
+
+	/****************************************************************
+	* NAME: ScanFile (of HeaderScanner)								*
+	* I/P:	file	-- file to scan									*
+	*																*
+	****************************************************************/
+
+	private void ScanFile(Path file)
+		{
+		ScanBuffers	buffers ;
+		ByteBuffer	header ;
+
+		long	fileSize ;
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+			{
+			fileSize = channel.size() ;
+			if (fileSize < k_HEADER_SIZE)
+				{
+				return ;
+				}
+
+			buffers = m_buffers.get() ;
+			header = buffers.m_header ;
+			header.clear() ;
+			while ((header.hasRemaining()) && (channel.read(header, header.position()) >= 0))
+				{
+				}
+
+			if ((header.hasRemaining()) || (!ROMProcessor.IsNintendoLogo(header)))
+				{
+				return ;
+				}
+
+			m_imageCount.incrementAndGet() ;
+			Write(FormatRecord(file.toString(), fileSize, buffers)) ;
+			}
+
+		catch (IOException ioEx)
+			{
+			Failed(file, "Could not read file") ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: FormatRecord (of HeaderScanner)							*
+	* I/P:	path		-- path of rom image						*
+	*		fileSize	-- size of rom image file					*
+	*		buffers		-- buffers holding header of rom image		*
+	* RET:	String		-- record of rom image, ending in a newline *
+	*																*
+	* A size that the size byte doesn't describe is left empty in	*
+	* CSV and is null in JSON.										*
+	*																*
+	****************************************************************/
+
+	private String FormatRecord(String path, long fileSize, ScanBuffers buffers)
+		{
+		StringBuilder	record ;
+		StringBuilder	text ;
+		ROMHeader		header ;
+
+		record = buffers.m_record ;
+		text = buffers.m_text ;
+		header = buffers.m_fields ;
+		record.setLength(0) ;
+		record.append(m_csv ? "" : "{") ;
+		AddField(record, "path", true) ;
+		AppendQuoted(record, path) ;
+		AddField(record, "file_size", false) ;
+		record.append(fileSize) ;
+		AddField(record, "title", false) ;
+		text.setLength(0) ;
+		header.AppendTitle(text) ;
+		AppendQuoted(record, text) ;
+		AddField(record, "cgb", false) ;
+		AppendQuoted(record, header.getGBCDescription()) ;
+		AddField(record, "sgb", false) ;
+		AppendQuoted(record, header.isSGB() ? "yes" : "no") ;
+		AddField(record, "cartridge_type", false) ;
+		AppendQuoted(record, ROMHeader.getHexByte(header.getCartridgeType())) ;
+		AddField(record, "cartridge_description", false) ;
+		AppendQuoted(record, header.getCartridgeDescription()) ;
+		AddField(record, "rom_size", false) ;
+		AppendQuoted(record, ROMHeader.getHexByte(header.getROMSize())) ;
+		AddField(record, "rom_size_kb", false) ;
+		AppendSize(record, header.getROMSizeKB()) ;
+		AddField(record, "ram_size", false) ;
+		AppendQuoted(record, ROMHeader.getHexByte(header.getRAMSize())) ;
+		AddField(record, "ram_size_kb", false) ;
+		AppendSize(record, header.getRAMSizeKB()) ;
+		AddField(record, "licensee", false) ;
+		text.setLength(0) ;
+		header.AppendLicensee(text) ;
+		AppendQuoted(record, text) ;
+		AddField(record, "version", false) ;
+		record.append(header.getVersion()) ;
+		record.append(m_csv ? "\n" : "}\n") ;
+
+		return (record.toString()) ;
+		}
+
+
+	private void AddField(StringBuilder record, String name, boolean first)
+		{
+		if (!first)
+			{
+			record.append(',') ;
+			}
+
+		if (!m_csv)
+			{
+			record.append('"').append(name).append("\":") ;
+			}
+
+		}
+
+
+	private void AppendSize(StringBuilder record, int sizeKB)
+		{
+		if (sizeKB >= 0)
+			{
+			record.append(sizeKB) ;
+			}
+		else if (!m_csv)
+			{
+			record.append("null") ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: AppendQuoted (of HeaderScanner)							*
+	* I/P:	record	-- record the field is appended to				*
+	*		value	-- text of a field								*
+	*																*
+	* The text is quoted & escaped for the output format as it is	*
+	* appended.														*
+	*																*
+	****************************************************************/
+
+	private void AppendQuoted(StringBuilder record, CharSequence value)
+		{
+		char	character ;
+		int		i ;
+
+		if (!m_csv)
+			{
+			JSONText.AppendQuoted(record, value) ;
+
+			return ;
+			}
+
+		// a quote inside a csv field is doubled
+		record.append('"') ;
+		for (i=0; i<value.length(); i++)
+			{
+			character = value.charAt(i) ;
+			if (character == '"')
+				{
+				record.append("\"\"") ;
+				}
+			else
+				{
+				record.append(character) ;
+				}
+
+			}
+
+		record.append('"') ;
+		}
+
+
+	private void Write(String record) throws IOException
+		{
+		synchronized (m_output)
+			{
+			m_output.write(record) ;
+			}
+
+		}
+
+
+	private void Failed(Path path, String why)
+		{
+		m_failedCount.incrementAndGet() ;
+		m_messages.ForImage(path.toString()).error(path + ": ***ERROR: " + why) ;
+		}
+
+	}
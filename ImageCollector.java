@@ -0,0 +1,188 @@
+import java.io.* ;
+import java.nio.file.* ;
+import java.util.ArrayList ;
+import java.util.List ;
+import java.util.stream.Stream ;
+
+public class ImageCollector
+	{
+	private final static String	k_GLOB_CHARACTERS = "*?[{" ;	// characters that make a filename a glob pattern
+	private final static String	m_romExtensions[] = { ".gb", ".gbc", ".cgb", ".sgb" } ;	// extensions of rom images found in directories
+
+
+	/****************************************************************
+	* NAME: IsBatch (of ImageCollector)								*
+	* I/P:	names	-- filenames, directories & glob patterns		*
+	* RET:	boolean	-- true if names can refer to more than one image *
+	*																*
+	****************************************************************/
+
+	public static boolean IsBatch(List<String> names)
+		{
+		if (names.size() != 1)
+			{
+			return (true) ;
+			}
+
+		return (IsGlob(names.get(0)) || new File(names.get(0)).isDirectory()) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Collect (of ImageCollector)								*
+	* I/P:	names		-- filenames, directories & glob patterns	*
+	*		archives	-- directories are searched for archives	*
+	* RET:	List		-- filename of every rom image named		*
+	*																*
+	* Expands the rom images named on the command line in to a		*
+	* list of filenames. A filename is used as it is. A directory	*
+	* is searched, including all sub-directories, for files with	*
+	* a rom image extension, and for zip archives & gzipped rom		*
+	* images only when asked, as a zip found in a directory may not *
+	* hold a rom image at all. A glob pattern is matched against	*
+	* all files beneath the part of the pattern that has no			*
+	* wildcards.													*
+	*																*
+	****************************************************************/
+
+	public static List<String> Collect(List<String> names, boolean archives) throws IOException
+		{
+		List<String>	filenames ;
+
+		filenames = new ArrayList<String>() ;
+		for (String name : names)
+			{
+			if (IsGlob(name))
+				{
+				CollectGlob(name, filenames) ;
+				}
+			else if (new File(name).isDirectory())
+				{
+				CollectDirectory(Paths.get(name), archives, filenames) ;
+				}
+			else
+				{
+				filenames.add(name) ;
+				}
+
+			}
+
+		return (filenames) ;
+		}
+
+
+	/****************************************************************
+	* NAME: IsROMFilename (of ImageCollector)						*
+	* I/P:	filename	-- filename to test							*
+	* RET:	boolean		-- true if filename has a rom image extension *
+	*																*
+	****************************************************************/
+
+	public static boolean IsROMFilename(String filename)
+		{
+		String	lowerFilename ;
+
+		lowerFilename = filename.toLowerCase() ;
+		for (String extension : m_romExtensions)
+			{
+			if (lowerFilename.endsWith(extension))
+				{
+				return (true) ;
+				}
+
+			}
+
+		return (false) ;
+		}
+
+
+	/****************************************************************
+	* NAME: IsROMArchiveFilename (of ImageCollector)				*
+	* I/P:	filename	-- filename to test							*
+	* RET:	boolean		-- true if filename is a zip archive or a	*
+	*					   gzipped rom image						*
+	*																*
+	****************************************************************/
+
+	private static boolean IsROMArchiveFilename(String filename)
+		{
+		if (filename.toLowerCase().endsWith(".zip"))
+			{
+			return (true) ;
+			}
+
+		return (filename.toLowerCase().endsWith(".gz") && IsROMFilename(filename.substring(0, filename.length() - 3))) ;
+		}
+
+
+	private static boolean IsGlob(String name)
+		{
+		int	i ;
+
+		for (i=0; i<name.length(); i++)
+			{
+			if (k_GLOB_CHARACTERS.indexOf(name.charAt(i)) >= 0)
+				{
+				return (true) ;
+				}
+
+			}
+
+		return (false) ;
+		}
+
+
+	private static void CollectDirectory(Path directory, boolean archives, List<String> filenames) throws IOException
+		{
+		try (Stream<Path> files = Files.walk(directory))
+			{
+			files.filter(path -> Files.isRegularFile(path) && (IsROMFilename(path.toString()) || (archives && IsROMArchiveFilename(path.toString()))))
+				.sorted()
+				.forEach(path -> filenames.add(path.toString())) ;
+			}
+
+		}
+
+
+	private static void CollectGlob(String pattern, List<String> filenames) throws IOException
+		{
+		PathMatcher	matcher ;
+		Path		baseDirectory ;
+
+		int	wildcard ;
+		int	separator ;
+
+		// search from the deepest directory in the pattern that has no wildcards
+		wildcard = 0 ;
+		while (k_GLOB_CHARACTERS.indexOf(pattern.charAt(wildcard)) < 0)
+			{
+			wildcard++ ;
+			}
+
+		separator = Math.max(pattern.lastIndexOf('/', wildcard), pattern.lastIndexOf(File.separatorChar, wildcard)) ;
+		if (separator < 0)
+			{
+			baseDirectory = Paths.get(".") ;
+			matcher = FileSystems.getDefault().getPathMatcher("glob:./" + pattern) ;
+			}
+		else
+			{
+			baseDirectory = Paths.get(pattern.substring(0, separator + 1)) ;
+			matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern) ;
+			}
+
+		if (!Files.isDirectory(baseDirectory))
+			{
+			return ;
+			}
+
+		try (Stream<Path> files = Files.walk(baseDirectory))
+			{
+			files.filter(path -> Files.isRegularFile(path) && matcher.matches(path))
+				.sorted()
+				.forEach(path -> filenames.add(path.toString())) ;
+			}
+
+		}
+
+	}
@@ -0,0 +1,183 @@
+import java.nio.ByteBuffer ;
+import java.security.MessageDigest ;
+import java.security.NoSuchAlgorithmException ;
+import java.util.ArrayList ;
+import java.util.LinkedHashMap ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.zip.CRC32 ;
+import java.util.zip.CRC32C ;
+import java.util.zip.Checksum ;
+
+public class ImageDigests
+	{
+	public final static String	k_DEFAULT_DIGESTS = "crc32,md5,sha1" ;	// digests calculated if none are named
+
+	private final static String	m_names[] = { "crc32", "crc32c", "md5", "sha1", "sha256" } ;				// names of digests that can be calculated
+	private final static String	m_algorithms[] = { "CRC32", "CRC32C", "MD5", "SHA-1", "SHA-256" } ;		// name of algorithm of each digest
+
+	private List<String>		m_digestNames ;					// name of each digest being calculated, in order
+	private List<Object>		m_digests ;						// Checksum or MessageDigest of each digest, in order
+
+
+	/****************************************************************
+	* NAME: ImageDigests (constructor)								*
+	* I/P:	digestNames	-- comma separated names of digests			*
+	*																*
+	* Calculates any number of digests of a rom image in a single	*
+	* pass. Each chunk of the image is fed to every digest in turn	*
+	* while it is still in the cache, and the CRCs and message		*
+	* digests of the JDK all use intrinsics on a ByteBuffer, so the	*
+	* image is never copied. The names must have been checked with	*
+	* IsDigestList.													*
+	*																*
+	****************************************************************/
+
+	public ImageDigests(String digestNames)
+		{
+		m_digestNames = new ArrayList<String>() ;
+		m_digests = new ArrayList<Object>() ;
+		for (String name : digestNames.toLowerCase().split(","))
+			{
+			m_digestNames.add(name) ;
+			m_digests.add(NewDigest(name)) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: IsDigestList (of ImageDigests)							*
+	* I/P:	digestNames	-- comma separated names of digests			*
+	* RET:	boolean		-- true if every digest can be calculated	*
+	*																*
+	****************************************************************/
+
+	public static boolean IsDigestList(String digestNames)
+		{
+		for (String name : digestNames.toLowerCase().split(","))
+			{
+			if (AlgorithmIndex(name) < 0)
+				{
+				return (false) ;
+				}
+
+			}
+
+		return (true) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Update (of ImageDigests)								*
+	* I/P:	chunk	-- next chunk of rom image, from its position	*
+	*				   to its limit									*
+	*																*
+	****************************************************************/
+
+	public void Update(ByteBuffer chunk)
+		{
+		int	position ;
+
+		position = chunk.position() ;
+		for (Object digest : m_digests)
+			{
+			chunk.position(position) ;
+			if (digest instanceof Checksum)
+				{
+				((Checksum)(digest)).update(chunk) ;
+				}
+			else
+				{
+				((MessageDigest)(digest)).update(chunk) ;
+				}
+
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: getResults (of ImageDigests)							*
+	* RET:	Map	-- name & hexadecimal value of each digest, in order *
+	*																*
+	* Finishes every digest, so it can only be called once.			*
+	*																*
+	****************************************************************/
+
+	public Map<String, String> getResults()
+		{
+		Map<String, String>	results ;
+		StringBuilder		hex ;
+		Object				digest ;
+
+		int	i ;
+
+		results = new LinkedHashMap<String, String>() ;
+		for (i=0; i<m_digests.size(); i++)
+			{
+			digest = m_digests.get(i) ;
+			hex = new StringBuilder() ;
+			if (digest instanceof Checksum)
+				{
+				hex.append(String.format("%08x", ((Checksum)(digest)).getValue())) ;
+				}
+			else
+				{
+				for (byte digestByte : ((MessageDigest)(digest)).digest())
+					{
+					hex.append(String.format("%02x", digestByte & 0xFF)) ;
+					}
+
+				}
+
+			results.put(m_algorithms[AlgorithmIndex(m_digestNames.get(i))], hex.toString()) ;
+			}
+
+		return (results) ;
+		}
+
+
+	private static int AlgorithmIndex(String name)
+		{
+		int	i ;
+
+		for (i=0; i<m_names.length; i++)
+			{
+			if (m_names[i].equals(name))
+				{
+				return (i) ;
+				}
+
+			}
+
+		return (-1) ;
+		}
+
+
+	private static Object NewDigest(String name)
+		{
+		if (name.equals("crc32"))
+			{
+			return (new CRC32()) ;
+			}
+
+		if (name.equals("crc32c"))
+			{
+			return (new CRC32C()) ;
+			}
+
+		try
+			{
+			return (MessageDigest.getInstance(m_algorithms[AlgorithmIndex(name)])) ;
+			}
+
+		catch (NoSuchAlgorithmException nsaEx)
+			{
+			// every java runtime has to provide md5, sha-1 & sha-256
+			throw new IllegalStateException(nsaEx) ;
+			}
+
+		}
+
+	}
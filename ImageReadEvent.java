@@ -0,0 +1,10 @@
+import jdk.jfr.Description ;
+import jdk.jfr.Label ;
+import jdk.jfr.Name ;
+
+@Name("onzfix.ImageRead")
+@Label("Image Read")
+@Description("A rom image was read, mapped or streamed to verify it")
+public class ImageReadEvent extends ROMEvent
+	{
+	}
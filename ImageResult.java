@@ -0,0 +1,59 @@
+public class ImageResult
+	{
+	private String	m_filename ;								// filename of rom image that was processed
+	private boolean	m_success ;									// rom image was processed without error
+	private String	m_errorMsg ;								// error encountered while processing rom image
+
+
+	/****************************************************************
+	* NAME: ImageResult (constructor)								*
+	* I/P:	filename	-- filename of rom image that was processed *
+	*		success		-- true if rom image was processed			*
+	*		errorMsg	-- error encountered if not processed		*
+	*																*
+	****************************************************************/
+
+	public ImageResult(String filename, boolean success, String errorMsg)
+		{
+		m_filename = filename ;
+		m_success = success ;
+		m_errorMsg = errorMsg ;
+		}
+
+
+	/****************************************************************
+	* NAME: getFilename (of ImageResult)							*
+	*																*
+	*																*
+	****************************************************************/
+
+	public String getFilename()
+		{
+		return (m_filename) ;
+		}
+
+
+	/****************************************************************
+	* NAME: isSuccess (of ImageResult)								*
+	*																*
+	*																*
+	****************************************************************/
+
+	public boolean isSuccess()
+		{
+		return (m_success) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getError (of ImageResult)								*
+	*																*
+	*																*
+	****************************************************************/
+
+	public String getError()
+		{
+		return (m_errorMsg) ;
+		}
+
+	}
@@ -0,0 +1,210 @@
+import java.lang.management.ManagementFactory ;
+import java.lang.management.ThreadMXBean ;
+
+public class ImageTimings
+	{
+	public final static int	k_READ = 0 ;						// reading or mapping the rom image
+	public final static int	k_PATCH = 1 ;						// applying an ips or bps patch to the rom image
+	public final static int	k_PAD = 2 ;							// padding the rom image
+	public final static int	k_TRUNCATE = 3 ;					// truncating the rom image
+	public final static int	k_HEADER = 4 ;						// setting header bytes named by options
+	public final static int	k_LOGO = 5 ;						// validating the nintendo logo
+	public final static int	k_ROM_SIZE = 6 ;					// validating the rom size byte
+	public final static int	k_CARTRIDGE_TYPE = 7 ;				// validating the cartridge type byte
+	public final static int	k_CHECKSUM = 8 ;					// calculating & setting the checksums
+	public final static int	k_DIGEST = 9 ;						// calculating digests of the fixed image
+	public final static int	k_WRITE = 10 ;						// writing the rom image back out
+	public final static int	k_VERIFY = 11 ;						// streaming the rom image to check its checksums
+	public final static int	k_OUTPUT = 12 ;						// printing progress messages, during the other phases
+	public final static int	k_PHASES = 13 ;						// number of phases
+
+	private final static String		m_phaseNames[] = { "read", "patch", "pad", "truncate", "header", "validate_logo", "validate_rom_size",
+		"validate_cartridge_type", "checksum", "digest", "write", "verify", "output" } ;		// name of each phase in reports
+	private final static boolean	m_wholeImage[] = { true, true, true, true, false, false, false,
+		false, true, true, true, true, false } ;				// phases that touch the whole image, so their bytes count
+
+	private final static ThreadMXBean	m_threads = ManagementFactory.getThreadMXBean() ;	// source of cpu time of each thread
+
+	private String	m_filename ;								// filename of rom image being timed
+
+	private long	m_wallNanos[] ;								// wall clock time of each phase
+	private long	m_cpuNanos[] ;								// cpu time of each phase
+	private long	m_bytes[] ;									// bytes processed by each phase
+	private int		m_runs[] ;									// times each phase was run
+	private long	m_phaseWallStart ;							// wall clock time the current phase began
+	private long	m_phaseCPUStart ;							// cpu time the current phase began
+	private long	m_imageWallStart ;							// wall clock time timing of the rom image began
+
+
+	/****************************************************************
+	* NAME: ImageTimings (constructor)								*
+	* I/P:	filename	-- filename of rom image being timed		*
+	*																*
+	* Records the wall clock & cpu time of each phase of processing *
+	* one rom image, and the bytes each phase processed. A phase	*
+	* begins & ends on the same thread, so its cpu time is that of	*
+	* the thread. On threads without cpu time, such as virtual		*
+	* threads, cpu time is left as zero.							*
+	*																*
+	****************************************************************/
+
+	public ImageTimings(String filename)
+		{
+		m_filename = filename ;
+		m_wallNanos = new long[k_PHASES] ;
+		m_cpuNanos = new long[k_PHASES] ;
+		m_bytes = new long[k_PHASES] ;
+		m_runs = new int[k_PHASES] ;
+		m_imageWallStart = System.nanoTime() ;
+		}
+
+
+	/****************************************************************
+	* NAME: Begin (of ImageTimings)									*
+	*																*
+	****************************************************************/
+
+	public void Begin()
+		{
+		m_phaseCPUStart = getCPUTime() ;
+		m_phaseWallStart = System.nanoTime() ;
+		}
+
+
+	/****************************************************************
+	* NAME: End (of ImageTimings)									*
+	* I/P:	phase		-- phase that has just finished				*
+	*		imageSize	-- size of rom image after the phase		*
+	*																*
+	****************************************************************/
+
+	public void End(int phase, long imageSize)
+		{
+		Add(phase, System.nanoTime() - m_phaseWallStart, m_phaseCPUStart, imageSize) ;
+		}
+
+
+	/****************************************************************
+	* NAME: TimeOutput (of ImageTimings)							*
+	* I/P:	messages	-- where progress messages are output		*
+	* RET:	MessageSink	-- same sink, with the time spent in it		*
+	*					   recorded as the output phase				*
+	*																*
+	* Messages are printed during other phases, so time spent on	*
+	* output is counted in both.									*
+	*																*
+	****************************************************************/
+
+	public MessageSink TimeOutput(MessageSink messages)
+		{
+		return (new MessageSink()
+			{
+			public void println(String message)
+				{
+				long	wallStart ;
+				long	cpuStart ;
+
+				cpuStart = getCPUTime() ;
+				wallStart = System.nanoTime() ;
+				messages.println(message) ;
+				Add(k_OUTPUT, System.nanoTime() - wallStart, cpuStart, message.length()) ;
+				}
+
+			public void error(String message)
+				{
+				long	wallStart ;
+				long	cpuStart ;
+
+				cpuStart = getCPUTime() ;
+				wallStart = System.nanoTime() ;
+				messages.error(message) ;
+				Add(k_OUTPUT, System.nanoTime() - wallStart, cpuStart, message.length()) ;
+				}
+
+			}) ;
+		}
+
+
+	private void Add(int phase, long wallNanos, long cpuStart, long bytes)
+		{
+		long	cpuEnd ;
+
+		cpuEnd = getCPUTime() ;
+		m_wallNanos[phase] += wallNanos ;
+		if ((cpuStart >= 0) && (cpuEnd >= 0))
+			{
+			m_cpuNanos[phase] += cpuEnd - cpuStart ;
+			}
+
+		// output counts characters printed
+		if ((m_wholeImage[phase]) || (phase == k_OUTPUT))
+			{
+			m_bytes[phase] += bytes ;
+			}
+
+		m_runs[phase]++ ;
+		}
+
+
+	private static long getCPUTime()
+		{
+		if (!m_threads.isCurrentThreadCpuTimeSupported())
+			{
+			return (-1) ;
+			}
+
+		return (m_threads.getCurrentThreadCpuTime()) ;
+		}
+
+
+	public static String getPhaseName(int phase)
+		{
+		return (m_phaseNames[phase]) ;
+		}
+
+
+	public String getFilename()
+		{
+		return (m_filename) ;
+		}
+
+
+	public boolean isRun(int phase)
+		{
+		return (m_runs[phase] != 0) ;
+		}
+
+
+	public long getWallNanos(int phase)
+		{
+		return (m_wallNanos[phase]) ;
+		}
+
+
+	public long getCPUNanos(int phase)
+		{
+		return (m_cpuNanos[phase]) ;
+		}
+
+
+	public long getBytes(int phase)
+		{
+		return (m_bytes[phase]) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getTotalWallNanos (of ImageTimings)						*
+	* RET:	long	-- wall clock time since timing began			*
+	*																*
+	* Includes the time a rom image spent waiting between phases,	*
+	* e.g. in the queues of a pipelined batch.						*
+	*																*
+	****************************************************************/
+
+	public long getTotalWallNanos()
+		{
+		return (System.nanoTime() - m_imageWallStart) ;
+		}
+
+	}
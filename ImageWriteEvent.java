@@ -0,0 +1,10 @@
+import jdk.jfr.Description ;
+import jdk.jfr.Label ;
+import jdk.jfr.Name ;
+
+@Name("onzfix.ImageWrite")
+@Label("Image Write")
+@Description("A rom image was written back out")
+public class ImageWriteEvent extends ROMEvent
+	{
+	}
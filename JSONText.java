@@ -0,0 +1,41 @@
+public class JSONText
+	{
+	/****************************************************************
+	* NAME: AppendQuoted (of JSONText)								*
+	* I/P:	text	-- where the string is appended					*
+	*		value	-- text of the string							*
+	*																*
+	* Appends the value as a JSON string, quoted & with quotes,		*
+	* backslashes & control characters escaped. Shared by every		*
+	* part of the program that outputs JSON lines.					*
+	*																*
+	****************************************************************/
+
+	public static void AppendQuoted(StringBuilder text, CharSequence value)
+		{
+		char	character ;
+		int		i ;
+
+		text.append('"') ;
+		for (i=0; i<value.length(); i++)
+			{
+			character = value.charAt(i) ;
+			if ((character == '"') || (character == '\\'))
+				{
+				text.append('\\').append(character) ;
+				}
+			else if (character < 0x20)
+				{
+				text.append(String.format("\\u%04x", (int)(character))) ;
+				}
+			else
+				{
+				text.append(character) ;
+				}
+
+			}
+
+		text.append('"') ;
+		}
+
+	}
@@ -0,0 +1,147 @@
+import java.util.concurrent.atomic.AtomicLong ;
+import java.util.concurrent.atomic.AtomicLongArray ;
+
+public class LatencyHistogram
+	{
+	private final static int	k_SUB_BUCKET_BITS = 4 ;			// bits of each value kept below its highest bit
+	private final static int	k_SUB_BUCKETS = 1 << k_SUB_BUCKET_BITS ;	// buckets between one power of two & the next
+	private final static int	k_BUCKETS = (64 - k_SUB_BUCKET_BITS) * k_SUB_BUCKETS ;	// buckets covering every positive long
+
+	private AtomicLongArray	m_counts ;							// number of values recorded in each bucket
+	private AtomicLong		m_count ;							// number of values recorded
+	private AtomicLong		m_total ;							// sum of values recorded
+	private AtomicLong		m_min ;								// smallest value recorded
+	private AtomicLong		m_max ;								// largest value recorded
+
+
+	/****************************************************************
+	* NAME: LatencyHistogram (constructor)							*
+	*																*
+	* Records durations from many threads at once without a lock.	*
+	* Each power of two is split in to 16 buckets, so a percentile	*
+	* is exact to within 1/16th (about 6%) whatever the range of	*
+	* values, in a fixed 8kB of counters.							*
+	*																*
+	****************************************************************/
+
+	public LatencyHistogram()
+		{
+		m_counts = new AtomicLongArray(k_BUCKETS) ;
+		m_count = new AtomicLong(0) ;
+		m_total = new AtomicLong(0) ;
+		m_min = new AtomicLong(Long.MAX_VALUE) ;
+		m_max = new AtomicLong(0) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Record (of LatencyHistogram)							*
+	* I/P:	value	-- value to record, zero or more				*
+	*																*
+	****************************************************************/
+
+	public void Record(long value)
+		{
+		m_counts.incrementAndGet(BucketIndex(value)) ;
+		m_count.incrementAndGet() ;
+		m_total.addAndGet(value) ;
+		m_min.accumulateAndGet(value, Math::min) ;
+		m_max.accumulateAndGet(value, Math::max) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getPercentile (of LatencyHistogram)						*
+	* I/P:	percentile	-- percentile wanted, 0 to 100				*
+	* RET:	long		-- largest value of the bucket holding the	*
+	*					   percentile, never more than the maximum	*
+	*																*
+	****************************************************************/
+
+	public long getPercentile(double percentile)
+		{
+		long	wanted ;
+		long	seen ;
+		int		i ;
+
+		wanted = Math.max(1, (long)(Math.ceil(m_count.get() * percentile / 100.0))) ;
+		seen = 0 ;
+		for (i=0; i<k_BUCKETS; i++)
+			{
+			seen += m_counts.get(i) ;
+			if (seen >= wanted)
+				{
+				return (Math.min(BucketLimit(i), getMax())) ;
+				}
+
+			}
+
+		return (getMax()) ;
+		}
+
+
+	public long getCount()
+		{
+		return (m_count.get()) ;
+		}
+
+
+	public long getTotal()
+		{
+		return (m_total.get()) ;
+		}
+
+
+	public long getMin()
+		{
+		return ((m_count.get() == 0) ? 0 : m_min.get()) ;
+		}
+
+
+	public long getMax()
+		{
+		return (m_max.get()) ;
+		}
+
+
+	/****************************************************************
+	* NAME: BucketIndex (of LatencyHistogram)						*
+	* I/P:	value	-- value to find bucket of						*
+	* RET:	int		-- bucket holding value							*
+	*																*
+	* Values below 16 have a bucket each. Above that the highest	*
+	* bit picks a group of 16 buckets & the next four bits pick		*
+	* the bucket in the group.										*
+	*																*
+	****************************************************************/
+
+	private static int BucketIndex(long value)
+		{
+		int	highBit ;
+
+		if (value < k_SUB_BUCKETS)
+			{
+			return ((int)(Math.max(value, 0))) ;
+			}
+
+		highBit = 63 - Long.numberOfLeadingZeros(value) ;
+
+		return ((highBit - k_SUB_BUCKET_BITS + 1) * k_SUB_BUCKETS + (int)((value >>> (highBit - k_SUB_BUCKET_BITS)) & (k_SUB_BUCKETS - 1))) ;
+		}
+
+
+	private static long BucketLimit(int index)
+		{
+		int	shift ;
+
+		if (index < k_SUB_BUCKETS)
+			{
+			return (index) ;
+			}
+
+		shift = index / k_SUB_BUCKETS - 1 ;
+
+		return ((((long)(k_SUB_BUCKETS + index % k_SUB_BUCKETS) + 1) << shift) - 1) ;
+		}
+
+	}
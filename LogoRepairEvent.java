@@ -0,0 +1,10 @@
+import jdk.jfr.Description ;
+import jdk.jfr.Label ;
+import jdk.jfr.Name ;
+
+@Name("onzfix.LogoRepair")
+@Label("Logo Repair")
+@Description("The Nintendo logo of a rom image was checked & repaired")
+public class LogoRepairEvent extends ROMEvent
+	{
+	}
@@ -0,0 +1,347 @@
+public class ManifestEntry
+	{
+	private final static int	k_MAX_CART_TITLE_LEN = 16 ;		// most characters in a cartridge title
+	private final static int	k_PADDED_TITLE_LEN = 15 ;		// characters a shorter title is padded to, clear of the gbc flag
+	private final static int	k_NOT_SET = -1 ;				// value of a field the manifest leaves as it is
+
+	private String	m_path ;									// filename of rom image, as given in the manifest
+	private String	m_title ;									// cartridge title, null if not set
+	private String	m_gbcMode ;									// "only", "compatible" or "no", null if not set
+	private int		m_sgbFeatures ;								// super gameboy flag
+	private int		m_cartridgeType ;							// cartridge type byte
+	private int		m_romSize ;									// rom size byte
+	private int		m_ramSize ;									// ram size byte
+	private int		m_newLicensee ;								// two character licensee code, first character in the msb
+	private int		m_licensee ;								// old licensee code
+	private int		m_countryCode ;								// country code byte
+	private int		m_version ;									// rom version
+	private String	m_errorMsg ;								// last error encountered setting a field
+
+
+	/****************************************************************
+	* NAME: ManifestEntry (constructor)								*
+	*																*
+	* The header values a manifest gives one rom image. Every field *
+	* starts out not set, and a field that is never set is left as	*
+	* it is in the image.											*
+	*																*
+	****************************************************************/
+
+	public ManifestEntry()
+		{
+		m_path = null ;
+		m_title = null ;
+		m_gbcMode = null ;
+		m_sgbFeatures = k_NOT_SET ;
+		m_cartridgeType = k_NOT_SET ;
+		m_romSize = k_NOT_SET ;
+		m_ramSize = k_NOT_SET ;
+		m_newLicensee = k_NOT_SET ;
+		m_licensee = k_NOT_SET ;
+		m_countryCode = k_NOT_SET ;
+		m_version = k_NOT_SET ;
+		m_errorMsg = "No error" ;
+		}
+
+
+	/****************************************************************
+	* NAME: Set (of ManifestEntry)									*
+	* I/P:	field	-- name of field, as in the scan output			*
+	*		value	-- value of field, empty to leave it as it is	*
+	* RET:	boolean	-- false if the field or its value is invalid	*
+	*																*
+	* The fields are those that a scan lists, so the output of a	*
+	* scan can be edited & given back as a manifest. The fields a	*
+	* scan works out from the others, such as the sizes in kB, are	*
+	* ignored. Sizes, codes & types are hex bytes, with or without	*
+	* 0x, the version is decimal unless it starts with 0x. A		*
+	* licensee of 0x and two hex digits is the old one byte code,	*
+	* any other two characters are the new two byte code.			*
+	*																*
+	****************************************************************/
+
+	public boolean Set(String field, String value)
+		{
+		switch (field)
+			{
+			case "path" :
+				m_path = value ;
+
+				return ((value.length() != 0) || (Fail("path must be given"))) ;
+			case "file_size" :
+			case "cartridge_description" :
+			case "rom_size_kb" :
+			case "ram_size_kb" :
+				return (true) ;
+			default :
+				break ;
+			}
+
+		if (value.length() == 0)
+			{
+			return (true) ;
+			}
+
+		switch (field)
+			{
+			case "title" :
+				if (value.length() > k_MAX_CART_TITLE_LEN)
+					{
+					return (Fail("title must be no more than " + k_MAX_CART_TITLE_LEN + " characters")) ;
+					}
+
+				for (char character : value.toCharArray())
+					{
+					if (!IsPrintable(character))
+						{
+						return (Fail("title must be printable ASCII characters")) ;
+						}
+
+					}
+
+				m_title = value ;
+
+				return (true) ;
+			case "cgb" :
+				m_gbcMode = value.toLowerCase() ;
+
+				return ((m_gbcMode.equals("only")) || (m_gbcMode.equals("compatible")) || (m_gbcMode.equals("no")) ||
+					(Fail("cgb must be only, compatible or no"))) ;
+			case "sgb" :
+				m_sgbFeatures = value.equalsIgnoreCase("yes") ? 0x03 : value.equalsIgnoreCase("no") ? 0x00 : k_NOT_SET ;
+
+				return ((m_sgbFeatures != k_NOT_SET) || (Fail("sgb must be yes or no"))) ;
+			case "cartridge_type" :
+				m_cartridgeType = ParseByte(value, 16) ;
+
+				return ((m_cartridgeType != k_NOT_SET) || (Fail("cartridge_type must be a hex byte"))) ;
+			case "rom_size" :
+				m_romSize = ParseByte(value, 16) ;
+
+				return ((m_romSize != k_NOT_SET) || (Fail("rom_size must be a hex byte"))) ;
+			case "ram_size" :
+				m_ramSize = ParseByte(value, 16) ;
+
+				return ((m_ramSize != k_NOT_SET) || (Fail("ram_size must be a hex byte"))) ;
+			case "country_code" :
+				m_countryCode = ParseByte(value, 16) ;
+
+				return ((m_countryCode != k_NOT_SET) || (Fail("country_code must be a hex byte"))) ;
+			case "version" :
+				m_version = ParseByte(value, 10) ;
+
+				return ((m_version != k_NOT_SET) || (Fail("version must be a number from 0 to 255"))) ;
+			case "licensee" :
+				if (value.toLowerCase().startsWith("0x"))
+					{
+					m_licensee = ParseByte(value, 16) ;
+
+					return ((m_licensee != k_NOT_SET) || (Fail("licensee must be 0x and two hex digits or two characters"))) ;
+					}
+
+				if ((value.length() != 2) || (!IsPrintable(value.charAt(0))) || (!IsPrintable(value.charAt(1))))
+					{
+					return (Fail("licensee must be 0x and two hex digits or two characters")) ;
+					}
+
+				m_newLicensee = (value.charAt(0) << 8) | value.charAt(1) ;
+
+				return (true) ;
+			default :
+				return (Fail("unknown field " + field)) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: ParseByte (of ManifestEntry)							*
+	* I/P:	value	-- text of a byte								*
+	*		radix	-- radix of value unless it starts with 0x		*
+	* RET:	int		-- value of byte, k_NOT_SET if it isn't one		*
+	*																*
+	****************************************************************/
+
+	private static int ParseByte(String value, int radix)
+		{
+		int	parsed ;
+
+		if (value.toLowerCase().startsWith("0x"))
+			{
+			value = value.substring(2) ;
+			radix = 16 ;
+			}
+
+		try
+			{
+			parsed = Integer.parseInt(value, radix) ;
+			}
+
+		catch (NumberFormatException e)
+			{
+			return (k_NOT_SET) ;
+			}
+
+		return (((parsed < 0) || (parsed > 255)) ? k_NOT_SET : parsed) ;
+		}
+
+
+	/****************************************************************
+	* NAME: IsPrintable (of ManifestEntry)							*
+	* I/P:	character	-- character of a title or licensee code	*
+	* RET:	boolean		-- true if it can be written to the header	*
+	*																*
+	* A scan shows any byte it can't print as ?, so a ? is taken	*
+	* here & only refused by Apply if it would be written.			*
+	*																*
+	****************************************************************/
+
+	private static boolean IsPrintable(char character)
+		{
+		return ((character >= 0x20) && (character <= 0x7E)) ;
+		}
+
+
+	private boolean Fail(String why)
+		{
+		m_errorMsg = why ;
+
+		return (false) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Apply (of ManifestEntry)								*
+	* I/P:	rom		-- processor holding the rom image to change	*
+	* RET:	boolean	-- false if a title or licensee code with a ?	*
+	*				   would be written								*
+	*																*
+	* A title shorter than the title field is padded with zeros so	*
+	* nothing is left of the old title, the gbc flag is set after	*
+	* it so a sixteen character title can't overwrite it. A title,	*
+	* gbc mode or sgb flag that a scan of the image already shows	*
+	* is left alone, so an unedited scan changes nothing. A scan	*
+	* doesn't show the bytes of a title after its first zero, nor	*
+	* which value other than 0x03 the sgb flag has. A ? the scan	*
+	* showed for a byte it couldn't print is only written if the	*
+	* title or licensee code is changed, and then it is refused.	*
+	*																*
+	****************************************************************/
+
+	public boolean Apply(ROMProcessor rom)
+		{
+		ROMHeader		header ;
+		StringBuilder	currentTitle ;
+		StringBuilder	currentLicensee ;
+		String			title ;
+
+		boolean	sameTitle ;
+		boolean	sameLicensee ;
+		boolean	sameGBCMode ;
+		boolean	sameSGB ;
+
+		// the header is decided on before any of it is changed
+		header = rom.getHeader() ;
+		currentTitle = new StringBuilder() ;
+		header.AppendTitle(currentTitle) ;
+		currentLicensee = new StringBuilder() ;
+		header.AppendLicensee(currentLicensee) ;
+		sameTitle = (m_title != null) && (m_title.equals(currentTitle.toString())) ;
+		sameLicensee = (m_newLicensee != k_NOT_SET) && (header.isNewLicensee()) &&
+			(currentLicensee.toString().equals("" + (char)(m_newLicensee >> 8) + (char)(m_newLicensee & 0xFF))) ;
+		sameGBCMode = (m_gbcMode != null) && (m_gbcMode.equals(header.getGBCDescription())) ;
+		sameSGB = (m_sgbFeatures != k_NOT_SET) && (header.isSGB() == (m_sgbFeatures == 0x03)) ;
+		if ((m_title != null) && (!sameTitle) && (m_title.indexOf('?') >= 0))
+			{
+			return (Fail("title of " + m_path + " can't be changed to one with a ?")) ;
+			}
+
+		if ((m_newLicensee != k_NOT_SET) && (!sameLicensee) && (((m_newLicensee >> 8) == '?') || ((m_newLicensee & 0xFF) == '?')))
+			{
+			return (Fail("licensee of " + m_path + " can't be changed to one with a ?")) ;
+			}
+
+		if ((m_title != null) && (!sameTitle))
+			{
+			title = m_title ;
+			while (title.length() < k_PADDED_TITLE_LEN)
+				{
+				title = title + "\0" ;
+				}
+
+			rom.SetCartridgeTitle(title) ;
+			}
+
+		if ((m_gbcMode != null) && (!sameGBCMode))
+			{
+			if (m_gbcMode.equals("only"))
+				{
+				rom.SetGBCOnly() ;
+				}
+			else if (m_gbcMode.equals("compatible"))
+				{
+				rom.SetGBCCompatible() ;
+				}
+			else
+				{
+				rom.ClearGBCMode() ;
+				}
+
+			}
+
+		if ((m_newLicensee != k_NOT_SET) && (!sameLicensee))
+			{
+			rom.SetNewLicensee((short)(m_newLicensee)) ;
+			}
+
+		if ((m_sgbFeatures != k_NOT_SET) && (!sameSGB))
+			{
+			rom.SetSGBFeatures((byte)(m_sgbFeatures)) ;
+			}
+
+		if (m_cartridgeType != k_NOT_SET)
+			{
+			rom.SetMBCType((byte)(m_cartridgeType)) ;
+			}
+
+		if (m_romSize != k_NOT_SET)
+			{
+			rom.SetROMSize((byte)(m_romSize)) ;
+			}
+
+		if (m_ramSize != k_NOT_SET)
+			{
+			rom.SetRAMSize((byte)(m_ramSize)) ;
+			}
+
+		if (m_countryCode != k_NOT_SET)
+			{
+			rom.SetCountryCode((byte)(m_countryCode)) ;
+			}
+
+		if (m_licensee != k_NOT_SET)
+			{
+			rom.SetLicensee((byte)(m_licensee)) ;
+			}
+
+		if (m_version != k_NOT_SET)
+			{
+			rom.SetVersion((byte)(m_version)) ;
+			}
+
+		return (true) ;
+		}
+
+
+	public String getPath()
+		{
+		return (m_path) ;
+		}
+
+
+	public String getError()
+		{
+		return (m_errorMsg) ;
+		}
+
+	}
@@ -0,0 +1,36 @@
+public interface MessageSink
+	{
+	/****************************************************************
+	* NAME: println (of MessageSink)								*
+	* I/P:	message	-- progress message to output					*
+	*																*
+	****************************************************************/
+
+	public void println(String message) ;
+
+
+	/****************************************************************
+	* NAME: error (of MessageSink)									*
+	* I/P:	message	-- error message to output						*
+	*																*
+	****************************************************************/
+
+	public void error(String message) ;
+
+
+	/****************************************************************
+	* NAME: ForImage (of MessageSink)								*
+	* I/P:	filename	-- filename of rom image being processed	*
+	* RET:	MessageSink	-- sink for messages about that image		*
+	*																*
+	* Sinks that label each message with its image return a new		*
+	* sink, the rest return themselves.								*
+	*																*
+	****************************************************************/
+
+	public default MessageSink ForImage(String filename)
+		{
+		return (this) ;
+		}
+
+	}
@@ -1,5 +1,11 @@
+import java.io.IOException ;
+import java.util.List ;
+import java.util.stream.Collectors ;
+
 public class ONZFIX
 	{
+	private final static MessageSink	m_messages = new ConsoleMessageSink() ;	// where messages of the command line are output
+
 	/****************************************************************
 	* NAME: main (of ONZFIX)										*
 	* I/P:	args	-- command line arguments supplied by user		*
@@ -13,24 +19,209 @@ public class ONZFIX
 		options = new UserOptions() ;
 		if (!options.Process(args))
 			{
-			Message.error("\n***ERROR: " + options.getError()) ;
+			m_messages.error("\n***ERROR: " + options.getError()) ;
 			options.PrintUsage() ;
 			System.exit(0) ;
 			}
+		else if ((options.isTiming()) && (!TimingReport.Start(options.getTimingFilename())))
+			{
+			m_messages.error("\n***ERROR: Could not create timing file " + options.getTimingFilename()) ;
+			System.exit(BatchProcessor.k_EXIT_FAILED) ;
+			}
+		
+		// from here on messages are queued for a writer thread, so workers don't wait on the console
+		ConsoleMessageSink.Start(options.isQuiet(), options.isJSON()) ;
+		if (options.isScan())
+			{
+			HeaderScanner	scanner ;
+			
+			scanner = new HeaderScanner(options.getScanFormat(), System.out) ;
+			if (!scanner.Scan(options.getROMImageFilenames()))
+				{
+				m_messages.error("\n***ERROR: " + scanner.getError()) ;
+				System.exit(BatchProcessor.k_EXIT_FAILED) ;
+				}
+			
+			}
+		else if (options.isServer())
+			{
+			ROMServer	server ;
+			
+			server = new ROMServer(options.getSocketPath()) ;
+			if (!server.Run())
+				{
+				m_messages.error("\n***ERROR: " + server.getError()) ;
+				System.exit(BatchProcessor.k_EXIT_FAILED) ;
+				}
+			
+			}
+		else if (ImageCollector.IsBatch(options.getROMImageFilenames()))
+			{
+			System.exit(ProcessBatch(options)) ;
+			}
 		else
 			{
+			ValidationCache	cache ;
 			ROMProcessor	rom ;
 			
+			cache = OpenCache(options) ;
+			if ((cache != null) && (cache.IsUnchanged(options.getROMImageFilename())))
+				{
+				m_messages.println(options.getROMImageFilename() + ": Unchanged since it last passed, skipped") ;
+				CloseCache(cache) ;
+				
+				return ;
+				}
+			
 			rom = new ROMProcessor() ;
 			if (!rom.ProcessImage(options))
 				{
-				Message.error("\n***ERROR: " + rom.getError()) ;
+				CloseCache(cache) ;
+				m_messages.error("\n***ERROR: " + rom.getError()) ;
+				// usage is printed straight to the console, so it has to wait for the error
+				ConsoleMessageSink.Stop() ;
 				options.PrintUsage() ;
 				System.exit(0) ;
 				}
 			
+			if (!options.getDeferredSync().SyncAll())
+				{
+				CloseCache(cache) ;
+				m_messages.error("\n***ERROR: " + options.getDeferredSync().getError()) ;
+				System.exit(BatchProcessor.k_EXIT_FAILED) ;
+				}
+			
+			if (cache != null)
+				{
+				cache.Store(options.getROMImageFilename()) ;
+				CloseCache(cache) ;
+				}
+			
+			}
+			
+		}
+
+
+	/****************************************************************
+	* NAME: ProcessBatch (of ONZFIX)								*
+	* I/P:	options	-- options supplied by user						*
+	* RET:	int		-- aggregate exit code of the batch				*
+	*																*
+	****************************************************************/
+	
+	private static int ProcessBatch(UserOptions options)
+		{
+		BatchProcessor		batch ;
+		ValidationCache		cache ;
+		List<String>		filenames ;
+		List<String>		changedFilenames ;
+		List<ImageResult>	results ;
+		
+		boolean	synced ;
+		
+		try
+			{
+			filenames = ImageCollector.Collect(options.getROMImageFilenames(), options.isArchives()) ;
 			}
+		
+		catch (IOException ioEx)
+			{
+			m_messages.error("\n***ERROR: Could not search for ROM images (" + ioEx.getMessage() + ")") ;
 			
+			return (BatchProcessor.k_EXIT_FAILED) ;
+			}
+		
+		if (filenames.size() == 0)
+			{
+			m_messages.error("\n***ERROR: No ROM images were found") ;
+			
+			return (BatchProcessor.k_EXIT_FAILED) ;
+			}
+		
+		// only images that changed since they last passed are processed, the rest are checked in parallel
+		cache = OpenCache(options) ;
+		changedFilenames = filenames ;
+		if (cache != null)
+			{
+			changedFilenames = filenames.parallelStream().filter(filename -> !cache.IsUnchanged(filename)).collect(Collectors.toList()) ;
+			m_messages.println("Skipped " + (filenames.size() - changedFilenames.size()) + " images unchanged since they last passed") ;
+			}
+		
+		// a pipelined batch overlaps the reading, fixing & writing of images
+		if (options.isPipelined())
+			{
+			batch = new PipelineProcessor(options) ;
+			}
+		else
+			{
+			batch = new BatchProcessor(options) ;
+			}
+		
+
+		results = batch.ProcessImages(changedFilenames) ;
+		// with the batch sync policy every image written is made durable here, in one group
+		synced = options.getDeferredSync().SyncAll() ;
+		if (cache != null)
+			{
+			// an image that may not have reached the disk hasn't passed yet
+			if (synced)
+				{
+				results.parallelStream().filter(ImageResult::isSuccess).forEach(result -> cache.Store(result.getFilename())) ;
+				}
+			
+			CloseCache(cache) ;
+			}
+		
+		batch.ReportResults(results) ;
+		if (!synced)
+			{
+			m_messages.error("\n***ERROR: " + options.getDeferredSync().getError()) ;
+			
+			return (BatchProcessor.k_EXIT_FAILED) ;
+			}
+		
+		return (batch.getExitCode()) ;
+		}
+
+
+	/****************************************************************
+	* NAME: OpenCache (of ONZFIX)									*
+	* I/P:	options			-- options supplied by user				*
+	* RET:	ValidationCache	-- cache of images that passed, or null *
+	*																*
+	* A cache that can't be opened only costs time, so every image	*
+	* is processed instead.											*
+	*																*
+	****************************************************************/
+	
+	private static ValidationCache OpenCache(UserOptions options)
+		{
+		ValidationCache	cache ;
+		
+		if (!options.isCache())
+			{
+			return (null) ;
+			}
+		
+		cache = new ValidationCache(options.getCacheFilename(), options) ;
+		if (!cache.Open())
+			{
+			m_messages.error("***WARNING: " + cache.getError() + ", processing every image") ;
+			
+			return (null) ;
+			}
+		
+		return (cache) ;
+		}
+	
+	
+	private static void CloseCache(ValidationCache cache)
+		{
+		if ((cache != null) && (!cache.Close()))
+			{
+			m_messages.error("***WARNING: " + cache.getError()) ;
+			}
+		
 		}
 
 	}
@@ -10,4 +10,10 @@ public class Options
 	public final static long	k_RAM_SIZE		= 0x0080 ;
 	public final static long	k_MBC_TYPE		= 0x0100 ;
 	public final static long	k_LICENSEE_CODE	= 0x0200 ;
+	public final static long	k_DIGEST		= 0x0400 ;
+	public final static long	k_NEW_LICENSEE	= 0x0800 ;
+	public final static long	k_SGB			= 0x1000 ;
+	public final static long	k_COUNTRY_CODE	= 0x2000 ;
+	public final static long	k_VERSION		= 0x4000 ;
+	public final static long	k_MANIFEST		= 0x8000 ;
 	}
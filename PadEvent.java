@@ -0,0 +1,10 @@
+import jdk.jfr.Description ;
+import jdk.jfr.Label ;
+import jdk.jfr.Name ;
+
+@Name("onzfix.Pad")
+@Label("Pad")
+@Description("A rom image was padded to a valid size")
+public class PadEvent extends ROMEvent
+	{
+	}
@@ -0,0 +1,10 @@
+import jdk.jfr.Description ;
+import jdk.jfr.Label ;
+import jdk.jfr.Name ;
+
+@Name("onzfix.Patch")
+@Label("Patch")
+@Description("An IPS or BPS patch was applied to a rom image")
+public class PatchEvent extends ROMEvent
+	{
+	}
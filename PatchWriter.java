@@ -0,0 +1,312 @@
+import java.io.ByteArrayOutputStream ;
+import java.util.zip.CRC32 ;
+
+public class PatchWriter
+	{
+	private final static int	k_IPS_EOF = 0x454F46 ;			// record offset that ends an ips patch ("EOF")
+	private final static int	k_IPS_MAX_SIZE = 0x1000000 ;	// largest image an ips patch can address
+	private final static int	k_IPS_MAX_RECORD = 0xFFFE ;		// most bytes in an ips record, one short so it can start a byte early
+	private final static int	k_IPS_MIN_RUN = 9 ;				// shortest run of one byte worth an ips rle record
+	private final static int	k_BPS_MIN_RUN = 4 ;				// shortest run of one byte worth a bps target copy
+
+	private final static int	k_SOURCE_READ = 0 ;				// bps action copying source bytes at the same address
+	private final static int	k_TARGET_READ = 1 ;				// bps action copying bytes from the patch
+	private final static int	k_TARGET_COPY = 3 ;				// bps action repeating bytes already in the target
+
+	private boolean					m_bps ;						// patch is bps rather than ips
+	private ByteArrayOutputStream	m_patch ;					// patch so far
+	private long					m_sourceSize ;				// size of original rom image (in bytes)
+	private long					m_targetSize ;				// size of fixed rom image (in bytes)
+	private long					m_outputOffset ;			// bps target address the next action writes to
+	private long					m_targetOffset ;			// bps target address the next target copy is relative to
+	private String					m_errorMsg ;				// last error encountered writing patch
+
+
+	/****************************************************************
+	* NAME: PatchWriter (constructor)								*
+	* I/P:	bps			-- write a bps patch rather than an ips one *
+	*		sourceSize	-- size of original rom image (in bytes)	*
+	*		targetSize	-- size of fixed rom image (in bytes)		*
+	*																*
+	* Builds a patch from the original rom image to the fixed one	*
+	* in memory. The bytes that changed are passed to Changed in	*
+	* ascending order and everything else is taken to be the same	*
+	* as the original. A run of one byte, such as padding, is		*
+	* stored as a single rle record in an ips patch, and as one		*
+	* byte followed by a copy of itself in a bps patch.				*
+	*																*
+	****************************************************************/
+
+	public PatchWriter(boolean bps, long sourceSize, long targetSize)
+		{
+		m_bps = bps ;
+		m_sourceSize = sourceSize ;
+		m_targetSize = targetSize ;
+		m_outputOffset = 0 ;
+		m_targetOffset = 0 ;
+		m_errorMsg = "No error" ;
+		m_patch = new ByteArrayOutputStream() ;
+		if (m_bps)
+			{
+			m_patch.writeBytes(new byte[] { 'B', 'P', 'S', '1' }) ;
+			WriteNumber(sourceSize) ;
+			WriteNumber(targetSize) ;
+			// no metadata
+			WriteNumber(0) ;
+			}
+		else
+			{
+			m_patch.writeBytes(new byte[] { 'P', 'A', 'T', 'C', 'H' }) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: Changed (of PatchWriter)								*
+	* I/P:	image	-- fixed rom image								*
+	*		address	-- first address of bytes that changed			*
+	*		length	-- number of bytes that changed					*
+	* RET:	boolean	-- false if the patch can't hold the change		*
+	*																*
+	****************************************************************/
+
+	public boolean Changed(ROMImage image, int address, int length)
+		{
+		int	end ;
+		int	run ;
+		int	chunk ;
+
+		if ((!m_bps) && (address + length > k_IPS_MAX_SIZE))
+			{
+			m_errorMsg = "ROM image is too large for an IPS patch, use BPS" ;
+
+			return (false) ;
+			}
+
+		// bytes the fixes left alone are read from the original
+		if ((m_bps) && (address > m_outputOffset))
+			{
+			WriteAction(k_SOURCE_READ, address - m_outputOffset) ;
+			m_outputOffset = address ;
+			}
+
+		end = address + length ;
+		while (address < end)
+			{
+			run = RunLength(image, address, end) ;
+			if (run >= (m_bps ? k_BPS_MIN_RUN : k_IPS_MIN_RUN))
+				{
+				WriteRun(image, address, Math.min(run, k_IPS_MAX_RECORD)) ;
+				address += Math.min(run, k_IPS_MAX_RECORD) ;
+				}
+			else
+				{
+				// bytes up to the next run worth its own record
+				chunk = run ;
+				while ((address + chunk < end) && (chunk < k_IPS_MAX_RECORD) && (RunLength(image, address + chunk, end) < (m_bps ? k_BPS_MIN_RUN : k_IPS_MIN_RUN)))
+					{
+					chunk++ ;
+					}
+
+				chunk = Math.min(chunk, k_IPS_MAX_RECORD) ;
+				WriteBytes(image, address, chunk) ;
+				address += chunk ;
+				}
+
+			}
+
+		return (true) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Finish (of PatchWriter)									*
+	* I/P:	sourceCRC	-- crc32 of original rom image, bps only	*
+	*		targetCRC	-- crc32 of fixed rom image, bps only		*
+	* RET:	byte[]		-- the whole patch							*
+	*																*
+	* An ips patch of a rom image that was truncated ends with the	*
+	* size to truncate it to, which most ips tools understand.		*
+	*																*
+	****************************************************************/
+
+	public byte[] Finish(long sourceCRC, long targetCRC)
+		{
+		CRC32	patchCRC ;
+
+		if (!m_bps)
+			{
+			m_patch.writeBytes(new byte[] { 'E', 'O', 'F' }) ;
+			if (m_targetSize < m_sourceSize)
+				{
+				WriteBigEndian(m_targetSize, 3) ;
+				}
+
+			return (m_patch.toByteArray()) ;
+			}
+
+		if (m_outputOffset < m_targetSize)
+			{
+			WriteAction(k_SOURCE_READ, m_targetSize - m_outputOffset) ;
+			m_outputOffset = m_targetSize ;
+			}
+
+		WriteLittleEndian32(sourceCRC) ;
+		WriteLittleEndian32(targetCRC) ;
+		patchCRC = new CRC32() ;
+		patchCRC.update(m_patch.toByteArray()) ;
+		WriteLittleEndian32(patchCRC.getValue()) ;
+
+		return (m_patch.toByteArray()) ;
+		}
+
+
+	/****************************************************************
+	* NAME: WriteRun (of PatchWriter)								*
+	* I/P:	image	-- fixed rom image								*
+	*		address	-- first address of run							*
+	*		length	-- number of bytes in run						*
+	*																*
+	****************************************************************/
+
+	private void WriteRun(ROMImage image, int address, int length)
+		{
+		if (m_bps)
+			{
+			// the copy overlaps what it writes, so the one byte is repeated
+			WriteBytes(image, address, 1) ;
+			WriteAction(k_TARGET_COPY, length - 1) ;
+			WriteNumber((Math.abs(address - m_targetOffset) << 1) | ((address < m_targetOffset) ? 1 : 0)) ;
+			m_targetOffset = address + length - 1 ;
+			m_outputOffset += length - 1 ;
+			}
+		else if (address == k_IPS_EOF)
+			{
+			WriteBytes(image, address, length) ;
+			}
+		else
+			{
+			WriteBigEndian(address, 3) ;
+			WriteBigEndian(0, 2) ;
+			WriteBigEndian(length, 2) ;
+			m_patch.write(image.getByte(address)) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: WriteBytes (of PatchWriter)								*
+	* I/P:	image	-- fixed rom image								*
+	*		address	-- first address of bytes						*
+	*		length	-- number of bytes								*
+	*																*
+	* An ips record can't start at the address that spells "EOF",	*
+	* so such a record starts a byte early instead.					*
+	*																*
+	****************************************************************/
+
+	private void WriteBytes(ROMImage image, int address, int length)
+		{
+		int	i ;
+
+		if (m_bps)
+			{
+			WriteAction(k_TARGET_READ, length) ;
+			m_outputOffset += length ;
+			}
+		else
+			{
+			if (address == k_IPS_EOF)
+				{
+				address-- ;
+				length++ ;
+				}
+
+			WriteBigEndian(address, 3) ;
+			WriteBigEndian(length, 2) ;
+			}
+
+		for (i=0; i<length; i++)
+			{
+			m_patch.write(image.getByte(address + i)) ;
+			}
+
+		}
+
+
+	private static int RunLength(ROMImage image, int address, int end)
+		{
+		int	length ;
+
+		length = 1 ;
+		while ((address + length < end) && (image.getByte(address + length) == image.getByte(address)))
+			{
+			length++ ;
+			}
+
+		return (length) ;
+		}
+
+
+	private void WriteAction(int action, long length)
+		{
+		WriteNumber(((length - 1) << 2) | action) ;
+		}
+
+
+	/****************************************************************
+	* NAME: WriteNumber (of PatchWriter)							*
+	* I/P:	value	-- number to write in bps variable length form	*
+	*																*
+	****************************************************************/
+
+	private void WriteNumber(long value)
+		{
+		while (true)
+			{
+			if ((value >> 7) == 0)
+				{
+				m_patch.write((int)(0x80 | (value & 0x7F))) ;
+
+				return ;
+				}
+
+			m_patch.write((int)(value & 0x7F)) ;
+			value = (value >> 7) - 1 ;
+			}
+
+		}
+
+
+	private void WriteBigEndian(long value, int length)
+		{
+		int	i ;
+
+		for (i=length-1; i>=0; i--)
+			{
+			m_patch.write((int)((value >> (i * 8)) & 0xFF)) ;
+			}
+
+		}
+
+
+	private void WriteLittleEndian32(long value)
+		{
+		int	i ;
+
+		for (i=0; i<4; i++)
+			{
+			m_patch.write((int)((value >> (i * 8)) & 0xFF)) ;
+			}
+
+		}
+
+
+	public String getError()
+		{
+		return (m_errorMsg) ;
+		}
+
+	}
@@ -0,0 +1,374 @@
+import java.util.ArrayList ;
+import java.util.Arrays ;
+import java.util.List ;
+import java.util.concurrent.ArrayBlockingQueue ;
+import java.util.concurrent.BlockingQueue ;
+import java.util.concurrent.ExecutorService ;
+import java.util.concurrent.Executors ;
+import java.util.concurrent.TimeUnit ;
+import java.util.concurrent.atomic.AtomicInteger ;
+
+public class PipelineProcessor extends BatchProcessor
+	{
+	private final static int	k_READ_WORKERS = 32 ;			// rom images being read at the same time
+	private final static int	k_WRITE_WORKERS = 32 ;			// rom images being written at the same time
+	private final static int	k_QUEUE_CAPACITY = 16 ;			// rom images waiting between two stages
+
+	private final static PipelineItem	m_endOfStage = new PipelineItem(-1, null, null) ;	// marks that no more items will follow
+
+	private List<String>				m_filenames ;			// filenames of rom images to process
+	private ImageResult					m_results[] ;			// result of each rom image, in order
+	private AtomicInteger				m_nextImage ;			// index of next rom image to be read
+	private AtomicInteger				m_readersLeft ;			// read workers still running
+	private AtomicInteger				m_transformersLeft ;	// transform workers still running
+	private BlockingQueue<PipelineItem>	m_transformQueue ;		// rom images read & waiting to be transformed
+	private BlockingQueue<PipelineItem>	m_writeQueue ;			// rom images transformed & waiting to be written
+
+	private int	m_transformWorkers ;							// rom images being transformed at the same time
+
+
+	/****************************************************************
+	* NAME: PipelineItem (of PipelineProcessor)						*
+	*																*
+	* A rom image on its way through the pipeline, held by the		*
+	* ROMProcessor that read it in.									*
+	*																*
+	****************************************************************/
+
+	private static class PipelineItem
+		{
+		private int				m_index ;						// index of rom image in batch
+		private String			m_filename ;					// filename of rom image
+		private ROMProcessor	m_rom ;							// processor holding the rom image
+
+		private PipelineItem(int index, String filename, ROMProcessor rom)
+			{
+			m_index = index ;
+			m_filename = filename ;
+			m_rom = rom ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: PipelineProcessor (constructor)							*
+	* I/P:	options	-- options to apply to every rom image			*
+	*																*
+	****************************************************************/
+
+	public PipelineProcessor(UserOptions options)
+		{
+		super(options) ;
+		m_transformWorkers = Runtime.getRuntime().availableProcessors() ;
+		}
+
+
+	/****************************************************************
+	* NAME: RunImages (of PipelineProcessor)						*
+	* I/P:	filenames	-- filenames of rom images to process		*
+	* RET:	List		-- result of each rom image, in order		*
+	*																*
+	* Runs the read, transform and write steps of every rom image	*
+	* as three stages joined by bounded queues. Many reads & writes *
+	* are kept in flight to hide the latency of slow or network		*
+	* storage while the transforms keep every core busy, and the	*
+	* bounded queues limit how many rom images are held in memory.	*
+	*																*
+	****************************************************************/
+
+	protected List<ImageResult> RunImages(List<String> filenames)
+		{
+		ExecutorService	workers ;
+
+		int	i ;
+
+		m_filenames = filenames ;
+		m_results = new ImageResult[filenames.size()] ;
+		m_nextImage = new AtomicInteger(0) ;
+		m_readersLeft = new AtomicInteger(k_READ_WORKERS) ;
+		m_transformersLeft = new AtomicInteger(m_transformWorkers) ;
+		m_transformQueue = new ArrayBlockingQueue<PipelineItem>(k_QUEUE_CAPACITY) ;
+		m_writeQueue = new ArrayBlockingQueue<PipelineItem>(k_QUEUE_CAPACITY) ;
+
+		workers = NewWorkerExecutor() ;
+		for (i=0; i<k_READ_WORKERS; i++)
+			{
+			workers.execute(this::ReadStage) ;
+			}
+
+		for (i=0; i<m_transformWorkers; i++)
+			{
+			workers.execute(this::TransformStage) ;
+			}
+
+		for (i=0; i<k_WRITE_WORKERS; i++)
+			{
+			workers.execute(this::WriteStage) ;
+			}
+
+		workers.shutdown() ;
+		try
+			{
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS) ;
+			}
+
+		catch (InterruptedException iEx)
+			{
+			workers.shutdownNow() ;
+			}
+
+		for (i=0; i<m_results.length; i++)
+			{
+			if (m_results[i] == null)
+				{
+				m_results[i] = new ImageResult(filenames.get(i), false, "Processing was interrupted") ;
+				}
+
+			}
+
+		return (new ArrayList<ImageResult>(Arrays.asList(m_results))) ;
+		}
+
+
+	/****************************************************************
+	* NAME: ReadStage (of PipelineProcessor)						*
+	*																*
+	* Reads rom images until there are none left. A rom image that	*
+	* only has its checksums verified is finished here. The next	*
+	* stage is always told this one has ended, even if a worker		*
+	* dies, so a batch can never wait on it forever.				*
+	*																*
+	****************************************************************/
+
+	private void ReadStage()
+		{
+		ROMProcessor	rom ;
+		String			filename ;
+
+		int	index ;
+
+		try
+			{
+			while ((index = m_nextImage.getAndIncrement()) < m_filenames.size())
+				{
+				filename = m_filenames.get(index) ;
+				rom = new ROMProcessor() ;
+				try
+					{
+					if (m_options.isVerifyOnly())
+						{
+						Finish(index, filename, rom, rom.ProcessImage(m_options, filename)) ;
+						}
+					else if (!rom.LoadImage(m_options, filename))
+						{
+						Finish(index, filename, rom, false) ;
+						}
+					else
+						{
+						m_transformQueue.put(new PipelineItem(index, filename, rom)) ;
+						}
+
+					}
+
+				catch (RuntimeException | Error ex)
+					{
+					Finish(index, filename, ex) ;
+					}
+
+				}
+
+			}
+
+		catch (InterruptedException iEx)
+			{
+			// remaining rom images are reported as interrupted
+			}
+
+		finally
+			{
+			EndStage(m_readersLeft, m_transformQueue, m_transformWorkers) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: TransformStage (of PipelineProcessor)					*
+	*																*
+	*																*
+	****************************************************************/
+
+	private void TransformStage()
+		{
+		PipelineItem	item ;
+
+		try
+			{
+			while ((item = m_transformQueue.take()) != m_endOfStage)
+				{
+				try
+					{
+					if (!item.m_rom.TransformImage(m_options))
+						{
+						Finish(item.m_index, item.m_filename, item.m_rom, false) ;
+						continue ;
+						}
+
+					}
+
+				catch (RuntimeException | Error ex)
+					{
+					Finish(item.m_index, item.m_filename, ex) ;
+					continue ;
+					}
+
+				m_writeQueue.put(item) ;
+				}
+
+			}
+
+		catch (InterruptedException iEx)
+			{
+			// remaining rom images are reported as interrupted
+			}
+
+		finally
+			{
+			EndStage(m_transformersLeft, m_writeQueue, k_WRITE_WORKERS) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: WriteStage (of PipelineProcessor)						*
+	*																*
+	*																*
+	****************************************************************/
+
+	private void WriteStage()
+		{
+		PipelineItem	item ;
+
+		try
+			{
+			while ((item = m_writeQueue.take()) != m_endOfStage)
+				{
+				try
+					{
+					Finish(item.m_index, item.m_filename, item.m_rom, item.m_rom.SaveImage(item.m_filename)) ;
+					}
+
+				catch (RuntimeException | Error ex)
+					{
+					Finish(item.m_index, item.m_filename, ex) ;
+					}
+
+				}
+
+			}
+
+		catch (InterruptedException iEx)
+			{
+			// remaining rom images are reported as interrupted
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: EndStage (of PipelineProcessor)							*
+	* I/P:	workersLeft		-- workers of stage still running		*
+	*		nextQueue		-- queue feeding the next stage			*
+	*		nextWorkers		-- number of workers of the next stage	*
+	*																*
+	* The last worker of a stage to finish tells every worker of	*
+	* the next stage that no more rom images will follow.			*
+	*																*
+	****************************************************************/
+
+	private void EndStage(AtomicInteger workersLeft, BlockingQueue<PipelineItem> nextQueue, int nextWorkers)
+		{
+		int	i ;
+
+		if (workersLeft.decrementAndGet() != 0)
+			{
+			return ;
+			}
+
+		try
+			{
+			for (i=0; i<nextWorkers; i++)
+				{
+				nextQueue.put(m_endOfStage) ;
+				}
+
+			}
+
+		catch (InterruptedException iEx)
+			{
+			// the pool is being shut down, the next stage is interrupted as well
+			}
+
+		}
+
+
+	private void Finish(int index, String filename, ROMProcessor rom, boolean success)
+		{
+		if (success)
+			{
+			m_results[index] = new ImageResult(filename, true, "") ;
+			}
+		else
+			{
+			m_results[index] = new ImageResult(filename, false, rom.getError()) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: Finish (of PipelineProcessor)							*
+	* I/P:	index		-- index of rom image in batch				*
+	*		filename	-- filename of rom image					*
+	*		failure		-- what was thrown while processing it		*
+	*																*
+	* A rom image that throws fails on its own, like one whose		*
+	* task throws in a BatchProcessor, and the worker moves on to	*
+	* the next.														*
+	*																*
+	****************************************************************/
+
+	private void Finish(int index, String filename, Throwable failure)
+		{
+		m_results[index] = new ImageResult(filename, false, "Processing failed (" + failure + ")") ;
+		}
+
+
+	/****************************************************************
+	* NAME: NewWorkerExecutor (of PipelineProcessor)				*
+	* RET:	ExecutorService	-- executor to run the workers of stages *
+	*																*
+	* Workers run on virtual threads, which cost next to nothing	*
+	* while blocked on i/o or on a queue. Virtual threads arrived	*
+	* in JDK 21, so they are looked up at run time and a pool of	*
+	* platform threads is used on anything older.					*
+	*																*
+	****************************************************************/
+
+	private static ExecutorService NewWorkerExecutor()
+		{
+		try
+			{
+			return ((ExecutorService)(Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null))) ;
+			}
+
+		catch (ReflectiveOperationException roEx)
+			{
+			return (Executors.newCachedThreadPool()) ;
+			}
+
+		}
+
+	}
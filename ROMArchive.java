@@ -0,0 +1,386 @@
+import java.io.* ;
+import java.util.ArrayList ;
+import java.util.Arrays ;
+import java.util.Enumeration ;
+import java.util.List ;
+import java.util.zip.* ;
+
+public class ROMArchive
+	{
+	private final static int	k_BUFFER_SIZE = 0x10000 ;		// size of buffer between archive & file (in bytes)
+	private final static int	k_GZIP_TRAILER_SIZE = 8 ;		// size of crc32 & uncompressed size ending a gzip stream (in bytes)
+	private final static int	k_MAX_IMAGE_SIZE = 0x800000 ;	// largest rom image a header can give the size of (in bytes)
+
+	private boolean			m_zip ;								// archive is a zip archive, otherwise a gzip stream
+	private List<ZipEntry>	m_entries ;							// every entry of zip archive, in order
+	private List<byte[]>	m_entryData ;						// data of every entry of zip archive, null for the rom image
+	private int				m_imageEntry ;						// index of rom image in entries of zip archive
+	private String			m_comment ;							// comment of zip archive, null if none
+	private byte			m_image[] ;							// rom image, uncompressed
+	private String			m_errorMsg ;						// last error encountered reading archive
+
+
+	/****************************************************************
+	* NAME: ROMArchive (constructor)								*
+	*																*
+	* A rom image compressed in a zip archive or a gzip stream. The *
+	* rom image of a zip archive is its first entry with a rom		*
+	* image extension, any other entries are kept as they are. The	*
+	* image is decompressed straight in to memory & compressed		*
+	* straight back out, so no image is ever extracted to disk. An	*
+	* archive rewritten in place is written to a temporary file		*
+	* beside it & renamed over the original.						*
+	*																*
+	****************************************************************/
+
+	public ROMArchive()
+		{
+		m_zip = false ;
+		m_entries = new ArrayList<ZipEntry>() ;
+		m_entryData = new ArrayList<byte[]>() ;
+		m_imageEntry = -1 ;
+		m_comment = null ;
+		m_image = null ;
+		m_errorMsg = "No error" ;
+		}
+
+
+	/****************************************************************
+	* NAME: IsArchive (of ROMArchive)								*
+	* I/P:	filename	-- filename to test							*
+	* RET:	boolean		-- true if filename is a zip or gzip file	*
+	*																*
+	****************************************************************/
+
+	public static boolean IsArchive(String filename)
+		{
+		return (filename.toLowerCase().endsWith(".zip") || filename.toLowerCase().endsWith(".gz")) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Read (of ROMArchive)									*
+	* I/P:	filename	-- filename of zip or gzip archive			*
+	* RET:	boolean		-- false if no rom image could be read		*
+	*																*
+	****************************************************************/
+
+	public boolean Read(String filename)
+		{
+		m_zip = filename.toLowerCase().endsWith(".zip") ;
+		try
+			{
+			if (m_zip)
+				{
+				ReadZip(filename) ;
+				}
+			else
+				{
+				ReadGZip(filename) ;
+				}
+
+			}
+
+		catch (EOFException eofEx)
+			{
+			m_errorMsg = "Archive ends part way through the ROM image" ;
+
+			return (false) ;
+			}
+
+		catch (ZipException zipEx)
+			{
+			m_errorMsg = "Archive is corrupt (" + zipEx.getMessage() + ")" ;
+
+			return (false) ;
+			}
+
+		catch (IOException ioEx)
+			{
+			m_errorMsg = "Error while reading from archive (" + ioEx.getMessage() + ")" ;
+
+			return (false) ;
+			}
+
+		if (m_image == null)
+			{
+			m_errorMsg = "ZIP archive holds no ROM image" ;
+
+			return (false) ;
+			}
+
+		return (true) ;
+		}
+
+
+	/****************************************************************
+	* NAME: ReadZip (of ROMArchive)									*
+	* I/P:	filename	-- filename of zip archive					*
+	*																*
+	* The central directory gives the size of the rom image, so it	*
+	* is decompressed in to an array of exactly that size.			*
+	*																*
+	****************************************************************/
+
+	private void ReadZip(String filename) throws IOException
+		{
+		Enumeration<? extends ZipEntry>	entries ;
+		ZipEntry						entry ;
+
+		try (ZipFile archive = new ZipFile(filename))
+			{
+			m_comment = archive.getComment() ;
+			entries = archive.entries() ;
+			while (entries.hasMoreElements())
+				{
+				entry = entries.nextElement() ;
+				m_entries.add(entry) ;
+				try (InputStream entryStream = archive.getInputStream(entry))
+					{
+					if ((m_image == null) && (IsImageEntry(entry)))
+						{
+						m_imageEntry = m_entries.size() - 1 ;
+						m_image = ReadFully(entryStream, entry.getSize()) ;
+						m_entryData.add(null) ;
+						}
+					else
+						{
+						m_entryData.add(entryStream.readAllBytes()) ;
+						}
+
+					}
+
+				}
+
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: ReadGZip (of ROMArchive)								*
+	* I/P:	filename	-- filename of gzip stream					*
+	*																*
+	* A gzip stream ends with the size of its data, which is read	*
+	* first so the rom image is decompressed in to an array of the	*
+	* right size.													*
+	*																*
+	****************************************************************/
+
+	private void ReadGZip(String filename) throws IOException
+		{
+		long	imageSize ;
+
+		imageSize = -1 ;
+		try (RandomAccessFile archive = new RandomAccessFile(filename, "r"))
+			{
+			if (archive.length() >= k_GZIP_TRAILER_SIZE)
+				{
+				archive.seek(archive.length() - 4) ;
+				imageSize = Integer.toUnsignedLong(Integer.reverseBytes(archive.readInt())) ;
+				}
+
+			}
+
+		try (InputStream imageStream = OpenImage(filename))
+			{
+			m_image = ReadFully(imageStream, imageSize) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: OpenImage (of ROMArchive)								*
+	* I/P:	filename	-- filename of zip or gzip archive			*
+	* RET:	InputStream	-- stream of rom image, uncompressed		*
+	*																*
+	* For reading a rom image once from start to end without		*
+	* keeping the rest of the archive.								*
+	*																*
+	****************************************************************/
+
+	public static InputStream OpenImage(String filename) throws IOException
+		{
+		InputStream		input ;
+		ZipInputStream	zipStream ;
+		ZipEntry		entry ;
+
+		input = new BufferedInputStream(new FileInputStream(filename), k_BUFFER_SIZE) ;
+		if (!filename.toLowerCase().endsWith(".zip"))
+			{
+			return (new GZIPInputStream(input, k_BUFFER_SIZE)) ;
+			}
+
+		zipStream = new ZipInputStream(input) ;
+		while ((entry = zipStream.getNextEntry()) != null)
+			{
+			if (IsImageEntry(entry))
+				{
+				return (zipStream) ;
+				}
+
+			}
+
+		zipStream.close() ;
+		throw new ZipException("no ROM image in archive") ;
+		}
+
+
+	/****************************************************************
+	* NAME: Write (of ROMArchive)									*
+	* I/P:	image	-- fixed rom image								*
+	*		output	-- empty file to write the archive to			*
+	*																*
+	* The rom image is compressed once, the same way it was. Other	*
+	* entries of a zip archive are written back as they were read.	*
+	* A stored entry, including a stored rom image, is copied		*
+	* without compressing it. java.util.zip can't copy compressed	*
+	* data as it is, so other deflated entries are deflated again,	*
+	* but they are rarely more than a readme.						*
+	*																*
+	****************************************************************/
+
+	public void Write(ROMImage image, OutputStream output) throws IOException
+		{
+		GZIPOutputStream	gzipStream ;
+		ZipOutputStream		zipStream ;
+		ZipEntry			entry ;
+		CRC32				imageCRC ;
+
+		int	i ;
+
+		if (!m_zip)
+			{
+			gzipStream = new GZIPOutputStream(output, k_BUFFER_SIZE) ;
+			image.WriteTo(gzipStream) ;
+			gzipStream.finish() ;
+			gzipStream.flush() ;
+
+			return ;
+			}
+
+		zipStream = new ZipOutputStream(new BufferedOutputStream(output, k_BUFFER_SIZE)) ;
+		for (i=0; i<m_entries.size(); i++)
+			{
+			entry = new ZipEntry(m_entries.get(i)) ;
+			if (i == m_imageEntry)
+				{
+				imageCRC = new CRC32() ;
+				image.UpdateCRC(imageCRC) ;
+				entry.setSize(image.getSize()) ;
+				entry.setCrc(imageCRC.getValue()) ;
+				if (entry.getMethod() == ZipEntry.STORED)
+					{
+					entry.setCompressedSize(image.getSize()) ;
+					}
+
+				}
+
+			// the compressed size is only known once the entry has been deflated again
+			if (entry.getMethod() != ZipEntry.STORED)
+				{
+				entry.setCompressedSize(-1) ;
+				}
+
+			zipStream.putNextEntry(entry) ;
+			if (i == m_imageEntry)
+				{
+				image.WriteTo(zipStream) ;
+				}
+			else
+				{
+				zipStream.write(m_entryData.get(i)) ;
+				}
+
+			zipStream.closeEntry() ;
+			}
+
+		zipStream.setComment(m_comment) ;
+		zipStream.finish() ;
+		zipStream.flush() ;
+		}
+
+
+	/****************************************************************
+	* NAME: ReadFully (of ROMArchive)								*
+	* I/P:	imageStream	-- stream of rom image, uncompressed		*
+	*		imageSize	-- expected size of rom image (in bytes),	*
+	*					   -1 if not known							*
+	* RET:	byte[]		-- the whole rom image						*
+	*																*
+	* The expected size of a gzip stream holding more than one		*
+	* member is only that of the last, so the image read can be		*
+	* shorter or longer than expected. The expected size comes from *
+	* the archive & can't be trusted, so no more than the largest	*
+	* rom image is set aside for it, and an image any larger fails. *
+	*																*
+	****************************************************************/
+
+	private static byte[] ReadFully(InputStream imageStream, long imageSize) throws IOException
+		{
+		byte	image[] ;
+		byte	rest[] ;
+		int		bytesRead ;
+
+		if ((imageSize < 0) || (imageSize > k_MAX_IMAGE_SIZE))
+			{
+			image = imageStream.readNBytes(k_MAX_IMAGE_SIZE + 1) ;
+			}
+		else
+			{
+			image = new byte[(int)(imageSize)] ;
+			bytesRead = imageStream.readNBytes(image, 0, image.length) ;
+			if (bytesRead < image.length)
+				{
+				return (Arrays.copyOf(image, bytesRead)) ;
+				}
+
+			rest = imageStream.readNBytes(k_MAX_IMAGE_SIZE + 1 - bytesRead) ;
+			if (rest.length != 0)
+				{
+				image = Arrays.copyOf(image, bytesRead + rest.length) ;
+				System.arraycopy(rest, 0, image, bytesRead, rest.length) ;
+				}
+
+			}
+
+		if (image.length > k_MAX_IMAGE_SIZE)
+			{
+			throw new ZipException("ROM image is larger than " + (k_MAX_IMAGE_SIZE >> 10) + "kB") ;
+			}
+
+		return (image) ;
+		}
+
+
+	private static boolean IsImageEntry(ZipEntry entry)
+		{
+		return ((!entry.isDirectory()) && (ImageCollector.IsROMFilename(entry.getName()))) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getImage (of ROMArchive)								*
+	* RET:	byte[]	-- rom image read from archive, uncompressed	*
+	*																*
+	****************************************************************/
+
+	public byte[] getImage()
+		{
+		return (m_image) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getError (of ROMArchive)								*
+	* RET:	String	-- error message of last error encountered		*
+	*																*
+	****************************************************************/
+
+	public String getError()
+		{
+		return (m_errorMsg) ;
+		}
+
+	}
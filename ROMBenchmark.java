@@ -0,0 +1,365 @@
+import java.io.* ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.nio.file.StandardCopyOption ;
+import java.util.Arrays ;
+import java.util.Random ;
+
+public class ROMBenchmark
+	{
+	private final static int	k_MIN_ROM_SIZE = 0x8000 ;		// smallest legal rom image size (32kB)
+	private final static int	k_MAX_ROM_SIZE = 0x800000 ;		// largest legal rom image size (8MB)
+	private final static int	k_ROM_BANK_SIZE = 16384 ;		// size of a gameboy rom bank (in bytes)
+	private final static int	k_WARMUP_ITERATIONS = 10 ;		// iterations run before measuring, to warm up the jit
+	private final static int	k_DEFAULT_ITERATIONS = 30 ;		// iterations measured if none are given
+
+	private final static int	m_padValues[] = { 0x00, 0xFF } ;	// pad values every benchmark is run with
+
+	private final static MessageSink	m_noMessages = new MessageSink()	// discards messages so console output isn't measured
+		{
+		public void println(String message)
+			{
+			}
+
+		public void error(String message)
+			{
+			}
+
+		} ;
+
+	private Path	m_workDirectory ;							// directory holding the rom images benchmarked
+	private int		m_iterations ;								// iterations measured per benchmark
+
+
+	/****************************************************************
+	* NAME: Benchmark (of ROMBenchmark)								*
+	*																*
+	* One operation of ROMProcessor to be timed. Setup is run		*
+	* before each iteration and is not timed.						*
+	*																*
+	****************************************************************/
+
+	private static abstract class Benchmark
+		{
+		protected ROMProcessor	m_rom ;							// processor the operation is run on
+
+		protected void Setup() throws IOException
+			{
+			m_rom = new ROMProcessor() ;
+			m_rom.setMessageSink(m_noMessages) ;
+			}
+
+		protected abstract boolean Run() ;
+		}
+
+
+	/****************************************************************
+	* NAME: ROMBenchmark (constructor)								*
+	* I/P:	workDirectory	-- directory to create rom images in	*
+	*		iterations		-- iterations measured per benchmark	*
+	*																*
+	****************************************************************/
+
+	public ROMBenchmark(Path workDirectory, int iterations)
+		{
+		m_workDirectory = workDirectory ;
+		m_iterations = iterations ;
+		}
+
+
+	/****************************************************************
+	* NAME: main (of ROMBenchmark)									*
+	* I/P:	args	-- optional number of iterations to measure		*
+	*																*
+	* Times every operation of ROMProcessor for every legal rom		*
+	* image size from 32kB to 8MB and for both pad values, and		*
+	* prints one CSV line per combination. Run with					*
+	*																*
+	*	java ROMBenchmark [iterations]								*
+	*																*
+	****************************************************************/
+
+	public static void main(String[] args) throws IOException
+		{
+		ROMBenchmark	benchmark ;
+		Path			workDirectory ;
+
+		int	iterations ;
+
+		iterations = k_DEFAULT_ITERATIONS ;
+		if (args.length != 0)
+			{
+			iterations = Integer.parseInt(args[0]) ;
+			}
+
+		workDirectory = Files.createTempDirectory("onzfix-bench") ;
+		try
+			{
+			benchmark = new ROMBenchmark(workDirectory, iterations) ;
+			System.out.println("benchmark,rom_size,pad_value,iterations,min_us,mean_us,mb_per_s") ;
+			for (int romSize=k_MIN_ROM_SIZE; romSize<=k_MAX_ROM_SIZE; romSize*=2)
+				{
+				for (int padValue : m_padValues)
+					{
+					benchmark.RunAll(romSize, (byte)(padValue)) ;
+					}
+
+				}
+
+			}
+
+		finally
+			{
+			for (File file : workDirectory.toFile().listFiles())
+				{
+				file.delete() ;
+				}
+
+			Files.delete(workDirectory) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: RunAll (of ROMBenchmark)								*
+	* I/P:	romSize		-- size of rom image to benchmark			*
+	*		padValue	-- value used to pad rom image				*
+	*																*
+	* A "short" image is three quarters of the size & is padded up	*
+	* to it, a "long" image is one bank over & is truncated to it.	*
+	*																*
+	****************************************************************/
+
+	public void RunAll(int romSize, byte padValue) throws IOException
+		{
+		String	pad ;
+		Path	fullImage ;
+		Path	shortImage ;
+		Path	longImage ;
+		Path	scratchImage ;
+
+		UserOptions	readOptions ;
+		UserOptions	processOptions ;
+
+		pad = String.format("%02x", padValue & 0xFF) ;
+		fullImage = CreateImage("full", romSize, romSize, padValue) ;
+		shortImage = CreateImage("short", romSize * 3 / 4, romSize, padValue) ;
+		longImage = CreateImage("long", romSize + k_ROM_BANK_SIZE, romSize, padValue) ;
+		scratchImage = m_workDirectory.resolve("scratch.gb") ;
+		readOptions = NewOptions(fullImage.toString()) ;
+		processOptions = NewOptions("-p" + pad, "-v", scratchImage.toString()) ;
+
+		Report("ReadImage", romSize, pad, Measure(new Benchmark()
+			{
+			protected boolean Run()
+				{
+				return (m_rom.LoadImage(readOptions, fullImage.toString())) ;
+				}
+
+			}), romSize) ;
+
+		Report("WriteImage", romSize, pad, Measure(new Benchmark()
+			{
+			protected void Setup() throws IOException
+				{
+				super.Setup() ;
+				Files.copy(fullImage, scratchImage, StandardCopyOption.REPLACE_EXISTING) ;
+				m_rom.LoadImage(readOptions, scratchImage.toString()) ;
+				}
+
+			protected boolean Run()
+				{
+				return (m_rom.WriteImage(scratchImage.toString())) ;
+				}
+
+			}), romSize) ;
+
+		Report("PadImage", romSize, pad, Measure(new Benchmark()
+			{
+			protected void Setup() throws IOException
+				{
+				super.Setup() ;
+				m_rom.LoadImage(readOptions, shortImage.toString()) ;
+				}
+
+			protected boolean Run()
+				{
+				m_rom.PadImage(padValue) ;
+
+				return (true) ;
+				}
+
+			}), romSize) ;
+
+		Report("TruncateImage", romSize, pad, Measure(new Benchmark()
+			{
+			protected void Setup() throws IOException
+				{
+				super.Setup() ;
+				m_rom.LoadImage(readOptions, longImage.toString()) ;
+				}
+
+			protected boolean Run()
+				{
+				m_rom.TruncateImage() ;
+
+				return (true) ;
+				}
+
+			}), romSize) ;
+
+		// padding & reading both keep the checksum known, so it is forgotten to have the image summed again
+		// only the bytes read are summed & counted, the padding is added without being summed
+		Report("ChecksumImage", romSize, pad, Measure(new Benchmark()
+			{
+			protected void Setup() throws IOException
+				{
+				super.Setup() ;
+				m_rom.LoadImage(readOptions, shortImage.toString()) ;
+				m_rom.PadImage(padValue) ;
+				m_rom.ForgetChecksum() ;
+				}
+
+			protected boolean Run()
+				{
+				m_rom.ChecksumImage() ;
+
+				return (true) ;
+				}
+
+			}), romSize * 3 / 4) ;
+
+		Report("ValidateNintendoLogo", romSize, pad, Measure(new Benchmark()
+			{
+			protected void Setup() throws IOException
+				{
+				super.Setup() ;
+				m_rom.LoadImage(readOptions, fullImage.toString()) ;
+				}
+
+			protected boolean Run()
+				{
+				m_rom.ValidateNintendoLogo() ;
+
+				return (true) ;
+				}
+
+			}), romSize) ;
+
+		Report("ProcessImage", romSize, pad, Measure(new Benchmark()
+			{
+			protected void Setup() throws IOException
+				{
+				super.Setup() ;
+				Files.copy(shortImage, scratchImage, StandardCopyOption.REPLACE_EXISTING) ;
+				}
+
+			protected boolean Run()
+				{
+				return (m_rom.ProcessImage(processOptions, scratchImage.toString())) ;
+				}
+
+			}), romSize) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Measure (of ROMBenchmark)								*
+	* I/P:	benchmark	-- operation to time						*
+	* RET:	long[]		-- time of each measured iteration (in ns)	*
+	*																*
+	****************************************************************/
+
+	private long[] Measure(Benchmark benchmark) throws IOException
+		{
+		long	times[] ;
+		long	start ;
+
+		int	i ;
+
+		times = new long[m_iterations] ;
+		for (i=-k_WARMUP_ITERATIONS; i<m_iterations; i++)
+			{
+			benchmark.Setup() ;
+			start = System.nanoTime() ;
+			if (!benchmark.Run())
+				{
+				throw new IOException("Benchmark failed: " + benchmark.m_rom.getError()) ;
+				}
+
+			if (i >= 0)
+				{
+				times[i] = System.nanoTime() - start ;
+				}
+
+			}
+
+		return (times) ;
+		}
+
+
+	private void Report(String name, int romSize, String pad, long times[], long bytes)
+		{
+		long	total ;
+		double	meanNanos ;
+
+		total = 0 ;
+		for (long time : times)
+			{
+			total += time ;
+			}
+
+		meanNanos = (double)(total) / times.length ;
+		System.out.println(name + "," + romSize + ",0x" + pad + "," + times.length + "," +
+			Arrays.stream(times).min().getAsLong() / 1000 + "," + (long)(meanNanos / 1000) + "," +
+			String.format("%.1f", (bytes / 1048576.0) / (meanNanos / 1e9))) ;
+		}
+
+
+	/****************************************************************
+	* NAME: CreateImage (of ROMBenchmark)							*
+	* I/P:	name		-- name of rom image file					*
+	*		imageSize	-- size of rom image file					*
+	*		romSize		-- legal rom image size being benchmarked	*
+	*		padValue	-- value of padding after the body			*
+	* RET:	Path		-- path of rom image created				*
+	*																*
+	* Like a homebrew rom image, the first three quarters of the	*
+	* rom size is random code & data and the rest is padding.		*
+	*																*
+	****************************************************************/
+
+	private Path CreateImage(String name, int imageSize, int romSize, byte padValue) throws IOException
+		{
+		Path	imagePath ;
+		byte	image[] ;
+
+		image = new byte[imageSize] ;
+		new Random(imageSize).nextBytes(image) ;
+		if (romSize * 3 / 4 < imageSize)
+			{
+			Arrays.fill(image, romSize * 3 / 4, imageSize, padValue) ;
+			}
+
+		imagePath = m_workDirectory.resolve(name + ".gb") ;
+		Files.write(imagePath, image) ;
+
+		return (imagePath) ;
+		}
+
+
+	private static UserOptions NewOptions(String... args)
+		{
+		UserOptions	options ;
+
+		options = new UserOptions() ;
+		if (!options.Process(args))
+			{
+			throw new IllegalArgumentException(options.getError()) ;
+			}
+
+		return (options) ;
+		}
+
+	}
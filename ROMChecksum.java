@@ -0,0 +1,320 @@
+import java.nio.ByteBuffer ;
+
+public class ROMChecksum
+	{
+	private final static int	k_BYTE_CARTRIDGE_TITLE = 0x0134 ;	// start address of cartridge title in rom image
+	private final static int	k_BYTE_VERSION = 0x014C ;			// address of rom version in rom image
+	private final static int	k_BYTE_COMPLEMENT = 0x014D ;		// address of cartridge complement checksum in rom image
+	private final static int	k_BYTE_CHECKSUM_MSB = 0x014E ;		// address of msb of cartridge checksum in rom image
+	private final static int	k_BYTE_CHECKSUM_LSB = 0x014F ;		// address of lsb of cartridge checksum in rom image
+
+	private final static int	k_WORDS_PER_FOLD = 128 ;			// long words that can be summed before a 16-bit lane overflows
+
+	private int		m_checksum ;								// running sum of every byte outside of 0x014D-0x014F
+	private int		m_complement ;								// running sum of bytes 0x0134-0x014C
+	private int		m_storedChecksum ;							// checksum currently held in the header of the image
+	private byte	m_storedComplement ;						// complement currently held in the header of the image
+
+
+	/****************************************************************
+	* NAME: ROMChecksum (constructor)								*
+	*																*
+	*																*
+	****************************************************************/
+
+	public ROMChecksum()
+		{
+		Reset() ;
+		}
+
+
+	/****************************************************************
+	* NAME: Reset (of ROMChecksum)									*
+	*																*
+	*																*
+	****************************************************************/
+
+	public void Reset()
+		{
+		m_checksum = 0 ;
+		m_complement = 0 ;
+		m_storedChecksum = 0 ;
+		m_storedComplement = 0 ;
+		}
+
+
+	/****************************************************************
+	* NAME: Update (of ROMChecksum)									*
+	* I/P:	buffer	-- buffer holding part of a rom image			*
+	*		offset	-- index in buffer of first byte to add			*
+	*		length	-- number of bytes to add						*
+	*		address	-- address in rom image of first byte to add	*
+	*																*
+	* Adds a run of bytes to the running checksum & complement.		*
+	* The run can be any part of the image, so a rom image can be	*
+	* summed a chunk at a time as it is read in. Rather than test	*
+	* the address of every byte, the run is split in to segments	*
+	* that lie either side of the header bytes: the bytes summed	*
+	* for the checksum, the bytes also summed for the complement	*
+	* and the checksum bytes themselves, which are only recorded.	*
+	*																*
+	****************************************************************/
+
+	public void Update(ByteBuffer buffer, int offset, int length, long address)
+		{
+		long	endAddress ;
+		long	segmentStart ;
+		long	segmentEnd ;
+		int		segmentSum ;
+		int		i ;
+
+		endAddress = address + length ;
+
+		// bytes before the cartridge title are summed for the checksum only
+		segmentStart = address ;
+		segmentEnd = Math.min(endAddress, k_BYTE_CARTRIDGE_TITLE) ;
+		if (segmentStart < segmentEnd)
+			{
+			m_checksum += SumBytes(buffer, offset, (int)(segmentEnd - segmentStart)) ;
+			}
+
+		// cartridge title to rom version are summed for both the checksum & the complement
+		segmentStart = Math.max(address, k_BYTE_CARTRIDGE_TITLE) ;
+		segmentEnd = Math.min(endAddress, k_BYTE_COMPLEMENT) ;
+		if (segmentStart < segmentEnd)
+			{
+			segmentSum = SumBytes(buffer, offset + (int)(segmentStart - address), (int)(segmentEnd - segmentStart)) ;
+			m_checksum += segmentSum ;
+			m_complement += segmentSum ;
+			}
+
+		// checksum bytes are excluded from both, they are only recorded
+		segmentStart = Math.max(address, k_BYTE_COMPLEMENT) ;
+		segmentEnd = Math.min(endAddress, k_BYTE_CHECKSUM_LSB + 1) ;
+		for (i=(int)(segmentStart - address); i<(int)(segmentEnd - address); i++)
+			{
+			RecordHeaderByte(address + i, buffer.get(offset + i)) ;
+			}
+
+		// everything after the header is summed for the checksum only
+		segmentStart = Math.max(address, k_BYTE_CHECKSUM_LSB + 1) ;
+		if (segmentStart < endAddress)
+			{
+			m_checksum += SumBytes(buffer, offset + (int)(segmentStart - address), (int)(endAddress - segmentStart)) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: Add (of ROMChecksum)									*
+	* I/P:	checksum	-- partial checksum of another part of image *
+	*																*
+	* Combines the partial checksum of a different part of the same *
+	* rom image in to this one. Each checksum byte in the header is *
+	* only ever seen by one part & is zero in all the others, so	*
+	* the recorded header bytes are simply merged together.			*
+	*																*
+	****************************************************************/
+
+	public void Add(ROMChecksum checksum)
+		{
+		m_checksum += checksum.m_checksum ;
+		m_complement += checksum.m_complement ;
+		m_storedChecksum |= checksum.m_storedChecksum ;
+		m_storedComplement |= checksum.m_storedComplement ;
+		}
+
+
+	/****************************************************************
+	* NAME: AddRun (of ROMChecksum)									*
+	* I/P:	value	-- value of every byte of the run				*
+	*		length	-- number of bytes in the run					*
+	*																*
+	* Adds a run of one value after the header, such as padding,	*
+	* without having to read it.									*
+	*																*
+	****************************************************************/
+
+	public void AddRun(byte value, long length)
+		{
+		m_checksum += (int)((value & 0xFF) * length) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Subtract (of ROMChecksum)								*
+	* I/P:	checksum	-- partial checksum of part of image that	*
+	*					   has been cut off							*
+	*																*
+	* The part cut off never holds the checksum bytes, so only the	*
+	* sums are taken away.											*
+	*																*
+	****************************************************************/
+
+	public void Subtract(ROMChecksum checksum)
+		{
+		m_checksum -= checksum.m_checksum ;
+		m_complement -= checksum.m_complement ;
+		}
+
+
+	/****************************************************************
+	* NAME: ApplyDelta (of ROMChecksum)								*
+	* I/P:	address		-- address in rom image of changed byte		*
+	*		oldValue	-- value the byte had when it was summed	*
+	*		newValue	-- value the byte has been changed to		*
+	*																*
+	* Brings the checksum up to date with a single changed byte,	*
+	* so changing a handful of header bytes costs a handful of		*
+	* additions instead of summing the entire image again.			*
+	*																*
+	****************************************************************/
+
+	public void ApplyDelta(long address, byte oldValue, byte newValue)
+		{
+		int	delta ;
+
+		delta = (newValue & 0xFF) - (oldValue & 0xFF) ;
+		if ((address<k_BYTE_COMPLEMENT) || (address>k_BYTE_CHECKSUM_LSB))
+			{
+			m_checksum += delta ;
+			if ((address >= k_BYTE_CARTRIDGE_TITLE) && (address <= k_BYTE_VERSION))
+				{
+				m_complement += delta ;
+				}
+
+			}
+		else
+			{
+			RecordHeaderByte(address, newValue) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: RecordHeaderByte (of ROMChecksum)						*
+	* I/P:	address	-- address of checksum byte in rom image		*
+	*		value	-- value of checksum byte						*
+	*																*
+	****************************************************************/
+
+	private void RecordHeaderByte(long address, byte value)
+		{
+		if (address == k_BYTE_COMPLEMENT)
+			{
+			m_storedComplement = value ;
+			}
+		else if (address == k_BYTE_CHECKSUM_MSB)
+			{
+			m_storedChecksum = (m_storedChecksum & 0x00FF) | ((value & 0xFF) << 8) ;
+			}
+		else
+			{
+			m_storedChecksum = (m_storedChecksum & 0xFF00) | (value & 0xFF) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: SumBytes (of ROMChecksum)								*
+	* I/P:	buffer	-- buffer holding part of a rom image			*
+	*		offset	-- index in buffer of first byte to sum			*
+	*		length	-- number of bytes to sum						*
+	* RET:	int		-- sum of the unsigned value of each byte		*
+	*																*
+	* Sums eight bytes at a time by reading a long word & adding	*
+	* its odd & even bytes in to four 16-bit lanes at once (SIMD	*
+	* within a register). A lane takes at most 510 per word, so		*
+	* the lanes are folded in to the total every 128 words before	*
+	* they can overflow. Left over bytes are summed one by one.		*
+	*																*
+	****************************************************************/
+
+	private static int SumBytes(ByteBuffer buffer, int offset, int length)
+		{
+		long	word ;
+		long	lanes ;
+		int		sum ;
+		int		blockEnd ;
+		int		end ;
+		int		i ;
+
+		sum = 0 ;
+		i = offset ;
+		end = offset + length ;
+		while (end - i >= 8)
+			{
+			lanes = 0 ;
+			blockEnd = i + (Math.min((end - i) >> 3, k_WORDS_PER_FOLD) << 3) ;
+			for (; i<blockEnd; i+=8)
+				{
+				word = buffer.getLong(i) ;
+				lanes += (word & 0x00FF00FF00FF00FFL) + ((word >>> 8) & 0x00FF00FF00FF00FFL) ;
+				}
+
+			sum += (int)((lanes & 0xFFFF) + ((lanes >>> 16) & 0xFFFF) + ((lanes >>> 32) & 0xFFFF) + (lanes >>> 48)) ;
+			}
+
+		for (; i<end; i++)
+			{
+			sum += buffer.get(i) & 0xFF ;
+			}
+
+		return (sum) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getComplement (of ROMChecksum)							*
+	* RET:	byte	-- complement checksum of bytes summed so far	*
+	*																*
+	****************************************************************/
+
+	public byte getComplement()
+		{
+		return ((byte)(0xE7 - m_complement)) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getChecksum (of ROMChecksum)							*
+	* RET:	short	-- global checksum of bytes summed so far		*
+	*																*
+	* The complement is added as a signed byte, exactly as the		*
+	* checksum has always been calculated by ChecksumImage.			*
+	*																*
+	****************************************************************/
+
+	public short getChecksum()
+		{
+		return ((short)(m_checksum + getComplement())) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getStoredChecksum (of ROMChecksum)						*
+	* RET:	short	-- checksum found in the header of the image	*
+	*																*
+	****************************************************************/
+
+	public short getStoredChecksum()
+		{
+		return ((short)(m_storedChecksum)) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getStoredComplement (of ROMChecksum)					*
+	* RET:	byte	-- complement found in the header of the image	*
+	*																*
+	****************************************************************/
+
+	public byte getStoredComplement()
+		{
+		return (m_storedComplement) ;
+		}
+
+	}
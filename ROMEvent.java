@@ -0,0 +1,37 @@
+import jdk.jfr.Category ;
+import jdk.jfr.DataAmount ;
+import jdk.jfr.Event ;
+import jdk.jfr.Label ;
+import jdk.jfr.StackTrace ;
+
+/****************************************************************
+* NAME: ROMEvent												*
+*																*
+* Flight recorder event of an operation on a rom image. Every	*
+* operation records the same fields, which are named the way	*
+* they are shown in a recording rather than as members.			*
+*																*
+* Events are created & begun whether or not they are enabled,	*
+* but their fields are only filled in when they will be			*
+* committed, so a disabled event costs next to nothing.			*
+*																*
+****************************************************************/
+
+@Category("ONZFIX")
+@StackTrace(false)
+public abstract class ROMEvent extends Event
+	{
+	@Label("File")
+	public String	filename ;									// filename of rom image
+
+	@Label("Image Size")
+	@DataAmount
+	public long		imageSize ;									// size of rom image after the operation
+
+	@Label("Bytes Touched")
+	@DataAmount
+	public long		bytesTouched ;								// bytes read, written or changed by the operation
+
+	@Label("Outcome")
+	public String	outcome ;									// what the operation did, or why it failed
+	}
@@ -0,0 +1,426 @@
+import java.nio.ByteBuffer ;
+import java.util.Arrays ;
+
+public class ROMHeader
+	{
+	private final static int	k_BYTE_CARTRIDGE_TITLE = 0x0134 ;	// start address of cartridge title in rom image
+	private final static int	k_BYTE_GBC_MODE = 0x0143 ;			// address of dmg/gbc compatibility/gbc only flag in rom image
+	private final static int	k_BYTE_LICENSEE_CODE_MSB = 0x0144 ;	// address of licensee code msb in rom image
+	private final static int	k_BYTE_LICENSEE_CODE_LSB = 0x0145 ;	// address of licensee code lsb in rom image
+	private final static int	k_BYTE_SGB_FEATURES = 0x0146 ;		// address of super gameboy flag in rom image
+	private final static int	k_BYTE_CARTRIDGE_TYPE = 0x0147 ;	// address of mbc type in rom image
+	private final static int	k_BYTE_ROM_SIZE = 0x0148 ;			// address of rom size in rom image
+	private final static int	k_BYTE_RAM_SIZE = 0x0149 ;			// address of ram size in rom image
+	private final static int	k_BYTE_COUNTRY_CODE = 0x014A ;		// address of country/region code in rom image
+	private final static int	k_BYTE_LICENSEE_CODE = 0x014B ;		// address of manufacturer/publisher/licensee in in rom image
+	private final static int	k_BYTE_VERSION = 0x014C ;			// address of rom version in rom image
+
+	private final static int	k_NEW_LICENSEE_FLAG = 0x33 ;		// old licensee code that means the two byte code is used
+
+	private final static String	m_cartridgeTypes[] = BuildCartridgeTypes() ;	// description of each cartridge type byte
+	private final static int	m_romSizes[] = BuildROMSizes() ;				// rom size in kB of each rom size byte, -1 if unknown
+	private final static int	m_ramSizes[] = BuildRAMSizes() ;				// ram size in kB of each ram size byte, -1 if unknown
+	private final static String	m_hexBytes[] = BuildHexBytes() ;				// 0x & two hex digits of each byte, as printed
+	private final static char	m_characters[] = BuildCharacters() ;			// character of each text byte, as printed
+	private final static String	m_destinations[] = BuildDestinations() ;		// destination of each country code byte
+	private final static String	m_gbcModes[] = BuildGBCModes() ;				// gameboy colour support of each gbc flag byte
+
+	private ByteBuffer	m_header ;								// buffer holding at least the header of a rom image
+
+
+	/****************************************************************
+	* NAME: ROMHeader (constructor)									*
+	*																*
+	* A view of the header of a rom image that decodes each field	*
+	* from the buffer when it is asked for. Nothing is copied out	*
+	* of the buffer & nothing is allocated to decode a field: every *
+	* byte is looked up in a table of 256 entries built once, so a	*
+	* header can be wrapped around one buffer after another while	*
+	* thousands of rom images are scanned.							*
+	*																*
+	****************************************************************/
+
+	public ROMHeader()
+		{
+		m_header = null ;
+		}
+
+
+	/****************************************************************
+	* NAME: Wrap (of ROMHeader)										*
+	* I/P:	header		-- buffer holding at least the header of a	*
+	*					   rom image, from address 0				*
+	* RET:	ROMHeader	-- this header, now viewing the buffer		*
+	*																*
+	****************************************************************/
+
+	public ROMHeader Wrap(ByteBuffer header)
+		{
+		m_header = header ;
+
+		return (this) ;
+		}
+
+
+	public int getCartridgeType()
+		{
+		return (m_header.get(k_BYTE_CARTRIDGE_TYPE) & 0xFF) ;
+		}
+
+
+	public String getCartridgeDescription()
+		{
+		return (m_cartridgeTypes[getCartridgeType()]) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getCartridgeDescription (of ROMHeader)					*
+	* I/P:	cartridgeType	-- cartridge type byte of rom image		*
+	* RET:	String			-- description of cartridge type		*
+	*																*
+	****************************************************************/
+
+	public static String getCartridgeDescription(int cartridgeType)
+		{
+		return (m_cartridgeTypes[cartridgeType & 0xFF]) ;
+		}
+
+
+	public int getROMSize()
+		{
+		return (m_header.get(k_BYTE_ROM_SIZE) & 0xFF) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getROMSizeKB (of ROMHeader)								*
+	* RET:	int	-- rom size the header gives (in kB), -1 if the		*
+	*			   size byte is unknown								*
+	*																*
+	****************************************************************/
+
+	public int getROMSizeKB()
+		{
+		return (m_romSizes[getROMSize()]) ;
+		}
+
+
+	public int getRAMSize()
+		{
+		return (m_header.get(k_BYTE_RAM_SIZE) & 0xFF) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getRAMSizeKB (of ROMHeader)								*
+	* RET:	int	-- ram size the header gives (in kB), -1 if the		*
+	*			   size byte is unknown								*
+	*																*
+	****************************************************************/
+
+	public int getRAMSizeKB()
+		{
+		return (m_ramSizes[getRAMSize()]) ;
+		}
+
+
+	public int getGBCMode()
+		{
+		return (m_header.get(k_BYTE_GBC_MODE) & 0xFF) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getGBCDescription (of ROMHeader)						*
+	* RET:	String	-- "only", "compatible" or "no"					*
+	*																*
+	****************************************************************/
+
+	public String getGBCDescription()
+		{
+		return (m_gbcModes[getGBCMode()]) ;
+		}
+
+
+	public boolean isSGB()
+		{
+		return (m_header.get(k_BYTE_SGB_FEATURES) == 0x03) ;
+		}
+
+
+	public int getCountryCode()
+		{
+		return (m_header.get(k_BYTE_COUNTRY_CODE) & 0xFF) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getDestination (of ROMHeader)							*
+	* RET:	String	-- "Japan", "Overseas" or "Unknown"				*
+	*																*
+	****************************************************************/
+
+	public String getDestination()
+		{
+		return (m_destinations[getCountryCode()]) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getDestination (of ROMHeader)							*
+	* I/P:	countryCode	-- country code byte of rom image			*
+	* RET:	String		-- "Japan", "Overseas" or "Unknown"			*
+	*																*
+	****************************************************************/
+
+	public static String getDestination(int countryCode)
+		{
+		return (m_destinations[countryCode & 0xFF]) ;
+		}
+
+
+	public int getVersion()
+		{
+		return (m_header.get(k_BYTE_VERSION) & 0xFF) ;
+		}
+
+
+	public boolean isNewLicensee()
+		{
+		return ((m_header.get(k_BYTE_LICENSEE_CODE) & 0xFF) == k_NEW_LICENSEE_FLAG) ;
+		}
+
+
+	/****************************************************************
+	* NAME: AppendLicensee (of ROMHeader)							*
+	* I/P:	text	-- where the licensee code is appended			*
+	*																*
+	* Newer rom images set the old licensee byte to 0x33 and hold	*
+	* a two character code at 0x0144-0x0145 instead. The code is	*
+	* given as it is held, neither code is looked up in a table of	*
+	* licensee names.												*
+	*																*
+	****************************************************************/
+
+	public void AppendLicensee(StringBuilder text)
+		{
+		if (!isNewLicensee())
+			{
+			text.append(m_hexBytes[m_header.get(k_BYTE_LICENSEE_CODE) & 0xFF]) ;
+
+			return ;
+			}
+
+		AppendText(text, k_BYTE_LICENSEE_CODE_MSB, k_BYTE_LICENSEE_CODE_LSB + 1) ;
+		}
+
+
+	/****************************************************************
+	* NAME: AppendTitle (of ROMHeader)								*
+	* I/P:	text	-- where the cartridge title is appended		*
+	*																*
+	* The title is sixteen bytes on the original gameboy, but the	*
+	* last byte became the gbc flag, so it is fifteen bytes when	*
+	* that flag is set.												*
+	*																*
+	****************************************************************/
+
+	public void AppendTitle(StringBuilder text)
+		{
+		if ((getGBCMode() & 0x80) != 0)
+			{
+			AppendText(text, k_BYTE_CARTRIDGE_TITLE, k_BYTE_GBC_MODE) ;
+
+			return ;
+			}
+
+		AppendText(text, k_BYTE_CARTRIDGE_TITLE, k_BYTE_GBC_MODE + 1) ;
+		}
+
+
+	/****************************************************************
+	* NAME: AppendText (of ROMHeader)								*
+	* I/P:	text	-- where the characters are appended			*
+	*		start	-- address of first character					*
+	*		end		-- address after last character					*
+	*																*
+	* Characters up to the first zero byte are appended, those that *
+	* can't be printed are shown as '?'.							*
+	*																*
+	****************************************************************/
+
+	private void AppendText(StringBuilder text, int start, int end)
+		{
+		int	character ;
+		int	i ;
+
+		for (i=start; i<end; i++)
+			{
+			character = m_header.get(i) & 0xFF ;
+			if (character == 0)
+				{
+				break ;
+				}
+
+			text.append(m_characters[character]) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: getHexByte (of ROMHeader)								*
+	* I/P:	value	-- byte value									*
+	* RET:	String	-- value as "0x" and two hex digits				*
+	*																*
+	****************************************************************/
+
+	public static String getHexByte(int value)
+		{
+		return (m_hexBytes[value & 0xFF]) ;
+		}
+
+
+	private static String[] BuildCartridgeTypes()
+		{
+		String	types[] ;
+
+		types = new String[256] ;
+		Arrays.fill(types, "Unknown") ;
+		types[0x00] = "No MBC -- ROM Only" ;
+		types[0x01] = "MBC 0x01 -- ROM Only" ;
+		types[0x02] = "MBC 0x01 -- ROM & RAM" ;
+		types[0x03] = "MBC 0x01 -- ROM & RAM & Battery" ;
+		types[0x05] = "MBC 0x02 -- ROM Only" ;
+		types[0x06] = "MBC 0x02 -- ROM & Battery" ;
+		types[0x08] = "ROM & RAM" ;
+		types[0x09] = "ROM & RAM & Battery" ;
+		types[0x0B] = "MMM01 -- ROM Only" ;
+		types[0x0C] = "MMM01 -- ROM & RAM" ;
+		types[0x0D] = "MMM01 -- ROM & RAM & Battery" ;
+		types[0x0F] = "MBC 0x03 -- ROM & Timer & Battery" ;
+		types[0x10] = "MBC 0x03 -- ROM & RAM & Timer & Battery" ;
+		types[0x11] = "MBC 0x03 -- ROM Only" ;
+		types[0x12] = "MBC 0x03 -- ROM & RAM" ;
+		types[0x13] = "MBC 0x03 -- ROM & RAM & Battery" ;
+		types[0x15] = "MBC 0x04 -- ROM Only" ;
+		types[0x16] = "MBC 0x04 -- ROM & RAM" ;
+		types[0x17] = "MBC 0x04 -- ROM & RAM & Battery" ;
+		types[0x19] = "MBC 0x05 -- ROM Only" ;
+		types[0x1A] = "MBC 0x05 -- ROM & RAM" ;
+		types[0x1B] = "MBC 0x05 -- ROM & RAM & Battery" ;
+		types[0x1C] = "MBC 0x05 -- ROM & Rumble" ;
+		types[0x1D] = "MBC 0x05 -- ROM & RAM & Rumble" ;
+		types[0x1E] = "MBC 0x05 -- ROM & RAM & Battery & Rumble" ;
+		types[0xFC] = "Pocket Camera" ;
+		types[0xFD] = "Bandai TAMA5" ;
+		types[0xFE] = "HuC 3" ;
+		types[0xFF] = "HuC 1 -- ROM & RAM & Battery" ;
+
+		return (types) ;
+		}
+
+
+	/****************************************************************
+	* NAME: BuildROMSizes (of ROMHeader)							*
+	* RET:	int[]	-- rom size in kB of each rom size byte			*
+	*																*
+	* Sizes 0x00-0x08 double from 32kB, 0x52-0x54 are the odd		*
+	* sized 72, 80 & 96 bank cartridges.							*
+	*																*
+	****************************************************************/
+
+	private static int[] BuildROMSizes()
+		{
+		int	sizes[] ;
+		int	i ;
+
+		sizes = new int[256] ;
+		Arrays.fill(sizes, -1) ;
+		for (i=0; i<=8; i++)
+			{
+			sizes[i] = 32 << i ;
+			}
+
+		sizes[0x52] = 72 * 16 ;
+		sizes[0x53] = 80 * 16 ;
+		sizes[0x54] = 96 * 16 ;
+
+		return (sizes) ;
+		}
+
+
+	private static int[] BuildRAMSizes()
+		{
+		int	sizes[] ;
+
+		sizes = new int[256] ;
+		Arrays.fill(sizes, -1) ;
+		sizes[0x00] = 0 ;
+		sizes[0x01] = 2 ;
+		sizes[0x02] = 8 ;
+		sizes[0x03] = 32 ;
+		sizes[0x04] = 128 ;
+		sizes[0x05] = 64 ;
+
+		return (sizes) ;
+		}
+
+
+	private static String[] BuildHexBytes()
+		{
+		String	hexBytes[] ;
+		int		i ;
+
+		hexBytes = new String[256] ;
+		for (i=0; i<hexBytes.length; i++)
+			{
+			hexBytes[i] = String.format("0x%02X", i) ;
+			}
+
+		return (hexBytes) ;
+		}
+
+
+	private static char[] BuildCharacters()
+		{
+		char	characters[] ;
+		int		i ;
+
+		characters = new char[256] ;
+		for (i=0; i<characters.length; i++)
+			{
+			characters[i] = ((i >= 0x20) && (i < 0x7F)) ? (char)(i) : '?' ;
+			}
+
+		return (characters) ;
+		}
+
+
+	private static String[] BuildDestinations()
+		{
+		String	destinations[] ;
+
+		destinations = new String[256] ;
+		Arrays.fill(destinations, "Unknown") ;
+		destinations[0x00] = "Japan" ;
+		destinations[0x01] = "Overseas" ;
+
+		return (destinations) ;
+		}
+
+
+	private static String[] BuildGBCModes()
+		{
+		String	modes[] ;
+
+		modes = new String[256] ;
+		Arrays.fill(modes, "no") ;
+		modes[0x80] = "compatible" ;
+		modes[0xC0] = "only" ;
+
+		return (modes) ;
+		}
+
+	}
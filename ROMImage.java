@@ -0,0 +1,367 @@
+import java.io.IOException ;
+import java.io.OutputStream ;
+import java.nio.ByteBuffer ;
+import java.util.Arrays ;
+import java.util.zip.Checksum ;
+
+public class ROMImage
+	{
+	private final static int	k_PAD_CHUNK_SIZE = 0x10000 ;	// most pad bytes written out in one go (in bytes)
+
+	private ByteBuffer	m_buffer ;								// bytes of gameboy rom image (heap or mapped)
+	private ROMChecksum	m_checksum ;							// running checksum of rom image
+	private boolean		m_checksumKnown ;						// running checksum matches the bytes of the rom image
+	private int			m_firstChanged ;						// lowest address changed by PutByte, or size if none
+	private int			m_lastChanged ;							// highest address changed by PutByte, or -1 if none
+	private int			m_size ;								// size of rom image, including padding past the end of the buffer
+	private byte		m_padValue ;							// value of every byte past the end of the buffer
+	private byte		m_padChunk[] ;							// pad bytes the padding is written out from, null until needed
+
+
+	/****************************************************************
+	* NAME: ROMImage (constructor)									*
+	* I/P:	buffer	-- bytes of rom image							*
+	*																*
+	* The checksum of a new rom image is unknown until one is set.	*
+	*																*
+	****************************************************************/
+
+	public ROMImage(ByteBuffer buffer)
+		{
+		m_buffer = buffer ;
+		m_checksum = new ROMChecksum() ;
+		m_checksumKnown = false ;
+		m_firstChanged = buffer.capacity() ;
+		m_lastChanged = -1 ;
+		m_size = buffer.capacity() ;
+		m_padValue = 0 ;
+		m_padChunk = null ;
+		}
+
+
+	/****************************************************************
+	* NAME: getBuffer (of ROMImage)									*
+	* RET:	ByteBuffer	-- bytes of rom image						*
+	*																*
+	* Anything written straight in to the buffer bypasses the		*
+	* running checksum, use PutByte to change the image instead.	*
+	* Only the first getStoredSize bytes are held in the buffer,	*
+	* any after that are padding.									*
+	*																*
+	****************************************************************/
+
+	public ByteBuffer getBuffer()
+		{
+		return (m_buffer) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getSize (of ROMImage)									*
+	* RET:	int	-- size of rom image (in bytes)						*
+	*																*
+	****************************************************************/
+
+	public int getSize()
+		{
+		return (m_size) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getStoredSize (of ROMImage)								*
+	* RET:	int	-- bytes of rom image held in the buffer, the rest	*
+	*			   is padding										*
+	*																*
+	****************************************************************/
+
+	public int getStoredSize()
+		{
+		return (m_buffer.capacity()) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Pad (of ROMImage)										*
+	* I/P:	size		-- new size of rom image (in bytes)			*
+	*		padValue	-- value of every byte added				*
+	*																*
+	* Grows the rom image without storing the bytes added. They		*
+	* read back as the pad value, and are only ever produced when	*
+	* the image is written out, a chunk at a time from PadChunk.	*
+	* The checksum is left to the caller, which can add the run of	*
+	* pad bytes to it without reading them.							*
+	*																*
+	****************************************************************/
+
+	public void Pad(int size, byte padValue)
+		{
+		// padding past earlier padding of another value has to be stored
+		if ((m_size > m_buffer.capacity()) && (padValue != m_padValue))
+			{
+			Materialize() ;
+			}
+
+		m_size = size ;
+		m_padValue = padValue ;
+		m_padChunk = null ;
+		}
+
+
+	public byte getPadValue()
+		{
+		return (m_padValue) ;
+		}
+
+
+	/****************************************************************
+	* NAME: PadChunk (of ROMImage)									*
+	* I/P:	length		-- pad bytes still to be written out		*
+	* RET:	ByteBuffer	-- up to length pad bytes, backed by an		*
+	*					   array that mustn't be changed			*
+	*																*
+	* The same chunk is handed out every time, so padding of any	*
+	* size is written from a small fixed amount of memory.			*
+	*																*
+	****************************************************************/
+
+	public ByteBuffer PadChunk(int length)
+		{
+		if (m_padChunk == null)
+			{
+			m_padChunk = new byte[Math.min(k_PAD_CHUNK_SIZE, Math.max(m_size - m_buffer.capacity(), 1))] ;
+			Arrays.fill(m_padChunk, m_padValue) ;
+			}
+
+		return (ByteBuffer.wrap(m_padChunk, 0, Math.min(length, m_padChunk.length))) ;
+		}
+
+
+	/****************************************************************
+	* NAME: WriteTo (of ROMImage)									*
+	* I/P:	output	-- stream to write the whole rom image to		*
+	*																*
+	****************************************************************/
+
+	public void WriteTo(OutputStream output) throws IOException
+		{
+		ByteBuffer	padding ;
+
+		int	address ;
+
+		output.write(m_buffer.array(), 0, m_buffer.capacity()) ;
+		for (address=m_buffer.capacity(); address<m_size; address+=padding.remaining())
+			{
+			padding = PadChunk(m_size - address) ;
+			output.write(padding.array(), 0, padding.remaining()) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: UpdateCRC (of ROMImage)									*
+	* I/P:	crc	-- crc to add the whole rom image to				*
+	*																*
+	****************************************************************/
+
+	public void UpdateCRC(Checksum crc)
+		{
+		ByteBuffer	padding ;
+
+		int	address ;
+
+		crc.update(m_buffer.array(), 0, m_buffer.capacity()) ;
+		for (address=m_buffer.capacity(); address<m_size; address+=padding.remaining())
+			{
+			padding = PadChunk(m_size - address) ;
+			crc.update(padding.array(), 0, padding.remaining()) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: Materialize (of ROMImage)								*
+	*																*
+	* Stores any padding in the buffer, for the rare change that	*
+	* can't work with it unstored.									*
+	*																*
+	****************************************************************/
+
+	public void Materialize()
+		{
+		byte	image[] ;
+
+		if (m_size == m_buffer.capacity())
+			{
+			return ;
+			}
+
+		image = new byte[m_size] ;
+		m_buffer.duplicate().clear().get(image, 0, m_buffer.capacity()) ;
+		Arrays.fill(image, m_buffer.capacity(), m_size, m_padValue) ;
+		m_buffer = ByteBuffer.wrap(image) ;
+		m_padChunk = null ;
+		}
+
+
+	/****************************************************************
+	* NAME: getByte (of ROMImage)									*
+	* I/P:	address	-- address in rom image to read from			*
+	* RET:	byte	-- value at address								*
+	*																*
+	****************************************************************/
+
+	public byte getByte(int address)
+		{
+		if (address >= m_buffer.capacity())
+			{
+			Debug.assert(address < m_size, "Address is beyond the end of the ROM image") ;
+
+			return (m_padValue) ;
+			}
+
+		return (m_buffer.get(address)) ;
+		}
+
+
+	/****************************************************************
+	* NAME: PutByte (of ROMImage)									*
+	* I/P:	address	-- address in rom image to write to				*
+	*		value	-- value to write at address					*
+	*																*
+	* Every modification of the rom image goes through here. A byte *
+	* is only stored if it differs from the current value, so that	*
+	* an image mapped in place only has the pages that genuinely	*
+	* changed written back to disk. If the checksum is known the	*
+	* difference is applied to it, keeping it correct without the	*
+	* image ever having to be summed again.							*
+	*																*
+	****************************************************************/
+
+	public void PutByte(int address, byte value)
+		{
+		byte	oldValue ;
+
+		if (address >= m_buffer.capacity())
+			{
+			Materialize() ;
+			}
+
+		oldValue = m_buffer.get(address) ;
+		if (oldValue != value)
+			{
+			m_buffer.put(address, value) ;
+			m_firstChanged = Math.min(m_firstChanged, address) ;
+			m_lastChanged = Math.max(m_lastChanged, address) ;
+			if (m_checksumKnown)
+				{
+				m_checksum.ApplyDelta(address, oldValue, value) ;
+				}
+
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: getFirstChanged (of ROMImage)							*
+	* RET:	int	-- lowest address changed since the rom image was	*
+	*			   created, or its size if none was					*
+	*																*
+	****************************************************************/
+
+	public int getFirstChanged()
+		{
+		return (m_firstChanged) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getLastChanged (of ROMImage)							*
+	* RET:	int	-- highest address changed since the rom image was	*
+	*			   created, or -1 if none was						*
+	*																*
+	****************************************************************/
+
+	public int getLastChanged()
+		{
+		return (m_lastChanged) ;
+		}
+
+
+	/****************************************************************
+	* NAME: MarkChanged (of ROMImage)								*
+	* I/P:	first	-- lowest address changed						*
+	*		last	-- highest address changed, nothing is marked	*
+	*				   if it is below first							*
+	*																*
+	* For changes that were made other than through PutByte, e.g.	*
+	* when a rom image is resized in to a new buffer.				*
+	*																*
+	****************************************************************/
+
+	public void MarkChanged(int first, int last)
+		{
+		if (first <= last)
+			{
+			m_firstChanged = Math.min(m_firstChanged, first) ;
+			m_lastChanged = Math.max(m_lastChanged, last) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: isChecksumKnown (of ROMImage)							*
+	* RET:	boolean	-- true if running checksum matches rom image	*
+	*																*
+	****************************************************************/
+
+	public boolean isChecksumKnown()
+		{
+		return (m_checksumKnown) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getChecksum (of ROMImage)								*
+	* RET:	ROMChecksum	-- running checksum of rom image			*
+	*																*
+	****************************************************************/
+
+	public ROMChecksum getChecksum()
+		{
+		Debug.assert(m_checksumKnown, "Checksum of ROM image has not been calculated") ;
+
+		return (m_checksum) ;
+		}
+
+
+	/****************************************************************
+	* NAME: ForgetChecksum (of ROMImage)							*
+	*																*
+	* The checksum is unknown again until one is set.				*
+	*																*
+	****************************************************************/
+
+	public void ForgetChecksum()
+		{
+		m_checksumKnown = false ;
+		}
+
+
+	/****************************************************************
+	* NAME: setChecksum (of ROMImage)								*
+	* I/P:	checksum	-- checksum of every byte of the rom image	*
+	*																*
+	****************************************************************/
+
+	public void setChecksum(ROMChecksum checksum)
+		{
+		m_checksum = checksum ;
+		m_checksumKnown = true ;
+		}
+
+	}
@@ -0,0 +1,466 @@
+import java.io.IOException ;
+import java.nio.charset.StandardCharsets ;
+import java.nio.file.Files ;
+import java.nio.file.NoSuchFileException ;
+import java.nio.file.Paths ;
+import java.util.ArrayList ;
+import java.util.HashMap ;
+import java.util.List ;
+import java.util.Map ;
+
+public class ROMManifest
+	{
+	private Map<String, ManifestEntry>	m_entries ;				// entry of each rom image, by absolute filename
+	private List<String>				m_filenames ;			// filename of each rom image, as given & in order
+	private List<String>				m_fields ;				// fields of the record being read
+	private List<String>				m_values ;				// values of the record being read
+	private String						m_errorMsg ;			// last error encountered reading manifest
+
+
+	/****************************************************************
+	* NAME: ROMManifest (constructor)								*
+	*																*
+	* The header values to set in each of a list of rom images, so	*
+	* a whole product line can be stamped in one run. A manifest is *
+	* either CSV, with a header row naming the fields, or one JSON	*
+	* object per line, the same as the output of a scan. Each		*
+	* record names a rom image in its path field and gives any of	*
+	* the header fields a scan lists, plus country_code. A field	*
+	* that is empty or null is left as it is in the image.			*
+	*																*
+	****************************************************************/
+
+	public ROMManifest()
+		{
+		m_entries = new HashMap<String, ManifestEntry>() ;
+		m_filenames = new ArrayList<String>() ;
+		m_fields = new ArrayList<String>() ;
+		m_values = new ArrayList<String>() ;
+		m_errorMsg = "No error" ;
+		}
+
+
+	/****************************************************************
+	* NAME: Read (of ROMManifest)									*
+	* I/P:	filename	-- filename of manifest						*
+	* RET:	boolean		-- false if the manifest could not be read	*
+	*																*
+	* A manifest whose first line starts with { is JSON, any other	*
+	* is CSV.														*
+	*																*
+	****************************************************************/
+
+	public boolean Read(String filename)
+		{
+		List<String>	lines ;
+		List<String>	header ;
+		ManifestEntry	entry ;
+		String			line ;
+
+		boolean	json ;
+		int		lineNumber ;
+		int		i ;
+
+		try
+			{
+			lines = Files.readAllLines(Paths.get(filename), StandardCharsets.UTF_8) ;
+			}
+
+		catch (NoSuchFileException fileEx)
+			{
+			m_errorMsg = "Manifest " + filename + " does not exist" ;
+
+			return (false) ;
+			}
+
+		catch (IOException ioEx)
+			{
+			m_errorMsg = "Could not read manifest " + filename + " (" + ioEx.getMessage() + ")" ;
+
+			return (false) ;
+			}
+
+		json = false ;
+		header = null ;
+		for (lineNumber=1; lineNumber<=lines.size(); lineNumber++)
+			{
+			line = lines.get(lineNumber - 1).trim() ;
+			if (line.length() == 0)
+				{
+				continue ;
+				}
+
+			if ((header == null) && (!json))
+				{
+				json = line.startsWith("{") ;
+				if (!json)
+					{
+					if (!ParseCSV(line))
+						{
+						return (Failed(filename, lineNumber)) ;
+						}
+
+					header = new ArrayList<String>(m_values) ;
+					continue ;
+					}
+
+				}
+
+			m_fields.clear() ;
+			if ((json) ? (!ParseJSON(line)) : (!ParseCSV(line)))
+				{
+				return (Failed(filename, lineNumber)) ;
+				}
+
+			if (!json)
+				{
+				if (m_values.size() != header.size())
+					{
+					m_errorMsg = "has " + m_values.size() + " fields, the header row has " + header.size() ;
+
+					return (Failed(filename, lineNumber)) ;
+					}
+
+				m_fields.addAll(header) ;
+				}
+
+			entry = new ManifestEntry() ;
+			for (i=0; i<m_fields.size(); i++)
+				{
+				if (!entry.Set(m_fields.get(i).toLowerCase(), m_values.get(i)))
+					{
+					m_errorMsg = entry.getError() ;
+
+					return (Failed(filename, lineNumber)) ;
+					}
+
+				}
+
+			if (entry.getPath() == null)
+				{
+				m_errorMsg = "has no path" ;
+
+				return (Failed(filename, lineNumber)) ;
+				}
+
+			if (m_entries.putIfAbsent(getKey(entry.getPath()), entry) != null)
+				{
+				m_errorMsg = "lists " + entry.getPath() + " a second time" ;
+
+				return (Failed(filename, lineNumber)) ;
+				}
+
+			m_filenames.add(entry.getPath()) ;
+			}
+
+		if (m_filenames.size() == 0)
+			{
+			m_errorMsg = "Manifest " + filename + " lists no ROM images" ;
+
+			return (false) ;
+			}
+
+		return (true) ;
+		}
+
+
+	private boolean Failed(String filename, int lineNumber)
+		{
+		m_errorMsg = "Line " + lineNumber + " of manifest " + filename + " " + m_errorMsg ;
+
+		return (false) ;
+		}
+
+
+	/****************************************************************
+	* NAME: ParseCSV (of ROMManifest)								*
+	* I/P:	line	-- line of csv									*
+	* RET:	boolean	-- false if a quoted value is not closed		*
+	*																*
+	* Splits the line in to m_values. A value may be quoted, with	*
+	* any quote inside it doubled. Spaces around a value are		*
+	* dropped, but those inside the quotes of a quoted value are	*
+	* kept, as a title can start or end with them.					*
+	*																*
+	****************************************************************/
+
+	private boolean ParseCSV(String line)
+		{
+		StringBuilder	value ;
+
+		boolean	quoted ;
+		char	character ;
+		int		quotedLength ;
+		int		i ;
+
+		m_values.clear() ;
+		value = new StringBuilder() ;
+		quoted = false ;
+		quotedLength = -1 ;
+		for (i=0; i<line.length(); i++)
+			{
+			character = line.charAt(i) ;
+			if ((quoted) && (character == '"'))
+				{
+				if ((i + 1 < line.length()) && (line.charAt(i + 1) == '"'))
+					{
+					value.append('"') ;
+					i++ ;
+					}
+				else
+					{
+					quoted = false ;
+					quotedLength = value.length() ;
+					}
+
+				}
+			else if (quoted)
+				{
+				value.append(character) ;
+				}
+			else if (character == '"')
+				{
+				quoted = true ;
+				value.setLength(0) ;
+				}
+			else if (character == ',')
+				{
+				AddValue(value, quotedLength) ;
+				value.setLength(0) ;
+				quotedLength = -1 ;
+				}
+			else
+				{
+				value.append(character) ;
+				}
+
+			}
+
+		if (quoted)
+			{
+			m_errorMsg = "has a quote that is not closed" ;
+
+			return (false) ;
+			}
+
+		AddValue(value, quotedLength) ;
+
+		return (true) ;
+		}
+
+
+	private void AddValue(StringBuilder value, int quotedLength)
+		{
+		if (quotedLength < 0)
+			{
+			m_values.add(value.toString().trim()) ;
+			}
+		else
+			{
+			m_values.add(value.substring(0, quotedLength)) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: ParseJSON (of ROMManifest)								*
+	* I/P:	line	-- line holding one json object					*
+	* RET:	boolean	-- false if the line is not a flat json object	*
+	*																*
+	* Splits the object in to m_fields & m_values. Values are		*
+	* strings, numbers, true, false or null, a null value is taken	*
+	* as empty.														*
+	*																*
+	****************************************************************/
+
+	private boolean ParseJSON(String line)
+		{
+		StringBuilder	text ;
+
+		int	position ;
+		int	end ;
+
+		m_values.clear() ;
+		text = new StringBuilder() ;
+		position = SkipSpace(line, 1) ;
+		while ((position < line.length()) && (line.charAt(position) != '}'))
+			{
+			if ((m_fields.size() != 0) && (line.charAt(position) == ','))
+				{
+				position = SkipSpace(line, position + 1) ;
+				}
+
+			position = ParseString(line, position, text) ;
+			if (position < 0)
+				{
+				break ;
+				}
+
+			m_fields.add(text.toString()) ;
+			position = SkipSpace(line, position) ;
+			if ((position >= line.length()) || (line.charAt(position) != ':'))
+				{
+				break ;
+				}
+
+			position = SkipSpace(line, position + 1) ;
+			if ((position < line.length()) && (line.charAt(position) == '"'))
+				{
+				position = ParseString(line, position, text) ;
+				if (position < 0)
+					{
+					break ;
+					}
+
+				m_values.add(text.toString()) ;
+				}
+			else
+				{
+				// anything else runs up to the next comma or the end of the object
+				end = position ;
+				while ((end < line.length()) && (line.charAt(end) != ',') && (line.charAt(end) != '}'))
+					{
+					end++ ;
+					}
+
+				m_values.add(line.substring(position, end).trim().equals("null") ? "" : line.substring(position, end).trim()) ;
+				position = end ;
+				}
+
+			position = SkipSpace(line, position) ;
+			}
+
+		if ((m_values.size() != m_fields.size()) || (position != line.length() - 1))
+			{
+			m_errorMsg = "is not a JSON object of fields & values" ;
+
+			return (false) ;
+			}
+
+		return (true) ;
+		}
+
+
+	/****************************************************************
+	* NAME: ParseString (of ROMManifest)							*
+	* I/P:	line		-- line holding a json string				*
+	*		position	-- index of opening quote in line			*
+	*		text		-- where the string is returned				*
+	* RET:	int			-- index after closing quote, -1 if there	*
+	*					   is no string								*
+	*																*
+	****************************************************************/
+
+	private static int ParseString(String line, int position, StringBuilder text)
+		{
+		char	character ;
+
+		text.setLength(0) ;
+		if ((position >= line.length()) || (line.charAt(position) != '"'))
+			{
+			return (-1) ;
+			}
+
+		for (position++; position<line.length(); position++)
+			{
+			character = line.charAt(position) ;
+			if (character == '"')
+				{
+				return (position + 1) ;
+				}
+
+			if (character == '\\')
+				{
+				if (position + 1 >= line.length())
+					{
+					return (-1) ;
+					}
+
+				position++ ;
+				character = line.charAt(position) ;
+				if (character == 'u')
+					{
+					if (position + 5 > line.length())
+						{
+						return (-1) ;
+						}
+
+					try
+						{
+						character = (char)(Integer.parseInt(line.substring(position + 1, position + 5), 16)) ;
+						}
+
+					catch (NumberFormatException e)
+						{
+						return (-1) ;
+						}
+
+					position += 4 ;
+					}
+				else
+					{
+					character = (character == 'n') ? '\n' : (character == 't') ? '\t' : (character == 'r') ? '\r' : character ;
+					}
+
+				}
+
+			text.append(character) ;
+			}
+
+		return (-1) ;
+		}
+
+
+	private static int SkipSpace(String line, int position)
+		{
+		while ((position < line.length()) && (Character.isWhitespace(line.charAt(position))))
+			{
+			position++ ;
+			}
+
+		return (position) ;
+		}
+
+
+	private static String getKey(String filename)
+		{
+		return (Paths.get(filename).toAbsolutePath().normalize().toString()) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getEntry (of ROMManifest)								*
+	* I/P:	filename		-- filename of rom image				*
+	* RET:	ManifestEntry	-- header values of rom image, null if	*
+	*						   it isn't listed						*
+	*																*
+	* The manifest isn't changed once it has been read, so every	*
+	* thread of a batch can look up its own image at once.			*
+	*																*
+	****************************************************************/
+
+	public ManifestEntry getEntry(String filename)
+		{
+		return (m_entries.get(getKey(filename))) ;
+		}
+
+
+	/****************************************************************
+	* NAME: getFilenames (of ROMManifest)							*
+	* RET:	List<String>	-- every rom image listed, in order		*
+	*																*
+	****************************************************************/
+
+	public List<String> getFilenames()
+		{
+		return (m_filenames) ;
+		}
+
+
+	public String getError()
+		{
+		return (m_errorMsg) ;
+		}
+
+	}
@@ -0,0 +1,596 @@
+import java.io.* ;
+import java.nio.ByteBuffer ;
+import java.util.zip.CRC32 ;
+import java.util.zip.CheckedInputStream ;
+
+public class ROMPatch
+	{
+	private final static int	k_READ_BUFFER_SIZE = 0x10000 ;	// size of buffer patches are read through (in bytes)
+	private final static int	k_IPS_EOF = 0x454F46 ;			// record offset that ends an ips patch ("EOF")
+	private final static int	k_MAX_IMAGE_SIZE = 0x1000000 ;	// largest image a patch may produce, all an ips patch can address
+	private final static int	k_BPS_FOOTER_SIZE = 12 ;		// source, target & patch crc32s that end a bps patch
+	private final static int	k_SUM_CHUNK_SIZE = 0x10000 ;	// size of each chunk of a bps target checked & summed together (in bytes)
+
+	private final static int	k_SOURCE_READ = 0 ;				// bps action copying source bytes at the same address
+	private final static int	k_TARGET_READ = 1 ;				// bps action copying bytes from the patch
+	private final static int	k_SOURCE_COPY = 2 ;				// bps action copying source bytes from anywhere
+	private final static int	k_TARGET_COPY = 3 ;				// bps action repeating bytes already in the target
+
+	private final static byte	m_ipsMagic[] = { 'P', 'A', 'T', 'C', 'H' } ;	// first bytes of an ips patch
+	private final static byte	m_bpsMagic[] = { 'B', 'P', 'S', '1' } ;		// first bytes of a bps patch
+
+	private DataInputStream	m_patch ;							// patch being applied
+	private CRC32			m_patchCRC ;						// crc32 of the patch bytes read so far
+	private long			m_patchPosition ;					// bytes of the patch read so far
+	private ROMImage		m_image ;							// rom image being patched, replaced when it is resized
+	private String			m_format ;							// format of patch, IPS or BPS
+	private int				m_bytesPatched ;					// bytes written by the patch
+	private String			m_errorMsg ;						// last error encountered applying patch
+
+
+	/****************************************************************
+	* NAME: ROMPatch (constructor)									*
+	*																*
+	****************************************************************/
+
+	public ROMPatch()
+		{
+		m_errorMsg = "No error" ;
+		m_format = "" ;
+		m_bytesPatched = 0 ;
+		}
+
+
+	/****************************************************************
+	* NAME: Apply (of ROMPatch)										*
+	* I/P:	image			-- rom image to patch, read in to memory *
+	*		patchFilename	-- filename of ips or bps patch			*
+	* RET:	boolean			-- false if the patch could not be		*
+	*						   applied								*
+	*																*
+	* The format is taken from the first bytes of the patch. The	*
+	* patch is streamed through a small buffer and never held in	*
+	* memory. An ips patch is written straight in to the image, so	*
+	* its running checksum stays correct & is checked once the		*
+	* patch is applied, and the image only grows if a record lies	*
+	* beyond its end. A bps patch builds a new image from the old	*
+	* one, and is only accepted if the crc32s of the patch, the		*
+	* image it was made for & the image it makes all match. Either	*
+	* way the addresses written by the patch are recorded as		*
+	* changed in the image.											*
+	*																*
+	****************************************************************/
+
+	public boolean Apply(ROMImage image, String patchFilename)
+		{
+		File	patchFile ;
+		byte	magic[] ;
+
+		boolean	applied ;
+
+		m_image = image ;
+		patchFile = new File(patchFilename) ;
+		if (!patchFile.isFile())
+			{
+			m_errorMsg = "Patch " + patchFilename + " does not exist" ;
+
+			return (false) ;
+			}
+
+		m_patch = null ;
+		try
+			{
+			m_patchCRC = new CRC32() ;
+			m_patch = new DataInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(patchFile), k_READ_BUFFER_SIZE), m_patchCRC)) ;
+			m_patchPosition = 0 ;
+			magic = ReadBytes(m_bpsMagic.length) ;
+			if (IsMagic(magic, m_bpsMagic))
+				{
+				m_format = "BPS" ;
+				applied = ApplyBPS(patchFile.length()) ;
+				}
+			else if ((IsMagic(magic, m_ipsMagic)) && (ReadBytes(1)[0] == m_ipsMagic[m_bpsMagic.length]))
+				{
+				m_format = "IPS" ;
+				applied = ApplyIPS() ;
+				}
+			else
+				{
+				m_errorMsg = "Patch " + patchFilename + " is not an IPS or BPS patch" ;
+				applied = false ;
+				}
+
+			}
+
+		catch (EOFException eofEx)
+			{
+			m_errorMsg = "Patch " + patchFilename + " ends part way through a record" ;
+			applied = false ;
+			}
+
+		catch (IOException ioEx)
+			{
+			m_errorMsg = "Error while reading patch " + patchFilename + " (" + ioEx.getMessage() + ")" ;
+			applied = false ;
+			}
+
+		if (m_patch != null)
+			{
+			try
+				{
+				m_patch.close() ;
+				}
+
+			catch (IOException ioEx)
+				{
+				// the patch was only read, nothing is lost
+				}
+
+			}
+
+		return (applied) ;
+		}
+
+
+	/****************************************************************
+	* NAME: ApplyIPS (of ROMPatch)									*
+	* RET:	boolean	-- false if the patch is not valid				*
+	*																*
+	* Each record is a 24-bit address & 16-bit length followed by	*
+	* that many bytes, or by a 16-bit count & a byte to repeat if	*
+	* the length is zero. The patch ends with "EOF", optionally		*
+	* followed by a 24-bit size to truncate the image to.			*
+	*																*
+	****************************************************************/
+
+	private boolean ApplyIPS() throws IOException
+		{
+		byte	data[] ;
+
+		int		address ;
+		int		length ;
+		int		imageSize ;
+		int		i ;
+		byte	value ;
+
+		imageSize = m_image.getSize() ;
+		while ((address = ReadBigEndian(3)) != k_IPS_EOF)
+			{
+			length = ReadBigEndian(2) ;
+			if (length == 0)
+				{
+				length = ReadBigEndian(2) ;
+				value = ReadBytes(1)[0] ;
+				data = null ;
+				}
+			else
+				{
+				data = ReadBytes(length) ;
+				value = 0 ;
+				}
+
+			// an image is grown to twice its size at a time, so records appended one by one don't copy it every time
+			if (address + length > m_image.getSize())
+				{
+				Resize(Math.max(address + length, Math.min(m_image.getSize() * 2, k_MAX_IMAGE_SIZE)), true) ;
+				}
+
+			imageSize = Math.max(imageSize, address + length) ;
+			for (i=0; i<length; i++)
+				{
+				m_image.PutByte(address + i, (data == null) ? value : data[i]) ;
+				}
+
+			m_image.MarkChanged(address, address + length - 1) ;
+			m_bytesPatched += length ;
+			}
+
+		// bytes beyond the end of the patched image were never written, so cutting them off leaves the checksum as it is
+		if (imageSize != m_image.getSize())
+			{
+			Resize(imageSize, true) ;
+			}
+
+		// an optional size after the end truncates the image
+		if (m_patch.available() >= 3)
+			{
+			imageSize = ReadBigEndian(3) ;
+			if ((imageSize < m_image.getSize()) && (imageSize != 0))
+				{
+				Resize(imageSize, false) ;
+				}
+
+			}
+
+		CheckChecksum() ;
+
+		return (true) ;
+		}
+
+
+	/****************************************************************
+	* NAME: CheckChecksum (of ROMPatch)								*
+	*																*
+	* Every byte of an ips patch goes through PutByte, so the		*
+	* running checksum of the image is checked against the whole	*
+	* image summed again once the patch has been applied. The sum	*
+	* is kept either way, so a patched image is never written with	*
+	* a checksum that only a delta kept up to date.					*
+	*																*
+	****************************************************************/
+
+	private void CheckChecksum()
+		{
+		ROMChecksum	checksum ;
+
+		if (!m_image.isChecksumKnown())
+			{
+			return ;
+			}
+
+		checksum = new ROMChecksum() ;
+		checksum.Update(m_image.getBuffer(), 0, m_image.getStoredSize(), 0) ;
+		checksum.AddRun(m_image.getPadValue(), m_image.getSize() - m_image.getStoredSize()) ;
+		Debug.assert((checksum.getChecksum() == m_image.getChecksum().getChecksum()) &&
+			(checksum.getComplement() == m_image.getChecksum().getComplement()), "Running checksum of patched ROM image is wrong") ;
+		m_image.setChecksum(checksum) ;
+		}
+
+
+	/****************************************************************
+	* NAME: ApplyBPS (of ROMPatch)									*
+	* I/P:	patchSize	-- size of patch file (in bytes)			*
+	* RET:	boolean		-- false if the patch is not valid or is	*
+	*					   not for the rom image					*
+	*																*
+	* After the sizes of the source & target images and some		*
+	* metadata, the patch is a list of actions that each fill the	*
+	* next part of the target. The crc32s of the source, target &	*
+	* patch come last.												*
+	*																*
+	****************************************************************/
+
+	private boolean ApplyBPS(long patchSize) throws IOException
+		{
+		ByteBuffer	source ;
+		ByteBuffer	targetBuffer ;
+		ROMImage	target ;
+		ROMChecksum	checksum ;
+		CRC32		crc ;
+		byte		targetBytes[] ;
+
+		long	sourceSize ;
+		long	targetSize ;
+		long	metadataSize ;
+		long	sourceCRC ;
+		long	targetCRC ;
+		long	patchCRC ;
+		long	data ;
+		long	offset ;
+		int		action ;
+		int		length ;
+		int		outputOffset ;
+		int		sourceOffset ;
+		int		targetOffset ;
+		int		chunkStart ;
+		int		chunkSize ;
+		int		firstChanged ;
+		int		lastChanged ;
+		int		i ;
+
+		sourceSize = ReadNumber() ;
+		targetSize = ReadNumber() ;
+		metadataSize = ReadNumber() ;
+		if (metadataSize > patchSize)
+			{
+			m_errorMsg = "Patch is corrupt, its metadata is larger than the patch" ;
+
+			return (false) ;
+			}
+
+		ReadBytes((int)(metadataSize)) ;
+		if (sourceSize != m_image.getSize())
+			{
+			m_errorMsg = "Patch is for a ROM image of " + sourceSize + " bytes, not " + m_image.getSize() ;
+
+			return (false) ;
+			}
+
+		if (targetSize > k_MAX_IMAGE_SIZE)
+			{
+			m_errorMsg = "Patch makes a ROM image of " + targetSize + " bytes, larger than any ROM image" ;
+
+			return (false) ;
+			}
+
+		source = m_image.getBuffer().duplicate() ;
+		targetBytes = new byte[(int)(targetSize)] ;
+		outputOffset = 0 ;
+		sourceOffset = 0 ;
+		targetOffset = 0 ;
+		firstChanged = (int)(targetSize) ;
+		lastChanged = -1 ;
+		while (m_patchPosition < patchSize - k_BPS_FOOTER_SIZE)
+			{
+			data = ReadNumber() ;
+			action = (int)(data & 3) ;
+			if ((data >> 2) + 1 > targetSize - outputOffset)
+				{
+				m_errorMsg = "Patch writes beyond the end of the ROM image it makes" ;
+
+				return (false) ;
+				}
+
+			length = (int)(data >> 2) + 1 ;
+			if (action == k_SOURCE_READ)
+				{
+				if (outputOffset + length > sourceSize)
+					{
+					m_errorMsg = "Patch reads beyond the end of the ROM image" ;
+
+					return (false) ;
+					}
+
+				source.get(outputOffset, targetBytes, outputOffset, length) ;
+				}
+			else if (action == k_TARGET_READ)
+				{
+				m_patch.readFully(targetBytes, outputOffset, length) ;
+				m_patchPosition += length ;
+				}
+			else
+				{
+				// copies are from an offset relative to the end of the last copy of the same kind
+				data = ReadNumber() ;
+				offset = (((data & 1) != 0) ? -1 : 1) * (data >> 1) ;
+				if (action == k_SOURCE_COPY)
+					{
+					offset += sourceOffset ;
+					if ((offset < 0) || (offset + length > sourceSize))
+						{
+						m_errorMsg = "Patch copies from beyond the ROM image" ;
+
+						return (false) ;
+						}
+
+					source.get((int)(offset), targetBytes, outputOffset, length) ;
+					sourceOffset = (int)(offset) + length ;
+					}
+				else
+					{
+					offset += targetOffset ;
+					if ((offset < 0) || (offset >= outputOffset))
+						{
+						m_errorMsg = "Patch copies from a part of the ROM image it hasn't made" ;
+
+						return (false) ;
+						}
+
+					// the copy can overlap what it writes, repeating a run, so it has to go a byte at a time
+					for (i=0; i<length; i++)
+						{
+						targetBytes[outputOffset + i] = targetBytes[(int)(offset) + i] ;
+						}
+
+					targetOffset = (int)(offset) + length ;
+					}
+
+				}
+
+			// only bytes read from the same address of the source are known to be unchanged
+			if (action != k_SOURCE_READ)
+				{
+				firstChanged = Math.min(firstChanged, outputOffset) ;
+				lastChanged = Math.max(lastChanged, outputOffset + length - 1) ;
+				m_bytesPatched += length ;
+				}
+
+			outputOffset += length ;
+			}
+
+		if (outputOffset != targetSize)
+			{
+			m_errorMsg = "Patch makes " + outputOffset + " bytes of a ROM image of " + targetSize + " bytes" ;
+
+			return (false) ;
+			}
+
+		sourceCRC = ReadLittleEndian32() ;
+		targetCRC = ReadLittleEndian32() ;
+		patchCRC = m_patchCRC.getValue() ;
+		if (ReadLittleEndian32() != patchCRC)
+			{
+			m_errorMsg = "Patch is corrupt, its CRC32 does not match" ;
+
+			return (false) ;
+			}
+
+		crc = new CRC32() ;
+		crc.update(m_image.getBuffer().duplicate().position(0).limit(m_image.getSize())) ;
+		if (crc.getValue() != sourceCRC)
+			{
+			m_errorMsg = "Patch is not for this ROM image, its CRC32 does not match" ;
+
+			return (false) ;
+			}
+
+		// the target is summed for the gameboy checksum in the same pass as its crc32
+		crc.reset() ;
+		checksum = new ROMChecksum() ;
+		targetBuffer = ByteBuffer.wrap(targetBytes) ;
+		for (chunkStart=0; chunkStart<targetBytes.length; chunkStart+=k_SUM_CHUNK_SIZE)
+			{
+			chunkSize = Math.min(k_SUM_CHUNK_SIZE, targetBytes.length - chunkStart) ;
+			crc.update(targetBytes, chunkStart, chunkSize) ;
+			checksum.Update(targetBuffer, chunkStart, chunkSize, chunkStart) ;
+			}
+		
+		if (crc.getValue() != targetCRC)
+			{
+			m_errorMsg = "Patched ROM image does not match the CRC32 of the patch" ;
+
+			return (false) ;
+			}
+
+		target = new ROMImage(targetBuffer) ;
+		target.setChecksum(checksum) ;
+		target.MarkChanged(firstChanged, lastChanged) ;
+		target.MarkChanged(m_image.getFirstChanged(), Math.min(m_image.getLastChanged(), target.getSize() - 1)) ;
+		m_image = target ;
+
+		return (true) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Resize (of ROMPatch)									*
+	* I/P:	size			-- new size of rom image (in bytes)		*
+	*		keepChecksum	-- bytes added or removed are all zero	*
+	*						   so the running checksum still holds	*
+	*																*
+	****************************************************************/
+
+	private void Resize(int size, boolean keepChecksum)
+		{
+		ROMImage	resized ;
+		byte		bytes[] ;
+
+		bytes = new byte[size] ;
+		m_image.getBuffer().duplicate().position(0).limit(Math.min(size, m_image.getSize())).get(bytes, 0, Math.min(size, m_image.getSize())) ;
+		resized = new ROMImage(ByteBuffer.wrap(bytes)) ;
+		resized.MarkChanged(m_image.getFirstChanged(), Math.min(m_image.getLastChanged(), size - 1)) ;
+		if ((keepChecksum) && (m_image.isChecksumKnown()))
+			{
+			resized.setChecksum(m_image.getChecksum()) ;
+			}
+
+		m_image = resized ;
+		}
+
+
+	private byte[] ReadBytes(int length) throws IOException
+		{
+		byte	bytes[] ;
+
+		bytes = new byte[length] ;
+		m_patch.readFully(bytes) ;
+		m_patchPosition += length ;
+
+		return (bytes) ;
+		}
+
+
+	private int ReadBigEndian(int length) throws IOException
+		{
+		int	value ;
+
+		value = 0 ;
+		for (byte patchByte : ReadBytes(length))
+			{
+			value = (value << 8) | (patchByte & 0xFF) ;
+			}
+
+		return (value) ;
+		}
+
+
+	private long ReadLittleEndian32() throws IOException
+		{
+		long	value ;
+		int		i ;
+		byte	bytes[] ;
+
+		bytes = ReadBytes(4) ;
+		value = 0 ;
+		for (i=3; i>=0; i--)
+			{
+			value = (value << 8) | (bytes[i] & 0xFF) ;
+			}
+
+		return (value) ;
+		}
+
+
+	/****************************************************************
+	* NAME: ReadNumber (of ROMPatch)								*
+	* RET:	long	-- variable length number of a bps patch		*
+	*																*
+	* Seven bits per byte, least significant first, with the top	*
+	* bit set on the last byte. Each byte after the first also adds *
+	* the value of the bit above it, so every number has just one	*
+	* encoding.														*
+	*																*
+	****************************************************************/
+
+	private long ReadNumber() throws IOException
+		{
+		long	value ;
+		long	shift ;
+		int		patchByte ;
+
+		value = 0 ;
+		shift = 1 ;
+		while (true)
+			{
+			patchByte = ReadBytes(1)[0] & 0xFF ;
+			value += (patchByte & 0x7F) * shift ;
+			if ((patchByte & 0x80) != 0)
+				{
+				break ;
+				}
+
+			if (shift > (1L << 48))
+				{
+				throw new IOException("number in patch is too large") ;
+				}
+
+			shift <<= 7 ;
+			value += shift ;
+			}
+
+		return (value) ;
+		}
+
+
+	private static boolean IsMagic(byte bytes[], byte magic[])
+		{
+		int	i ;
+
+		// only as much of the magic as has been read is compared
+		for (i=0; i<Math.min(bytes.length, magic.length); i++)
+			{
+			if (bytes[i] != magic[i])
+				{
+				return (false) ;
+				}
+
+			}
+
+		return (true) ;
+		}
+
+
+	public ROMImage getImage()
+		{
+		return (m_image) ;
+		}
+
+
+	public String getFormat()
+		{
+		return (m_format) ;
+		}
+
+
+	public int getBytesPatched()
+		{
+		return (m_bytesPatched) ;
+		}
+
+
+	public String getError()
+		{
+		return (m_errorMsg) ;
+		}
+
+	}
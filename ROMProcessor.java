@@ -1,5 +1,21 @@
 import java.io.* ;
 import java.lang.String ;
+import java.nio.ByteBuffer ;
+import java.nio.MappedByteBuffer ;
+import java.nio.channels.Channels ;
+import java.nio.channels.FileChannel ;
+import java.nio.channels.ReadableByteChannel ;
+import java.nio.charset.StandardCharsets ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.nio.file.Paths ;
+import java.nio.file.StandardCopyOption ;
+import java.nio.file.StandardOpenOption ;
+import java.nio.file.attribute.PosixFileAttributeView ;
+import java.util.Arrays ;
+import java.util.Map ;
+import java.util.concurrent.ForkJoinPool ;
+import java.util.zip.CRC32 ;
 
 public class ROMProcessor
 	{
@@ -21,10 +37,28 @@ public class ROMProcessor
 
 	private final static int	k_MIN_ROM_SIZE = 0x150 ;		// minimum legal size that a rom image can possibly be
 	private final static int	k_ROM_BANK_SIZE = 16384 ;		// size of a gameboy rom bank (in bytes)
+	private final static int	k_READ_CHUNK_SIZE = 0x10000 ;	// size of each chunk read from a rom image (in bytes)
+	private final static int	k_PARALLEL_CHECKSUM_SIZE = 0x100000 ;	// size of rom image above which banks are summed in parallel
+	private final static int	k_PATCH_MERGE_GAP = 5 ;			// unchanged bytes between two changes that cost less to patch than a new record
 	
-	private	byte	m_romImage[] ;								// gameboy rom image that is being manipulated
+	private	ROMImage	m_romImage ;							// gameboy rom image that is being manipulated
+
+	private FileChannel			m_imageChannel ;				// channel of rom image file when mapped in place
+	private MappedByteBuffer	m_mappedImage ;					// memory mapping of rom image file when mapped in place
 	
 	private boolean	m_debug ;									// debug only flag
+	private boolean	m_inPlace ;									// map rom image & only write back changed header bytes
+	private boolean	m_atomicWrite ;								// write rom image to a temporary file & rename it over the original
+	private String	m_syncPolicy ;								// when a rom image written atomically is synced, file, batch or none
+	private DeferredSync	m_deferredSync ;					// images of the run or request left to be synced & renamed by the batch policy
+	private String	m_outputFilename ;							// filename the fixed rom image is written to
+	private boolean	m_separateOutput ;							// fixed rom image is written to a file other than the original
+	private long	m_unchangedSize ;							// bytes at the start of the rom image still from the original file
+	private long	m_originalSize ;							// size of the original rom image file (in bytes)
+	private String	m_patchFormat ;								// IPS or BPS if a patch of the fixes is output instead of the image, empty if not
+	private CRC32	m_sourceCRC ;								// crc32 of the original rom image as it was read, null unless a BPS patch is output
+	private ROMArchive	m_archive ;								// zip or gzip archive the rom image was read from, null if none
+	private String	m_patchFilename ;							// filename of ips or bps patch to apply, empty if none
 	
 	private final static short	m_nintendoLogo[]={	0xCE,0xED,0x66,0x66,0xCC,0x0D,0x00,0x0B,0x03,0x73,0x00,0x83,0x00,0x0C,0x00,0x0D,
 													0x00,0x08,0x11,0x1F,0x88,0x89,0x00,0x0E,0xDC,0xCC,0x6E,0xE6,0xDD,0xDD,0xD9,0x99,
@@ -32,6 +66,15 @@ public class ROMProcessor
 
 	private String	m_errorMsg ;								// last error encountered by rom processor
 
+	private MessageSink	m_messages ;							// where progress messages of rom processor are output
+	private MessageSink	m_messageSink ;							// where progress messages go before being labelled & timed
+	private ImageTimings	m_timings ;							// timings of rom image being processed, null if not timed
+	private long			m_phaseBytes ;						// bytes the phase being timed went through, -1 for the whole image
+	private String			m_filename ;						// filename of rom image being processed, for flight recorder events
+
+	private String				m_digestNames ;					// names of digests to calculate, empty if none
+	private Map<String, String>	m_digests ;						// digests of rom image once it was last fixed or verified
+
 
 	/****************************************************************
 	* NAME: ROMProcessor (constructor)								*
@@ -43,26 +86,56 @@ public class ROMProcessor
 		{
 		// set last error message to "no error"
 		m_errorMsg = "No error" ;
+		// output progress messages to the console
+		m_messages = new ConsoleMessageSink() ;
+		m_messageSink = m_messages ;
+		m_digestNames = "" ;
+		m_filename = "" ;
+		m_phaseBytes = -1 ;
 		// disable debug option
 		m_debug = false ;
+		// disable in place option
+		m_inPlace = false ;
+		m_atomicWrite = false ;
+		m_syncPolicy = "none" ;
+		m_deferredSync = null ;
+		m_outputFilename = "" ;
+		m_separateOutput = false ;
+		m_patchFilename = "" ;
+		m_patchFormat = "" ;
+		m_archive = null ;
 		}
 	
 
-	private String getHex(int value, int length)
+	private static String getHex(int value, int length)
 		{
-		String	s ;
+		char	digits[] ;
+		int		i ;
 		
-		s = Integer.toHexString(value) ;
-		while (s.length() < length)
+		// the lowest digits are filled in from the right, so the value is padded & cut to length at once
+		digits = new char[length] ;
+		for (i=length-1; i>=0; i--)
 			{
-			s = "0" + s ;
+			digits[i] = Character.forDigit(value & 0x0F, 16) ;
+			value >>>= 4 ;
 			}
 		
-		s = s.substring(s.length()-length) ;
-		
-		return (s) ;
+		return (new String(digits)) ;
+		}
+	
+	/****************************************************************
+	* NAME: setMessageSink (of ROMProcessor)						*
+	* I/P:	messages	-- where progress messages are to be output *
+	*																*
+	****************************************************************/
+	
+	public void setMessageSink(MessageSink messages)
+		{
+		m_messages = messages ;
+		m_messageSink = messages ;
 		}
 	
+	
 	/****************************************************************
 	* NAME: getError (of ROMProcessor)								*
 	* RET:	String	-- error message of last error encountered		*
@@ -91,7 +164,13 @@ public class ROMProcessor
 		{
 		File	imageFile ;
 		
-		DataInputStream	imageStream ;
+		FileChannel	imageStream ;
+		
+		ByteBuffer	chunk ;
+		ROMChecksum	checksum ;
+		
+		int	bytesRead ;
+		int	chunkBytes ;
 		
 		Debug.assert(filename.length() != 0, "Filename must be supplied for ReadImage to function") ;
 		imageFile = new File(filename) ;
@@ -111,16 +190,29 @@ public class ROMProcessor
 			return (false) ;
 			}
 		
-		if ((!imageFile.canRead()) || (!imageFile.canWrite()))
+		// an image written to a separate output is only read
+		if ((!imageFile.canRead()) || ((!imageFile.canWrite()) && (!m_separateOutput)))
 			{
 			m_errorMsg = "File cannot be read and/or written" ;
 			
 			return (false) ;
 			}
 		
+		// a compressed image can only be read in to memory
+		if (ROMArchive.IsArchive(filename))
+			{
+			return (ReadArchive(filename)) ;
+			}
+		
+		// if in place option specified map the image instead of reading it
+		if (m_inPlace)
+			{
+			return (MapImage(imageFile)) ;
+			}
+		
 		try
 			{
-			imageStream = new DataInputStream(new FileInputStream(imageFile)) ;
+			imageStream = new FileInputStream(imageFile).getChannel() ;
 			}
 		
 		catch (FileNotFoundException fnfEX)
@@ -130,10 +222,33 @@ public class ROMProcessor
 			return (false) ;
 			}
 		
-		m_romImage = new byte[(int)(imageFile.length())] ;
+		m_unchangedSize = imageFile.length() ;
+		m_originalSize = imageFile.length() ;
+		m_romImage = new ROMImage(ByteBuffer.wrap(new byte[(int)(imageFile.length())])) ;
+		checksum = new ROMChecksum() ;
+		chunk = m_romImage.getBuffer().duplicate() ;
+		bytesRead = 0 ;
 		try
 			{
-			imageStream.read(m_romImage) ;
+			// read image a chunk at a time, summing each chunk while it is still in the cache
+			while (bytesRead < m_romImage.getSize())
+				{
+				chunk.limit(Math.min(bytesRead + k_READ_CHUNK_SIZE, m_romImage.getSize())) ;
+				chunkBytes = imageStream.read(chunk) ;
+				if (chunkBytes < 0)
+					{
+					break ;
+					}
+				
+				checksum.Update(m_romImage.getBuffer(), bytesRead, chunkBytes, bytesRead) ;
+				if (m_sourceCRC != null)
+					{
+					m_sourceCRC.update(m_romImage.getBuffer().array(), bytesRead, chunkBytes) ;
+					}
+				
+				bytesRead += chunkBytes ;
+				}
+			
 			}
 		
 		catch (IOException ioEx)
@@ -155,17 +270,157 @@ public class ROMProcessor
 			return (false) ;
 			}
 		
-		if (m_romImage.length < k_MIN_ROM_SIZE)
+		// checksum is only known if the whole file arrived
+		if (bytesRead == m_romImage.getSize())
+			{
+			m_romImage.setChecksum(checksum) ;
+			}
+		
+		if (m_romImage.getSize() < k_MIN_ROM_SIZE)
+			{
+			m_errorMsg = "Specified ROM image is smaller than " + k_MIN_ROM_SIZE + " bytes." ;
+				
+			return (false) ;
+			}
+		
+		return (true) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: ReadArchive (of ROMProcessor)							*
+	* I/P:	filename	-- filename of zip or gzip archive holding	*
+	*					   the rom image							*
+	*																*
+	* The archive is kept, so the fixed image can be written back	*
+	* in to it.														*
+	*																*
+	****************************************************************/
+	
+	private boolean ReadArchive(String filename)
+		{
+		ROMChecksum	checksum ;
+		
+		if (m_inPlace)
+			{
+			m_errorMsg = "A compressed ROM image cannot be mapped in place" ;
+			
+			return (false) ;
+			}
+		
+		m_archive = new ROMArchive() ;
+		if (!m_archive.Read(filename))
+			{
+			m_errorMsg = m_archive.getError() ;
+			
+			return (false) ;
+			}
+		
+		m_romImage = new ROMImage(ByteBuffer.wrap(m_archive.getImage())) ;
+		m_unchangedSize = m_romImage.getSize() ;
+		m_originalSize = m_romImage.getSize() ;
+		if (m_romImage.getSize() < k_MIN_ROM_SIZE)
+			{
+			m_errorMsg = "Specified ROM image is smaller than " + k_MIN_ROM_SIZE + " bytes." ;
+				
+			return (false) ;
+			}
+		
+		checksum = new ROMChecksum() ;
+		checksum.Update(m_romImage.getBuffer(), 0, m_romImage.getSize(), 0) ;
+		m_romImage.setChecksum(checksum) ;
+		if (m_sourceCRC != null)
+			{
+			m_sourceCRC.update(m_romImage.getBuffer().array(), 0, m_romImage.getSize()) ;
+			}
+		
+		return (true) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: MapImage (of ROMProcessor)								*
+	* I/P:	imageFile	-- rom image file to map					*
+	*																*
+	* This function maps an entire rom image in to memory instead	*
+	* of reading it. Only the pages that are touched get paged in	*
+	* and only the pages that are modified get written back, so a	*
+	* header fix on a large rom image costs a few hundred bytes of	*
+	* i/o rather than a full read and a full rewrite. In debug mode *
+	* the mapping is private so no change ever reaches the file.	*
+	*																*
+	****************************************************************/
+	
+	private boolean MapImage(File imageFile)
+		{
+		FileChannel.MapMode	mapMode ;
+		
+		if (imageFile.length() < k_MIN_ROM_SIZE)
 			{
 			m_errorMsg = "Specified ROM image is smaller than " + k_MIN_ROM_SIZE + " bytes." ;
 				
 			return (false) ;
 			}
 		
+		// a private mapping is copy-on-write, changes are never stored
+		if (m_debug)
+			{
+			mapMode = FileChannel.MapMode.PRIVATE ;
+			}
+		else
+			{
+			mapMode = FileChannel.MapMode.READ_WRITE ;
+			}
+		
+		try
+			{
+			m_imageChannel = new RandomAccessFile(imageFile, "rw").getChannel() ;
+			m_mappedImage = m_imageChannel.map(mapMode, 0, m_imageChannel.size()) ;
+			}
+		
+		catch (IOException ioEx)
+			{
+			CloseImage() ;
+			m_errorMsg = "Could not map specified ROM image" ;
+			
+			return (false) ;
+			}
+		
+		m_romImage = new ROMImage(m_mappedImage) ;
+		
 		return (true) ;
 		}
 	
 	
+	/****************************************************************
+	* NAME: CloseImage (of ROMProcessor)							*
+	*																*
+	* Releases the file channel of a rom image that was mapped in	*
+	* place. Does nothing if the rom image was not mapped.			*
+	*																*
+	****************************************************************/
+	
+	private void CloseImage()
+		{
+		if (m_imageChannel != null)
+			{
+			try
+				{
+				m_imageChannel.close() ;
+				}
+			
+			catch (IOException ioEx)
+				{
+				// nothing more can be done with the channel at this point
+				}
+			
+			m_imageChannel = null ;
+			}
+		
+		m_mappedImage = null ;
+		}
+	
+	
 	/****************************************************************
 	* NAME: WriteImage (of ROMProcessor)							*
 	* I/P:	filename	-- filename of rom image to output			*
@@ -174,6 +429,9 @@ public class ROMProcessor
 	* It takes a single parameter of the rom image filename that is *
 	* to be output. It verifies that the file can be written out,	*
 	* writes the bytes, and reports an error if the output fails.	*
+	* If an output path was given the image is written there		*
+	* instead, and the original file is never changed. An output	*
+	* path ending .ips or .bps gets a patch of the fixes instead.	*
 	*																*
 	****************************************************************/
 	
@@ -184,11 +442,16 @@ public class ROMProcessor
 		DataOutputStream	imageStream ;
 		
 		// assert that rom image > minimum possible rom size
-		Debug.assert(m_romImage.length >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
 		Debug.assert(filename.length() != 0, "Filename must be supplied for WriteImage to function") ;
 		imageFile = new File(filename) ;
+		if (m_separateOutput)
+			{
+			imageFile = new File(m_outputFilename) ;
+			}
 
-		if (!imageFile.canWrite())
+		// a separate output that doesn't exist yet is created
+		if ((!imageFile.canWrite()) && ((!m_separateOutput) || (imageFile.exists())))
 			{
 			m_errorMsg = "File cannot be written" ;
 			
@@ -197,6 +460,28 @@ public class ROMProcessor
 		
 		if (!m_debug)
 			{
+			// if image is mapped in place only the modified pages need to be written back
+			if (IsMappedInPlace())
+				{
+				m_mappedImage.force() ;
+				CloseImage() ;
+				
+				return (true) ;
+				}
+			
+			// image was resized so mapping (if any) is released & entire image rewritten
+			CloseImage() ;
+			// an archive can hold more than the image, so it is never left half written
+			if ((m_atomicWrite) || ((m_archive != null) && (!m_separateOutput)))
+				{
+				return (ReplaceImage(imageFile.toPath())) ;
+				}
+			
+			if (m_separateOutput)
+				{
+				return (CopyImage(imageFile.toPath())) ;
+				}
+			
 			try
 				{
 				imageStream = new DataOutputStream(new FileOutputStream(imageFile)) ;
@@ -212,7 +497,7 @@ public class ROMProcessor
 
 			try
 				{
-				imageStream.write(m_romImage, 0, m_romImage.length) ;
+				m_romImage.WriteTo(imageStream) ;
 				}
 		
 			catch (IOException ioEx)
@@ -236,376 +521,1393 @@ public class ROMProcessor
 
 			}
 		
+		CloseImage() ;
+		
 		return (true) ;
 		}
 	
 	
 	/****************************************************************
-	* NAME: ProcessImage (of ROMProcessor)							*
+	* NAME: ReplaceImage (of ROMProcessor)							*
+	* I/P:	imagePath	-- path of rom image to replace				*
+	* RET:	boolean		-- false if the image could not be replaced *
 	*																*
+	* Writes the rom image to a temporary file beside the original	*
+	* and renames it over the original in one step, so a process	*
+	* killed part way through leaves either the old image or the	*
+	* new one, never a mixture. With the file sync policy the data	*
+	* is synced before the rename and the directory after it. With	*
+	* the batch policy the rename waits for DeferredSync.SyncAll,	*
+	* which does both for the whole batch.							*
 	*																*
 	****************************************************************/
 	
-	public boolean ProcessImage(UserOptions options)
+	private boolean ReplaceImage(Path imagePath)
 		{
-		m_debug = options.isDebugOnly() ;
-
-		// if debug option enabled display debug message
-		if (m_debug)
+		PosixFileAttributeView	attributes ;
+		Path					tempPath ;
+		
+		imagePath = imagePath.toAbsolutePath() ;
+		try
 			{
-			Message.println("Debug option enabled...") ;
-			m_debug = true ;
+			tempPath = Files.createTempFile(imagePath.getParent(), "." + imagePath.getFileName() + ".", ".tmp") ;
 			}
 		
-		// read rom image
-		if (!ReadImage(options.getROMImageFilename()))
+		catch (IOException ioEx)
+			{
+			m_errorMsg = "Could not create temporary file beside specified ROM image" ;
+			
+			return (false) ;
+			}
+		
+		try
+			{
+			// temporary files are private to their owner, the replaced image keeps the permissions of the original
+			attributes = Files.getFileAttributeView(Files.exists(imagePath) ? imagePath : Paths.get(m_filename), PosixFileAttributeView.class) ;
+			if (attributes != null)
+				{
+				Files.setPosixFilePermissions(tempPath, attributes.readAttributes().permissions()) ;
+				}
+			
+			try (FileChannel tempChannel = FileChannel.open(tempPath, StandardOpenOption.WRITE))
+				{
+				WriteImageTo(tempChannel) ;
+				if (m_syncPolicy.equals("file"))
+					{
+					tempChannel.force(true) ;
+					}
+				
+				}
+			
+			if (m_syncPolicy.equals("batch"))
+				{
+				m_deferredSync.Defer(tempPath, imagePath) ;
+				
+				return (true) ;
+				}
+			
+			Files.move(tempPath, imagePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING) ;
+			if (m_syncPolicy.equals("file"))
+				{
+				DeferredSync.Sync(imagePath.getParent(), true) ;
+				}
+			
+			}
+		
+		catch (IOException ioEx)
+			{
+			m_errorMsg = "Error while writing to specified ROM image (" + ioEx.getMessage() + ")" ;
+			try
+				{
+				Files.deleteIfExists(tempPath) ;
+				}
+			
+			catch (IOException deleteEx)
+				{
+				// the original image is untouched, only the temporary file is left behind
+				}
+			
+			return (false) ;
+			}
+		
+		return (true) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: CopyImage (of ROMProcessor)								*
+	* I/P:	outputPath	-- path of separate output of rom image		*
+	* RET:	boolean		-- false if the output could not be written *
+	*																*
+	****************************************************************/
+	
+	private boolean CopyImage(Path outputPath)
+		{
+		try (FileChannel outputChannel = FileChannel.open(outputPath, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))
+			{
+			WriteImageTo(outputChannel) ;
+			}
+		
+		catch (IOException ioEx)
 			{
+			m_errorMsg = "Error while writing to output ROM image (" + ioEx.getMessage() + ")" ;
+			
 			return (false) ;
 			}
 		
-		// if pad option specified pad image
-		if (options.isPadImage())
+		return (true) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: WriteImageTo (of ROMProcessor)							*
+	* I/P:	output	-- empty file to write the rom image to			*
+	*																*
+	* With a separate output the unchanged body is copied from the	*
+	* original file by the kernel with transferTo, which shares the *
+	* blocks instead on filesystems that can, so it never passes	*
+	* through memory. Only the bytes that were changed or added are	*
+	* then written on top. Otherwise the whole image is written.	*
+	*																*
+	****************************************************************/
+	
+	private void WriteImageTo(FileChannel output) throws IOException
+		{
+		ByteBuffer	image ;
+		ByteBuffer	padding ;
+		
+		long	bodySize ;
+		long	transferred ;
+		int		copied ;
+		int		address ;
+		
+		if (m_patchFormat.length() != 0)
+			{
+			WritePatchTo(output) ;
+			
+			return ;
+			}
+		
+		if (m_archive != null)
+			{
+			m_archive.Write(m_romImage, Channels.newOutputStream(output)) ;
+			
+			return ;
+			}
+		
+		copied = 0 ;
+		if (m_separateOutput)
 			{
-			PadImage(options.getPadValue()) ;
+			bodySize = Math.min(m_unchangedSize, m_romImage.getSize()) ;
+			try (FileChannel source = FileChannel.open(Paths.get(m_filename), StandardOpenOption.READ))
+				{
+				while (copied < bodySize)
+					{
+					transferred = source.transferTo(copied, bodySize - copied, output) ;
+					// original has shrunk since it was read, the rest is written from memory
+					if (transferred <= 0)
+						{
+						break ;
+						}
+					
+					copied += (int)(transferred) ;
+					}
+				
+				}
+			
 			}
 		
-		if (options.isTruncateImage())
+		// bytes are written at their own address, so the file position is the buffer position
+		image = m_romImage.getBuffer().duplicate() ;
+		image.limit(Math.min(m_romImage.getLastChanged() + 1, copied)) ;
+		image.position(Math.min(m_romImage.getFirstChanged(), image.limit())) ;
+		while (image.hasRemaining())
 			{
-			TruncateImage() ;
+			output.write(image, image.position()) ;
 			}
 		
-		if (options.isCartridgeTitle())
+		image.limit(Math.max(m_romImage.getStoredSize(), copied)) ;
+		image.position(copied) ;
+		while (image.hasRemaining())
 			{
-			SetCartridgeTitle(options.getCartridgeTitle()) ;
+			output.write(image, image.position()) ;
 			}
 		
-		if (options.isGBCCompatible())
+		// padding isn't stored, it is written out from one reused chunk
+		for (address=image.limit(); address<m_romImage.getSize(); address+=padding.limit())
 			{
-			SetGBCCompatible() ;
+			padding = m_romImage.PadChunk(m_romImage.getSize() - address) ;
+			while (padding.hasRemaining())
+				{
+				output.write(padding, address + padding.position()) ;
+				}
+			
 			}
 		
-		if (options.isGBCOnly())
+		}
+	
+	
+	/****************************************************************
+	* NAME: WritePatchTo (of ROMProcessor)							*
+	* I/P:	output	-- empty file to write the patch to				*
+	*																*
+	* Writes an IPS or BPS patch that turns the original rom image	*
+	* into the fixed one, in place of the fixed image. Only the		*
+	* range of the original that the fixes may have changed, which	*
+	* is usually just the header, is read back and compared, and	*
+	* only the bytes that differ are patched. Bytes added at the	*
+	* end, such as padding, are always patched. A BPS patch also	*
+	* needs the crc32 of the original, taken as it was read, and of *
+	* the fixed image.												*
+	*																*
+	****************************************************************/
+	
+	private void WritePatchTo(FileChannel output) throws IOException
+		{
+		PatchWriter	patch ;
+		ByteBuffer	original ;
+		ByteBuffer	patchBytes ;
+		CRC32		targetCRC ;
+		
+		int	first ;
+		int	end ;
+		int	address ;
+		int	changedEnd ;
+		int	scan ;
+		
+		patch = new PatchWriter(m_patchFormat.equals("BPS"), m_originalSize, m_romImage.getSize()) ;
+		first = m_romImage.getFirstChanged() ;
+		end = (int)(Math.min(m_romImage.getLastChanged() + 1, m_unchangedSize)) ;
+		if (first < end)
 			{
-			SetGBCOnly() ;
+			original = ByteBuffer.allocate(end - first) ;
+			if (m_archive != null)
+				{
+				// the changes are usually in the header, so little of the archive is decompressed again
+				try (InputStream source = ROMArchive.OpenImage(m_filename))
+					{
+					source.skipNBytes(first) ;
+					if (source.readNBytes(original.array(), 0, original.capacity()) < original.capacity())
+						{
+						throw new IOException("original ROM image has shrunk since it was read") ;
+						}
+					
+					}
+				
+				}
+			else
+				{
+				try (FileChannel source = FileChannel.open(Paths.get(m_filename), StandardOpenOption.READ))
+					{
+					while (original.hasRemaining())
+						{
+						if (source.read(original, first + original.position()) < 0)
+							{
+							throw new IOException("original ROM image has shrunk since it was read") ;
+							}
+						
+						}
+					
+					}
+				
+				}
+			
+			address = first ;
+			while (address < end)
+				{
+				if (m_romImage.getByte(address) == original.get(address - first))
+					{
+					address++ ;
+					continue ;
+					}
+				
+				// a few unchanged bytes between two changes are patched too, rather than starting a new record
+				changedEnd = address + 1 ;
+				for (scan=changedEnd; (scan<end) && (scan-changedEnd<k_PATCH_MERGE_GAP); scan++)
+					{
+					if (m_romImage.getByte(scan) != original.get(scan - first))
+						{
+						changedEnd = scan + 1 ;
+						}
+					
+					}
+				
+				if (!patch.Changed(m_romImage, address, changedEnd - address))
+					{
+					throw new IOException(patch.getError()) ;
+					}
+				
+				address = changedEnd ;
+				}
+			
 			}
 		
-		if (options.isMBCType())
+		if ((m_romImage.getSize() > m_unchangedSize) && (!patch.Changed(m_romImage, (int)(m_unchangedSize), m_romImage.getSize() - (int)(m_unchangedSize))))
 			{
-			SetMBCType(options.getMBCType()) ;
+			throw new IOException(patch.getError()) ;
 			}
 		
-		if (options.isRAMSize())
+		targetCRC = new CRC32() ;
+		if (m_sourceCRC != null)
 			{
-			SetRAMSize(options.getRAMSize()) ;
+			m_romImage.UpdateCRC(targetCRC) ;
 			}
 		
-		if (options.isValidateImage())
+		patchBytes = ByteBuffer.wrap(patch.Finish((m_sourceCRC != null) ? m_sourceCRC.getValue() : 0, targetCRC.getValue())) ;
+		while (patchBytes.hasRemaining())
 			{
-			ValidateImage() ;
+			output.write(patchBytes) ;
 			}
 		
-		// write modified image back out
-		if (!WriteImage(options.getROMImageFilename()))
+		m_messages.println("Wrote " + m_patchFormat + " patch of " + patchBytes.limit() + " bytes to " + m_outputFilename) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: IsSameFile (of ROMProcessor)							*
+	* I/P:	filename		-- filename of rom image				*
+	*		outputFilename	-- filename fixed image is written to	*
+	* RET:	boolean			-- true if both name the same file		*
+	*																*
+	****************************************************************/
+	
+	private static boolean IsSameFile(String filename, String outputFilename)
+		{
+		if (filename.equals(outputFilename))
 			{
-			return (false) ;
+			return (true) ;
 			}
 		
-		return (true) ;
+		try
+			{
+			return (Files.isSameFile(Paths.get(filename), Paths.get(outputFilename))) ;
+			}
+		
+		catch (IOException ioEx)
+			{
+			// an output that doesn't exist yet can't be the rom image
+			return (false) ;
+			}
+		
+		}
+	
+	
+	/****************************************************************
+	* NAME: ProcessImage (of ROMProcessor)							*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public boolean ProcessImage(UserOptions options)
+		{
+		return (ProcessImage(options, options.getROMImageFilename())) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: ProcessImage (of ROMProcessor)							*
+	* I/P:	options		-- options to apply to rom image			*
+	*		filename	-- filename of rom image to process			*
+	*																*
+	* Processes a single rom image with the supplied options. Used	*
+	* by batch processing to apply the same options to every rom	*
+	* image.														*
+	*																*
+	****************************************************************/
+	
+	public boolean ProcessImage(UserOptions options, String filename)
+		{
+		ImageReadEvent	readEvent ;
+		
+		boolean	verified ;
+		
+		// if verify only option specified check the checksums without reading the whole image in
+		if (options.isVerifyOnly())
+			{
+			SetOptions(options, filename) ;
+			readEvent = new ImageReadEvent() ;
+			readEvent.begin() ;
+			BeginPhase() ;
+			verified = VerifyImage(filename) ;
+			EndPhase(ImageTimings.k_VERIFY, new File(filename).length()) ;
+			CommitEvent(readEvent, new File(filename).length(), verified ? "verified" : m_errorMsg) ;
+			FinishTimings() ;
+			
+			return (verified) ;
+			}
+		
+		// read rom image
+		if (!LoadImage(options, filename))
+			{
+			return (false) ;
+			}
+		
+		if (!TransformImage(options))
+			{
+			return (false) ;
+			}
+		
+		// write modified image back out
+		if (!SaveImage(filename))
+			{
+			return (false) ;
+			}
+		
+		return (true) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: LoadImage (of ROMProcessor)								*
+	* I/P:	options		-- options to apply to rom image			*
+	*		filename	-- filename of rom image to read			*
+	*																*
+	* First step of processing a rom image when the steps are run	*
+	* separately, e.g. by a pipeline that overlaps the reading,		*
+	* transforming and writing of many rom images.					*
+	*																*
+	****************************************************************/
+	
+	public boolean LoadImage(UserOptions options, String filename)
+		{
+		ImageReadEvent	readEvent ;
+		
+		boolean	loaded ;
+		
+		SetOptions(options, filename) ;
+		readEvent = new ImageReadEvent() ;
+		readEvent.begin() ;
+		BeginPhase() ;
+		loaded = ReadImage(filename) ;
+		EndPhase(ImageTimings.k_READ, new File(filename).length()) ;
+		CommitEvent(readEvent, loaded ? ImageSize() : 0, loaded ? (m_inPlace ? "mapped" : "read") : m_errorMsg) ;
+		// a patch is applied as the image arrives, so the fixes that follow see the patched image
+		if ((loaded) && (m_patchFilename.length() != 0))
+			{
+			BeginPhase() ;
+			loaded = PatchImage(m_patchFilename) ;
+			EndPhase(ImageTimings.k_PATCH) ;
+			}
+		
+		if (!loaded)
+			{
+			FinishTimings() ;
+			}
+		
+		return (loaded) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: PatchImage (of ROMProcessor)							*
+	* I/P:	patchFilename	-- filename of ips or bps patch			*
+	* RET:	boolean			-- false if the patch could not be		*
+	*						   applied								*
+	*																*
+	****************************************************************/
+	
+	private boolean PatchImage(String patchFilename)
+		{
+		PatchEvent	event ;
+		ROMPatch	patch ;
+		
+		event = new PatchEvent() ;
+		event.begin() ;
+		m_messages.println("Applying patch " + patchFilename) ;
+		patch = new ROMPatch() ;
+		if (!patch.Apply(m_romImage, patchFilename))
+			{
+			m_errorMsg = patch.getError() ;
+			CommitEvent(event, 0, m_errorMsg) ;
+			
+			return (false) ;
+			}
+		
+		m_romImage = patch.getImage() ;
+		m_unchangedSize = Math.min(m_unchangedSize, m_romImage.getSize()) ;
+		m_messages.println("\t" + patch.getFormat() + " patch wrote " + patch.getBytesPatched() + " bytes, image is " + m_romImage.getSize() + " bytes") ;
+		CommitEvent(event, patch.getBytesPatched(), "patched") ;
+		
+		return (true) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: SaveImage (of ROMProcessor)								*
+	* I/P:	filename	-- filename of rom image to output			*
+	*																*
+	* Last step of processing a rom image when the steps are run	*
+	* separately.													*
+	*																*
+	****************************************************************/
+	
+	public boolean SaveImage(String filename)
+		{
+		ImageWriteEvent	writeEvent ;
+		
+		boolean	saved ;
+		
+		writeEvent = new ImageWriteEvent() ;
+		writeEvent.begin() ;
+		BeginPhase() ;
+		saved = WriteImage(filename) ;
+		EndPhase(ImageTimings.k_WRITE) ;
+		CommitEvent(writeEvent, (saved && !m_debug) ? ImageSize() : 0, saved ? (m_debug ? "not written (debug)" : "written") : m_errorMsg) ;
+		FinishTimings() ;
+		
+		return (saved) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: TransformImage (of ROMProcessor)						*
+	* I/P:	options		-- options to apply to rom image			*
+	*																*
+	* RET:	boolean		-- false if an option could not be applied	*
+	*																*
+	* Applies every option that changes the rom image, in order.	*
+	*																*
+	****************************************************************/
+	
+	public boolean TransformImage(UserOptions options)
+		{
+		return (TransformImage(options.getTransformPlan())) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: TransformImage (of ROMProcessor)						*
+	* I/P:	plan	-- stages compiled from the options once for	*
+	*				   every rom image								*
+	* RET:	boolean	-- false if a stage failed						*
+	*																*
+	* The image is never written once a stage has failed, so the	*
+	* image is released here.										*
+	*																*
+	****************************************************************/
+	
+	public boolean TransformImage(TransformPlan plan)
+		{
+		for (TransformStage stage : plan.getStages())
+			{
+			BeginPhase() ;
+			if (!stage.Apply(this))
+				{
+				CloseImage() ;
+				FinishTimings() ;
+				
+				return (false) ;
+				}
+			
+			EndPhase(stage.getPhase()) ;
+			}
+		
+		return (true) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: SetOptions (of ROMProcessor)							*
+	* I/P:	options		-- options to apply to rom image			*
+	*		filename	-- filename of rom image to process			*
+	*																*
+	****************************************************************/
+	
+	private void SetOptions(UserOptions options, String filename)
+		{
+		// a processor can be reused, so forget any earlier error
+		m_errorMsg = "No error" ;
+		m_filename = filename ;
+		m_timings = null ;
+		m_messages = m_messageSink.ForImage(filename) ;
+		if (options.isTiming())
+			{
+			m_timings = new ImageTimings(filename) ;
+			m_messages = m_timings.TimeOutput(m_messages) ;
+			}
+		
+		m_debug = options.isDebugOnly() ;
+		m_inPlace = options.isInPlace() ;
+		m_atomicWrite = options.isAtomicWrite() ;
+		m_syncPolicy = options.getSyncPolicy() ;
+		m_deferredSync = options.getDeferredSync() ;
+		m_outputFilename = options.getOutputFilename(filename) ;
+		m_separateOutput = !IsSameFile(filename, m_outputFilename) ;
+		m_patchFilename = options.getPatchFilename() ;
+		m_patchFormat = "" ;
+		if ((m_separateOutput) && (m_outputFilename.toLowerCase().endsWith(".ips")))
+			{
+			m_patchFormat = "IPS" ;
+			}
+		else if ((m_separateOutput) && (m_outputFilename.toLowerCase().endsWith(".bps")))
+			{
+			m_patchFormat = "BPS" ;
+			}
+		
+		m_sourceCRC = m_patchFormat.equals("BPS") ? new CRC32() : null ;
+		m_archive = null ;
+		m_digestNames = options.getDigestNames() ;
+		m_digests = null ;
+
+		// if debug option enabled display debug message
+		if (m_debug)
+			{
+			m_messages.println("Debug option enabled...") ;
+			m_debug = true ;
+			}
+		
+		// if in place option enabled display in place message
+		if (m_inPlace)
+			{
+			m_messages.println("Mapping image in place...") ;
+			}
+		
+		}
+	
+	
+	/****************************************************************
+	* NAME: BeginPhase (of ROMProcessor)							*
+	*																*
+	* Phases of processing are only timed if the options asked for	*
+	* timings, otherwise BeginPhase & EndPhase do nothing. A phase	*
+	* counts as going through the whole image unless it sets the	*
+	* bytes it went through itself.									*
+	*																*
+	****************************************************************/
+	
+	private void BeginPhase()
+		{
+		m_phaseBytes = -1 ;
+		if (m_timings != null)
+			{
+			m_timings.Begin() ;
+			}
+		
+		}
+	
+	
+	private void EndPhase(int phase)
+		{
+		if (m_timings != null)
+			{
+			EndPhase(phase, (m_phaseBytes < 0) ? ImageSize() : m_phaseBytes) ;
+			}
+		
+		}
+	
+	
+	private void EndPhase(int phase, long bytes)
+		{
+		if (m_timings != null)
+			{
+			m_timings.End(phase, bytes) ;
+			}
+		
+		}
+	
+	
+	private void FinishTimings()
+		{
+		if (m_timings != null)
+			{
+			TimingReport.Record(m_timings) ;
+			m_timings = null ;
+			}
+		
+		}
+	
+	
+	/****************************************************************
+	* NAME: CommitEvent (of ROMProcessor)							*
+	* I/P:	event			-- flight recorder event of operation	*
+	*		bytesTouched	-- bytes read, written or changed		*
+	*		outcome			-- what the operation did				*
+	*																*
+	* The fields of the event are only filled in if the event is	*
+	* enabled & passes its threshold.								*
+	*																*
+	****************************************************************/
+	
+	private void CommitEvent(ROMEvent event, long bytesTouched, String outcome)
+		{
+		event.end() ;
+		if (event.shouldCommit())
+			{
+			event.filename = m_filename ;
+			event.imageSize = ImageSize() ;
+			event.bytesTouched = bytesTouched ;
+			event.outcome = outcome ;
+			event.commit() ;
+			}
+		
+		}
+	
+	
+	/****************************************************************
+	* NAME: BeginHeaderChange (of ROMProcessor)						*
+	* I/P:	field		-- name of header field about to be set		*
+	*		address		-- address of first byte of field			*
+	*		length		-- number of bytes in field					*
+	* RET:	HeaderChangeEvent	-- event to pass to CommitHeaderChange *
+	*																*
+	****************************************************************/
+	
+	private HeaderChangeEvent BeginHeaderChange(String field, int address, int length)
+		{
+		HeaderChangeEvent	event ;
+		
+		event = new HeaderChangeEvent() ;
+		if (event.isEnabled())
+			{
+			event.field = field ;
+			event.address = address ;
+			event.oldValue = getHeaderHex(address, length) ;
+			}
+		
+		event.begin() ;
+		
+		return (event) ;
+		}
+	
+	
+	private void CommitHeaderChange(HeaderChangeEvent event)
+		{
+		int	bytesChanged ;
+		int	i ;
+		
+		if (!event.isEnabled())
+			{
+			return ;
+			}
+		
+		event.newValue = getHeaderHex(event.address, event.oldValue.length() / 2) ;
+		bytesChanged = 0 ;
+		for (i=0; i<event.oldValue.length(); i+=2)
+			{
+			if (!event.oldValue.regionMatches(i, event.newValue, i, 2))
+				{
+				bytesChanged++ ;
+				}
+			
+			}
+		
+		CommitEvent(event, bytesChanged, (bytesChanged == 0) ? "unchanged" : "changed") ;
+		}
+	
+	
+	private String getHeaderHex(int address, int length)
+		{
+		StringBuilder	hex ;
+		
+		int	i ;
+		
+		hex = new StringBuilder(length * 2) ;
+		for (i=0; i<length; i++)
+			{
+			hex.append(getHex(m_romImage.getByte(address + i), 2)) ;
+			}
+		
+		return (hex.toString()) ;
+		}
+	
+	
+	private long ImageSize()
+		{
+		return ((m_romImage == null) ? 0 : m_romImage.getSize()) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: IsMappedInPlace (of ROMProcessor)						*
+	* RET:	boolean	-- true if changes to image go straight to file *
+	*																*
+	****************************************************************/
+	
+	private boolean IsMappedInPlace()
+		{
+		return ((!m_debug) && (m_mappedImage != null) && (m_romImage.getBuffer() == m_mappedImage)) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: ImageBytes (of ROMProcessor)							*
+	* RET:	ByteBuffer	-- view of every byte of the image, from 0	*
+	*																*
+	****************************************************************/
+	
+	private ByteBuffer ImageBytes()
+		{
+		ByteBuffer	imageBytes ;
+		
+		imageBytes = m_romImage.getBuffer().duplicate() ;
+		imageBytes.clear() ;
+		
+		return (imageBytes) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: ResizeFile (of ROMProcessor)							*
+	* I/P:	imageSize	-- new size of rom image					*
+	*		padValue	-- value of bytes added if image grows		*
+	* RET:	boolean		-- false if the file could not be resized	*
+	*																*
+	* Pads or truncates a rom image that is mapped in place by		*
+	* changing the file itself & mapping it again, so the image is	*
+	* never copied on to the heap. Only the pad bytes are written,	*
+	* through one small reused buffer. Zero padding is not written	*
+	* at all: writing the final byte leaves a hole that a sparse	*
+	* filesystem doesn't allocate & that reads back as zeros.		*
+	*																*
+	****************************************************************/
+	
+	private boolean ResizeFile(int imageSize, byte padValue)
+		{
+		ByteBuffer	padBytes ;
+		
+		long	position ;
+		
+		try
+			{
+			position = m_imageChannel.size() ;
+			if (imageSize < position)
+				{
+				m_imageChannel.truncate(imageSize) ;
+				}
+			else if (padValue == 0)
+				{
+				m_imageChannel.write(ByteBuffer.wrap(new byte[1]), imageSize - 1) ;
+				}
+			else
+				{
+				padBytes = ByteBuffer.allocate((int)(Math.min(k_READ_CHUNK_SIZE, imageSize - position))) ;
+				Arrays.fill(padBytes.array(), padValue) ;
+				while (position < imageSize)
+					{
+					padBytes.clear() ;
+					padBytes.limit((int)(Math.min(padBytes.capacity(), imageSize - position))) ;
+					position += m_imageChannel.write(padBytes, position) ;
+					}
+				
+				}
+			
+			m_mappedImage = m_imageChannel.map(FileChannel.MapMode.READ_WRITE, 0, imageSize) ;
+			}
+		
+		catch (IOException ioEx)
+			{
+			// caller falls back to resizing a copy of the image
+			return (false) ;
+			}
+		
+		m_romImage = new ROMImage(m_mappedImage) ;
+		
+		return (true) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: TruncateImage (of ROMProcessor)							*
+	* RET:	boolean	-- false if the image is too small to truncate	*
+	*																*
+	* An image mapped in place is cut short on disk, so the size is	*
+	* checked before anything is cut.								*
+	*																*
+	****************************************************************/
+	
+	public boolean TruncateImage()
+		{
+		TruncateEvent	event ;
+		ROMChecksum		checksum ;
+		ROMChecksum		removed ;
+		
+		byte	truncatedImage[] ;
+		
+		int	truncatedImageSize ;
+		int	bytesRemoved ;
+		
+		// assert that rom image > minimum possible rom size
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+
+		event = new TruncateEvent() ;
+		event.begin() ;
+		bytesRemoved = 0 ;
+		truncatedImageSize = 256*32768 ;
+		while (m_romImage.getSize()<truncatedImageSize)
+			{
+			truncatedImageSize /= 2 ;
+			}
+
+		// the header would be cut off, leaving a file that is no longer a rom image
+		if (truncatedImageSize < k_MIN_ROM_SIZE)
+			{
+			m_errorMsg = "ROM image cannot be truncated to " + truncatedImageSize + " bytes, smaller than " + k_MIN_ROM_SIZE + " bytes." ;
+			CommitEvent(event, 0, m_errorMsg) ;
+			
+			return (false) ;
+			}
+		
+		if (truncatedImageSize < m_romImage.getSize())
+			{
+			bytesRemoved = m_romImage.getSize() - truncatedImageSize ;
+			m_messages.println("Truncating to " + truncatedImageSize/1024 + "kB") ;
+			// only the bytes cut off are summed, to take them out of the checksum
+			// padding that is cut off again is stored, so the bytes removed can be summed & copied
+			m_romImage.Materialize() ;
+			checksum = null ;
+			if (m_romImage.isChecksumKnown())
+				{
+				removed = new ROMChecksum() ;
+				removed.Update(m_romImage.getBuffer(), truncatedImageSize, bytesRemoved, truncatedImageSize) ;
+				checksum = m_romImage.getChecksum() ;
+				checksum.Subtract(removed) ;
+				}
+			
+			// if image is mapped in place cut the file short, otherwise copy the part being kept
+			if (!IsMappedInPlace() || !ResizeFile(truncatedImageSize, (byte)(0)))
+				{
+				truncatedImage = new byte[truncatedImageSize] ;
+				ImageBytes().get(truncatedImage) ;
+				ResizedImage(ByteBuffer.wrap(truncatedImage)) ;
+				}
+			
+			if (checksum != null)
+				{
+				m_romImage.setChecksum(checksum) ;
+				}
+			
+			}
+		
+		CommitEvent(event, bytesRemoved, (bytesRemoved == 0) ? "unchanged" : "truncated") ;
+		
+		return (true) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: PadImage (of ROMProcessor)								*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public void PadImage(byte padValue)
+		{
+		PadEvent	event ;
+		ROMChecksum	checksum ;
+		
+		int	bytesToAdd ;
+		int	paddedImageSize ;
+		
+		// assert that rom image > minimum possible rom size
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+
+		event = new PadEvent() ;
+		event.begin() ;
+		bytesToAdd = 0 ;
+		paddedImageSize = 0x8000 ;
+		while (m_romImage.getSize() > paddedImageSize)
+			{
+			paddedImageSize *= 2 ;
+			}
+
+		if (paddedImageSize > m_romImage.getSize())
+			{
+			bytesToAdd = paddedImageSize - m_romImage.getSize() ;
+			m_messages.println("Padding to " + paddedImageSize/1024 + "KBytes with pad value 0x" + getHex(padValue, 2)) ;
+			checksum = m_romImage.isChecksumKnown() ? m_romImage.getChecksum() : null ;
+			// if image is mapped in place extend the file, otherwise the padding is only written out with the image
+			if (!IsMappedInPlace() || !ResizeFile(paddedImageSize, padValue))
+				{
+				m_romImage.Pad(paddedImageSize, padValue) ;
+				// a mapping that couldn't be extended is copied, so the whole image is written back
+				if (IsMappedInPlace())
+					{
+					m_romImage.Materialize() ;
+					}
+				
+				}
+			
+			// the padding is known without reading it back, so the checksum carries over
+			if (checksum != null)
+				{
+				checksum.AddRun(padValue, bytesToAdd) ;
+				m_romImage.setChecksum(checksum) ;
+				}
+			
+			m_messages.println("\tAdded " + bytesToAdd + " bytes") ;
+			}
+		else
+			{
+			m_messages.println("\tNo padding needed") ;
+			}
+
+		CommitEvent(event, bytesToAdd, (bytesToAdd == 0) ? "unchanged" : "padded") ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: ResizedImage (of ROMProcessor)							*
+	* I/P:	buffer	-- bytes of rom image at its new size			*
+	*																*
+	* Addresses changed before the resize, e.g. by a patch, are		*
+	* still changed afterwards.										*
+	*																*
+	****************************************************************/
+	
+	private void ResizedImage(ByteBuffer buffer)
+		{
+		ROMImage	resized ;
+		
+		resized = new ROMImage(buffer) ;
+		// bytes cut off & then added back aren't those of the original file
+		m_unchangedSize = Math.min(m_unchangedSize, Math.min(m_romImage.getSize(), resized.getSize())) ;
+		resized.MarkChanged(m_romImage.getFirstChanged(), Math.min(m_romImage.getLastChanged(), resized.getSize() - 1)) ;
+		m_romImage = resized ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: SetCartridgeTitle (of ROMProcessor)						*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public void SetCartridgeTitle(String cartridgeTitle)
+		{
+		// assert that rom image > minimum possible rom size
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+		Debug.assert(cartridgeTitle.length() != 0, "Blank cartridge title supplied") ;
+
+		m_messages.println("Setting cartridge title:") ;
+		int	i ;
+			
+		byte asciiName[] = cartridgeTitle.getBytes(StandardCharsets.US_ASCII) ;
+			
+		HeaderChangeEvent event = BeginHeaderChange("title", k_BYTE_CARTRIDGE_TITLE, asciiName.length) ;
+		for (i=0; i<asciiName.length; i++)
+			{
+			m_romImage.PutByte(k_BYTE_CARTRIDGE_TITLE+i, asciiName[i]) ;
+			}
+		
+		CommitHeaderChange(event) ;
+
+		// a title padded with zeros is shown without them
+		m_messages.println("\tTitle set to " + cartridgeTitle.replace("\0", "")) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getHeader (of ROMProcessor)								*
+	* RET:	ROMHeader	-- view of the header of the rom image, as	*
+	*					   it is now								*
+	*																*
+	****************************************************************/
+	
+	public ROMHeader getHeader()
+		{
+		return (new ROMHeader().Wrap(m_romImage.getBuffer())) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: SetGBCCompatible (of ROMProcessor)						*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public void SetGBCCompatible()
+		{
+		HeaderChangeEvent	event ;
+		
+		// assert that rom image > minimum possible rom size
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+
+		m_messages.println("Setting Colour GameBoy compatible mode") ;
+		event = BeginHeaderChange("cgb_flag", k_BYTE_GBC_MODE, 1) ;
+		m_romImage.PutByte(k_BYTE_GBC_MODE, (byte)(0x80)) ;
+		CommitHeaderChange(event) ;
+		m_messages.println("\tColour GameBoy compatible mode set") ;
+		}
+
+
+	/****************************************************************
+	* NAME: SetGBCOnly (of ROMProcessor)							*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public void SetGBCOnly()
+		{
+		HeaderChangeEvent	event ;
+		
+		// assert that rom image > minimum possible rom size
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+
+		m_messages.println("Setting Colour GameBoy only mode") ;
+		event = BeginHeaderChange("cgb_flag", k_BYTE_GBC_MODE, 1) ;
+		m_romImage.PutByte(k_BYTE_GBC_MODE, (byte)(0xC0)) ;
+		CommitHeaderChange(event) ;
+		m_messages.println("\tColour GameBoy only mode set") ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: SetMBCType (of ROMProcessor)							*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public void SetMBCType(byte mbcType)
+		{
+		HeaderChangeEvent	event ;
+		
+		// assert that rom image > minimum possible rom size
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+
+		// report that the mbc type is being changed
+		m_messages.println("Setting MBC Type") ;
+		// set cartridge mbc type to specified type
+		event = BeginHeaderChange("cartridge_type", k_BYTE_CARTRIDGE_TYPE, 1) ;
+		m_romImage.PutByte(k_BYTE_CARTRIDGE_TYPE, mbcType) ;
+		CommitHeaderChange(event) ;
+		// report that mbc type has been changed
+		m_messages.println("\tMBC Type set to 0x" + getHex(mbcType, 2)) ;
+		// report specified mbc type as a human readable text message
+		DescribeMBCType(mbcType) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: SetRAMSize (of ROMProcessor)							*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public void SetRAMSize(byte ramSize)
+		{
+		HeaderChangeEvent	event ;
+		
+		// assert that rom image > minimum possible rom size
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+
+		m_messages.println("Setting RAM Size") ;
+		event = BeginHeaderChange("ram_size", k_BYTE_RAM_SIZE, 1) ;
+		m_romImage.PutByte(k_BYTE_RAM_SIZE, ramSize) ;
+		CommitHeaderChange(event) ;
+		m_messages.println("\tRAM Size set to 0x" + getHex(ramSize, 2)) ;
+		}
+
+	
+	/****************************************************************
+	* NAME: ClearGBCMode (of ROMProcessor)							*
+	*																*
+	* Only a gbc flag is cleared, on the original gameboy the byte	*
+	* is the last character of the title.							*
+	*																*
+	****************************************************************/
+	
+	public void ClearGBCMode()
+		{
+		HeaderChangeEvent	event ;
+		
+		// assert that rom image > minimum possible rom size
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+
+		m_messages.println("Clearing Colour GameBoy mode") ;
+		if ((m_romImage.getByte(k_BYTE_GBC_MODE) & 0x80) == 0)
+			{
+			m_messages.println("\tColour GameBoy mode is not set") ;
+			
+			return ;
+			}
+		
+		event = BeginHeaderChange("cgb_flag", k_BYTE_GBC_MODE, 1) ;
+		m_romImage.PutByte(k_BYTE_GBC_MODE, (byte)(0x00)) ;
+		CommitHeaderChange(event) ;
+		m_messages.println("\tColour GameBoy mode cleared") ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: SetNewLicensee (of ROMProcessor)						*
+	* I/P:	newLicensee	-- two character licensee code, first		*
+	*					   character in the msb						*
+	*																*
+	* The old licensee code is set to 0x33 as well, as that is what *
+	* tells the gameboy to use the two byte code.					*
+	*																*
+	****************************************************************/
+	
+	public void SetNewLicensee(short newLicensee)
+		{
+		HeaderChangeEvent	event ;
+		
+		// assert that rom image > minimum possible rom size
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+
+		m_messages.println("Setting two byte licensee code") ;
+		event = BeginHeaderChange("new_licensee", k_BYTE_LICENSEE_CODE_MSB, 2) ;
+		m_romImage.PutByte(k_BYTE_LICENSEE_CODE_MSB, (byte)(newLicensee >> 8)) ;
+		m_romImage.PutByte(k_BYTE_LICENSEE_CODE_LSB, (byte)(newLicensee)) ;
+		CommitHeaderChange(event) ;
+		event = BeginHeaderChange("licensee", k_BYTE_LICENSEE_CODE, 1) ;
+		m_romImage.PutByte(k_BYTE_LICENSEE_CODE, (byte)(0x33)) ;
+		CommitHeaderChange(event) ;
+		m_messages.println("\tLicensee code set to " + (char)((newLicensee >> 8) & 0xFF) + (char)(newLicensee & 0xFF)) ;
 		}
 	
 	
 	/****************************************************************
-	* NAME: TruncateImage (of ROMProcessor)							*
+	* NAME: SetLicensee (of ROMProcessor)							*
 	*																*
 	*																*
 	****************************************************************/
 	
-	public void TruncateImage()
+	public void SetLicensee(byte licensee)
 		{
-		byte	truncatedImage[] ;
-		
-		int	truncatedImageSize ;
-		int	i ;
+		HeaderChangeEvent	event ;
 		
 		// assert that rom image > minimum possible rom size
-		Debug.assert(m_romImage.length >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
-
-		truncatedImageSize = 256*32768 ;
-		while (m_romImage.length<truncatedImageSize)
-			{
-			truncatedImageSize /= 2 ;
-			}
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
 
-		if (truncatedImageSize < m_romImage.length)
-			{
-			Message.println("Truncating to " + truncatedImageSize/1024 + "kB") ;
-			truncatedImage = new byte[truncatedImageSize] ;
-			for (i=0; i<truncatedImageSize; i++)
-				{
-				truncatedImage[i] = m_romImage[i] ;
-				}
-			
-			m_romImage = new byte[truncatedImageSize] ;
-			m_romImage = truncatedImage ;
-			}
-		
+		m_messages.println("Setting licensee code") ;
+		event = BeginHeaderChange("licensee", k_BYTE_LICENSEE_CODE, 1) ;
+		m_romImage.PutByte(k_BYTE_LICENSEE_CODE, licensee) ;
+		CommitHeaderChange(event) ;
+		m_messages.println("\tLicensee code set to 0x" + getHex(licensee, 2)) ;
 		}
 	
 	
 	/****************************************************************
-	* NAME: PadImage (of ROMProcessor)								*
+	* NAME: SetSGBFeatures (of ROMProcessor)						*
 	*																*
 	*																*
 	****************************************************************/
 	
-	public void PadImage(byte padValue)
+	public void SetSGBFeatures(byte sgbFeatures)
 		{
-		byte	paddedImage[] ;
-
-		int	bytesToAdd ;
-		int	paddedImageSize ;
-		int	i ;
+		HeaderChangeEvent	event ;
 		
 		// assert that rom image > minimum possible rom size
-		Debug.assert(m_romImage.length >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
-
-		paddedImageSize = 0x8000 ;
-		while (m_romImage.length > paddedImageSize)
-			{
-			paddedImageSize *= 2 ;
-			}
-
-		if (paddedImageSize > m_romImage.length)
-			{
-			bytesToAdd = paddedImageSize - m_romImage.length ;
-			Message.println("Padding to " + paddedImageSize/1024 + "KBytes with pad value 0x" + getHex(padValue, 2)) ;
-			paddedImage = new byte[paddedImageSize] ;
-			for (i=0; i<paddedImageSize; i++)
-				{
-				paddedImage[i] = padValue ;
-				}
-		
-			for (i=0; i<m_romImage.length; i++)
-				{
-				paddedImage[i] = m_romImage[i] ;
-				}
-			
-			m_romImage = paddedImage ;
-			Message.println("\tAdded " + bytesToAdd + " bytes") ;
-			}
-		else
-			{
-			Message.println("\tNo padding needed") ;
-			}
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
 
+		m_messages.println("Setting SGB features") ;
+		event = BeginHeaderChange("sgb_flag", k_BYTE_SGB_FEATURES, 1) ;
+		m_romImage.PutByte(k_BYTE_SGB_FEATURES, sgbFeatures) ;
+		CommitHeaderChange(event) ;
+		m_messages.println("\tSGB features set to 0x" + getHex(sgbFeatures, 2)) ;
 		}
 	
 	
 	/****************************************************************
-	* NAME: SetCartridgeTitle (of ROMProcessor)						*
+	* NAME: SetCountryCode (of ROMProcessor)						*
 	*																*
 	*																*
 	****************************************************************/
 	
-	public void SetCartridgeTitle(String cartridgeTitle)
+	public void SetCountryCode(byte countryCode)
 		{
+		HeaderChangeEvent	event ;
+		
 		// assert that rom image > minimum possible rom size
-		Debug.assert(m_romImage.length >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
-		Debug.assert(cartridgeTitle.length() != 0, "Blank cartridge title supplied") ;
-
-		Message.println("Setting cartridge title:") ;
-		int	i ;
-			
-		byte asciiName[] = cartridgeTitle.getBytes() ;
-			
-		for (i=0; i<asciiName.length; i++)
-			{
-			m_romImage[k_BYTE_CARTRIDGE_TITLE+i] = asciiName[i] ;
-			}
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
 
-		Message.println("\tTitle set to " + cartridgeTitle) ;
+		m_messages.println("Setting country code") ;
+		event = BeginHeaderChange("country_code", k_BYTE_COUNTRY_CODE, 1) ;
+		m_romImage.PutByte(k_BYTE_COUNTRY_CODE, countryCode) ;
+		CommitHeaderChange(event) ;
+		m_messages.println("\tCountry code set to 0x" + getHex(countryCode, 2) + " (" + ROMHeader.getDestination(countryCode) + ")") ;
 		}
 	
 	
 	/****************************************************************
-	* NAME: SetGBCCompatible (of ROMProcessor)						*
+	* NAME: SetROMSize (of ROMProcessor)							*
 	*																*
 	*																*
 	****************************************************************/
 	
-	public void SetGBCCompatible()
+	public void SetROMSize(byte romSize)
 		{
+		HeaderChangeEvent	event ;
+		
 		// assert that rom image > minimum possible rom size
-		Debug.assert(m_romImage.length >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
 
-		Message.println("Setting Colour GameBoy compatible mode") ;
-		m_romImage[k_BYTE_GBC_MODE] = new Short((short)(0x80)).byteValue() ;
-		Message.println("\tColour GameBoy compatible mode set") ;
+		m_messages.println("Setting ROM Size") ;
+		event = BeginHeaderChange("rom_size", k_BYTE_ROM_SIZE, 1) ;
+		m_romImage.PutByte(k_BYTE_ROM_SIZE, romSize) ;
+		CommitHeaderChange(event) ;
+		m_messages.println("\tROM Size set to 0x" + getHex(romSize, 2)) ;
 		}
-
-
+	
+	
 	/****************************************************************
-	* NAME: SetGBCOnly (of ROMProcessor)							*
+	* NAME: SetVersion (of ROMProcessor)							*
 	*																*
 	*																*
 	****************************************************************/
 	
-	public void SetGBCOnly()
+	public void SetVersion(byte version)
 		{
+		HeaderChangeEvent	event ;
+		
 		// assert that rom image > minimum possible rom size
-		Debug.assert(m_romImage.length >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
 
-		Message.println("Setting Colour GameBoy only mode") ;
-		m_romImage[k_BYTE_GBC_MODE] = new Short((short)(0xC0)).byteValue() ;
-		Message.println("\tColour GameBoy only mode set") ;
+		m_messages.println("Setting version") ;
+		event = BeginHeaderChange("version", k_BYTE_VERSION, 1) ;
+		m_romImage.PutByte(k_BYTE_VERSION, version) ;
+		CommitHeaderChange(event) ;
+		m_messages.println("\tVersion set to " + (version & 0xFF)) ;
 		}
 	
 	
 	/****************************************************************
-	* NAME: SetMBCType (of ROMProcessor)							*
-	*																*
+	* NAME: ApplyManifest (of ROMProcessor)							*
+	* I/P:	manifest	-- header values of each rom image			*
+	* RET:	boolean		-- false if the values could not be set		*
 	*																*
 	****************************************************************/
 	
-	public void SetMBCType(byte mbcType)
+	public boolean ApplyManifest(ROMManifest manifest)
 		{
-		// assert that rom image > minimum possible rom size
-		Debug.assert(m_romImage.length >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
-
-		// report that the mbc type is being changed
-		Message.println("Setting MBC Type") ;
-		// set cartridge mbc type to specified type
-		m_romImage[k_BYTE_CARTRIDGE_TYPE] = mbcType ;
-		// report that mbc type has been changed
-		Message.println("\tMBC Type set to 0x" + getHex(mbcType, 2)) ;
-		// report specified mbc type as a human readable text message
-		DescribeMBCType(mbcType) ;
+		ManifestEntry	entry ;
+		
+		entry = manifest.getEntry(m_filename) ;
+		if (entry == null)
+			{
+			m_messages.println("Not listed in manifest, header values left as they are") ;
+			
+			return (true) ;
+			}
+		
+		if (!entry.Apply(this))
+			{
+			m_errorMsg = "Manifest " + entry.getError() ;
+			
+			return (false) ;
+			}
+		
+		return (true) ;
 		}
 	
 	
 	/****************************************************************
-	* NAME: SetRAMSize (of ROMProcessor)							*
+	* NAME: DescribeMBCType (of ROMProcessor)						*
 	*																*
 	*																*
 	****************************************************************/
 	
-	public void SetRAMSize(byte ramSize)
+	public void DescribeMBCType(short mbcType)
 		{
-		// assert that rom image > minimum possible rom size
-		Debug.assert(m_romImage.length >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
-
-		Message.println("Setting RAM Size") ;
-		m_romImage[k_BYTE_RAM_SIZE] = ramSize ;
-		Message.println("\tRAM Size set to 0x" + getHex(ramSize, 2)) ;
+		m_messages.println("\t\t" + ROMHeader.getCartridgeDescription(mbcType)) ;
 		}
 
 	
 	/****************************************************************
-	* NAME: DescribeMBCType (of ROMProcessor)						*
+	* NAME: IsNintendoLogo (of ROMProcessor)						*
+	* I/P:	header	-- buffer holding at least the rom image header *
+	* RET:	boolean	-- true if the Nintendo logo is intact			*
 	*																*
+	* A file is only a gameboy rom image if it has the logo, as the *
+	* boot rom refuses to start a cartridge without it.				*
 	*																*
 	****************************************************************/
 	
-	public void DescribeMBCType(short mbcType)
+	public static boolean IsNintendoLogo(ByteBuffer header)
 		{
-		String	mbcDescription ;
-		
-		switch (mbcType)
-			{
-			case 0x00 :
-				mbcDescription = "No MBC -- ROM Only" ;
-				break ;
-			case 0x01 :
-				mbcDescription = "MBC 0x01 -- ROM Only" ;
-				break ;
-			case 0x02 :
-				mbcDescription = "MBC 0x01 -- ROM & RAM" ;
-				break ;
-			case 0x03 :
-				mbcDescription = "MBC 0x01 -- ROM & RAM & Battery" ;
-				break ;
-			case 0x05 :
-				mbcDescription = "MBC 0x02 -- ROM Only" ;
-				break ;
-			case 0x06 :
-				mbcDescription = "MBC 0x02 -- ROM & Battery" ;
-				break ;
-			case 0x08 :
-				mbcDescription = "ROM & RAM" ;
-				break ;
-			case 0x09 :
-				mbcDescription = "ROM & RAM & Battery" ;
-				break ;
-			case 0x0B :
-				mbcDescription = "MMM01 -- ROM Only" ;
-				break ;
-			case 0x0C :
-				mbcDescription = "MMM01 -- ROM & RAM" ;
-				break ;
-			case 0x0D :
-				mbcDescription = "MMM01 -- ROM & RAM & Battery" ;
-				break ;
-			case 0x0F :
-				mbcDescription = "MBC 0x03 -- ROM & Timer & Battery" ;
-				break ;
-			case 0x10 :
-				mbcDescription = "MBC 0x03 -- ROM & RAM & Timer & Battery" ;
-				break ;
-			case 0x11 :
-				mbcDescription = "MBC 0x03 -- ROM Only" ;
-				break ;
-			case 0x12 :
-				mbcDescription = "MBC 0x03 -- ROM & RAM" ;
-				break ;
-			case 0x13 :
-				mbcDescription = "MBC 0x03 -- ROM & RAM & Battery" ;
-				break ;
-			case 0x15 :
-				mbcDescription = "MBC 0x04 -- ROM Only" ;
-				break ;
-			case 0x16 :
-				mbcDescription = "MBC 0x04 -- ROM & RAM" ;
-				break ;
-			case 0x17 :
-				mbcDescription = "MBC 0x04 -- ROM & RAM & Battery" ;
-				break ;
-			case 0x19 :
-				mbcDescription = "MBC 0x05 -- ROM Only" ;
-				break ;
-			case 0x1A :
-				mbcDescription = "MBC 0x05 -- ROM & RAM" ;
-				break ;
-			case 0x1B :
-				mbcDescription = "MBC 0x05 -- ROM & RAM & Battery" ;
-				break ;
-			case 0x1C :
-				mbcDescription = "MBC 0x05 -- ROM & Rumble" ;
-				break ;
-			case 0x1D :
-				mbcDescription = "MBC 0x05 -- ROM & RAM & Rumble" ;
-				break ;
-			case 0x1E :
-				mbcDescription = "MBC 0x05 -- ROM & RAM & Battery & Rumble" ;
-				break ;
-			case 0xFC :
-				mbcDescription = "Pocket Camera" ;
-				break ;
-			case 0xFD :
-				mbcDescription = "Bandai TAMA5" ;
-				break ;
-			case 0xFE :
-				mbcDescription = "HuC 3" ;
-				break ;
-			case 0xFF :
-				mbcDescription = "HuC 1 -- ROM & RAM & Battery";
-				break ;
-			default :
-				mbcDescription = "Unknown" ;
-				break ;
-				
+		int	i ;
+		
+		for (i=0; i<m_nintendoLogo.length; i++)
+			{
+			if ((header.get(k_BYTE_NINTENDO_LOGO + i) & 0xFF) != m_nintendoLogo[i])
+				{
+				return (false) ;
+				}
+			
 			}
-
-		Message.println("\t\t" + mbcDescription) ;
+		
+		return (true) ;
 		}
 
 	
@@ -622,33 +1924,39 @@ public class ROMProcessor
 	
 	public void ValidateNintendoLogo()
 		{
+		LogoRepairEvent	event ;
+		
 		int	i ;
 		int	bytesChanged ;
 		
 		// assert that rom image > minimum possible rom size
-		Debug.assert(m_romImage.length >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+
+		event = new LogoRepairEvent() ;
+		event.begin() ;
 
 		bytesChanged = 0 ;
 		for (i=0; i<m_nintendoLogo.length; i++)
 			{
-			byte headerByte = new Short(m_nintendoLogo[i]).byteValue() ;
-			if (m_romImage[k_BYTE_NINTENDO_LOGO + i] != headerByte)
+			byte headerByte = (byte)(m_nintendoLogo[i]) ;
+			if (m_romImage.getByte(k_BYTE_NINTENDO_LOGO + i) != headerByte)
 				{
 				bytesChanged++ ;
-				m_romImage[k_BYTE_NINTENDO_LOGO + i] = headerByte ;
+				m_romImage.PutByte(k_BYTE_NINTENDO_LOGO + i, headerByte) ;
 				}
 			
 			}
 
 		if (bytesChanged!=0)
 			{
-			Message.println("\tChanged " + bytesChanged + " bytes in the Nintendo Character Area") ;
+			m_messages.println("\tChanged " + bytesChanged + " bytes in the Nintendo Character Area") ;
 			}
 		else
 			{
-			Message.println("\tNintendo Character Area is OK") ;
+			m_messages.println("\tNintendo Character Area is OK") ;
 			}
 
+		CommitEvent(event, bytesChanged, (bytesChanged == 0) ? "intact" : "repaired") ;
 		}
 	
 
@@ -660,15 +1968,17 @@ public class ROMProcessor
 	
 	public void ValidateROMSize()
 		{
+		HeaderChangeEvent	event ;
+		
 		byte	currentROMSizeValue ;
 		byte	calculatedROMSize ;
 		int	actualROMSize ;
 		
 		// assert that rom image > minimum possible rom size
-		Debug.assert(m_romImage.length >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
 
-		currentROMSizeValue = m_romImage[k_BYTE_ROM_SIZE] ;
-		actualROMSize = m_romImage.length ;
+		currentROMSizeValue = m_romImage.getByte(k_BYTE_ROM_SIZE) ;
+		actualROMSize = m_romImage.getSize() ;
 		calculatedROMSize = 0 ;
 		while (actualROMSize>(0x8000L<<calculatedROMSize))
 			{
@@ -677,14 +1987,16 @@ public class ROMProcessor
 
 		if (calculatedROMSize != currentROMSizeValue)
 			{
-			m_romImage[k_BYTE_ROM_SIZE] = calculatedROMSize ;
-			Message.println("\tChanged ROM size byte from 0x" + getHex(currentROMSizeValue, 2) +
+			event = BeginHeaderChange("rom_size", k_BYTE_ROM_SIZE, 1) ;
+			m_romImage.PutByte(k_BYTE_ROM_SIZE, calculatedROMSize) ;
+			CommitHeaderChange(event) ;
+			m_messages.println("\tChanged ROM size byte from 0x" + getHex(currentROMSizeValue, 2) +
 				" (" + (0x8000L<<currentROMSizeValue)/1024 + "kB) to 0x" + getHex(calculatedROMSize, 2) +
 				" (" + (0x8000L<<calculatedROMSize)/1024 + "kB)") ;
 			}
 		else
 			{
-			Message.println("\tROM size byte is OK") ;
+			m_messages.println("\tROM size byte is OK") ;
 			}
 
 		}
@@ -698,35 +2010,39 @@ public class ROMProcessor
 	
 	public void ValidateCartridgeType()
 		{
+		HeaderChangeEvent	event ;
+		
 		byte cartType ;
 		
 		// assert that rom image > minimum possible rom size
-		Debug.assert(m_romImage.length >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
 
 		// read current cartridge type
-		cartType = m_romImage[k_BYTE_CARTRIDGE_TYPE] ;
+		cartType = m_romImage.getByte(k_BYTE_CARTRIDGE_TYPE) ;
 		// if actual rom image length > 32kbytes
-		if (m_romImage.length>0x8000L)
+		if (m_romImage.getSize()>0x8000L)
 			{
 			// if cartridge type == 0 (an invalid cartridge type for roms > 32kbytes in size)
 			if (cartType==0x00)
 				{
 				// set cartridge type to 1
-				m_romImage[k_BYTE_CARTRIDGE_TYPE] = 0x01 ;
+				event = BeginHeaderChange("cartridge_type", k_BYTE_CARTRIDGE_TYPE, 1) ;
+				m_romImage.PutByte(k_BYTE_CARTRIDGE_TYPE, (byte)(0x01)) ;
+				CommitHeaderChange(event) ;
 				// report that the cartridge type has been changed
-				Message.println("\tCartridge type byte changed to 0x01") ;
+				m_messages.println("\tCartridge type byte changed to 0x01") ;
 				}
 			else
 				{
 				// report that the current cartridge type is valid
-				Message.println("\tCartridge type byte is OK") ;
+				m_messages.println("\tCartridge type byte is OK") ;
 				}
 
 			}
 		else
 			{
 			// report that any value cartridge byte is okay for a 32kbyte rom image
-			Message.println("\tCartridge type byte is OK") ;
+			m_messages.println("\tCartridge type byte is OK") ;
 			}
 
 		}
@@ -777,6 +2093,20 @@ public class ROMProcessor
 		}
 
 	
+	/****************************************************************
+	* NAME: ForgetChecksum (of ROMProcessor)						*
+	*																*
+	* The checksum summed as the image was read is thrown away, so	*
+	* the next ChecksumImage sums every byte of the image again.	*
+	*																*
+	****************************************************************/
+	
+	public void ForgetChecksum()
+		{
+		m_romImage.ForgetChecksum() ;
+		}
+	
+	
 	/****************************************************************
 	* NAME: ChecksumImage (of ROMProcessor)							*
 	*																*
@@ -794,104 +2124,322 @@ public class ROMProcessor
 		byte	calculatedComplement ;
 		byte	cartComplement ;
 		
-		int	i ;
+		ROMChecksum		checksum ;
+		ChecksumEvent	event ;
+		
+		long	bytesSummed ;
 
 		// assert that rom image > minimum possible rom size
-		Debug.assert(m_romImage.length >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
+		Debug.assert(m_romImage.getSize() >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
 
-		// set calculated checksum to zero
-		calculatedChecksum = 0 ;
-		// set calculated complement to zero
-		calculatedComplement = 0 ;
+		event = new ChecksumEvent() ;
+		event.begin() ;
+		bytesSummed = 0 ;
 		// read current cartridge checksum
-		cartChecksum = (short)((getUByte(m_romImage[k_BYTE_CHECKSUM_MSB])<<8) | getUByte(m_romImage[k_BYTE_CHECKSUM_LSB])) ;
+		cartChecksum = (short)((getUByte(m_romImage.getByte(k_BYTE_CHECKSUM_MSB))<<8) | getUByte(m_romImage.getByte(k_BYTE_CHECKSUM_LSB))) ;
 		// read current cartridge complement
-		cartComplement = m_romImage[k_BYTE_COMPLEMENT] ;
+		cartComplement = m_romImage.getByte(k_BYTE_COMPLEMENT) ;
 
-		Debug.assert(m_romImage.length >= k_MIN_ROM_SIZE, "ROM Image is smaller than " + k_MIN_ROM_SIZE + " bytes.") ;
-		// for each byte in rom image
-		for(i=0; i<m_romImage.length; i++)
+		// if image has changed since the checksum was accumulated, sum every byte in rom image again
+		if (!m_romImage.isChecksumKnown())
 			{
-			// get byte from rom image
-			short romByte = getUByte(m_romImage[i]) ;
-			
-			// if byte offset in rom image < rom complement byte or > rom lsb checksum
-			if ((i<k_BYTE_COMPLEMENT) || (i>k_BYTE_CHECKSUM_LSB))
+			// if rom image is large sum each bank in parallel, otherwise sum entire image in one go
+			if (m_romImage.getStoredSize() >= k_PARALLEL_CHECKSUM_SIZE)
 				{
-				// add value of byte to calculated checksum
-				calculatedChecksum += romByte ;
+				checksum = ForkJoinPool.commonPool().invoke(new BankChecksumTask(m_romImage.getBuffer(), k_ROM_BANK_SIZE, 0,
+					(m_romImage.getStoredSize() + k_ROM_BANK_SIZE - 1) / k_ROM_BANK_SIZE)) ;
 				}
-			
-			// if byte offset in rom >= start of cartridge title and <= rom version byte
-			if ((i>=k_BYTE_CARTRIDGE_TITLE) &&  (i<=k_BYTE_VERSION))
+			else
 				{
-				// add value of byte to calculated complement
-				calculatedComplement += romByte ;
+				checksum = new ROMChecksum() ;
+				checksum.Update(m_romImage.getBuffer(), 0, m_romImage.getStoredSize(), 0) ;
 				}
-
+			
+			// padding is all one value, so it is added without being summed
+			checksum.AddRun(m_romImage.getPadValue(), m_romImage.getSize() - m_romImage.getStoredSize()) ;
+			m_romImage.setChecksum(checksum) ;
+			bytesSummed = m_romImage.getSize() ;
 			}
-
+		
 		// set final calculated complement
-		calculatedComplement = (byte)(0xE7-calculatedComplement) ;
-		// add calculated complement to calculated checksum
-		calculatedChecksum += calculatedComplement ;
+		calculatedComplement = m_romImage.getChecksum().getComplement() ;
+		// set final calculated checksum (includes calculated complement)
+		calculatedChecksum = m_romImage.getChecksum().getChecksum() ;
 
 		// if current cartridge checksum != calculated checksum
 		if (cartChecksum != calculatedChecksum)
 			{
 			// set msb of cartridge checksum to msb of calculated checksum
-			m_romImage[k_BYTE_CHECKSUM_MSB] = (byte)(calculatedChecksum >> 8) ;
+			m_romImage.PutByte(k_BYTE_CHECKSUM_MSB, (byte)(calculatedChecksum >> 8)) ;
 			// set lsb of cartridge checksum to lsb of calculated checksum
-			m_romImage[k_BYTE_CHECKSUM_LSB] = (byte)(calculatedChecksum & 0xFF) ;
+			m_romImage.PutByte(k_BYTE_CHECKSUM_LSB, (byte)(calculatedChecksum & 0xFF)) ;
 			// report that current cartridge checksum was invalid and has been changed to new calculated checksum
-			Message.println("\tChecksum changed from 0x" + getHex(cartChecksum, 4) + " to 0x" + getHex(calculatedChecksum, 4)) ;
+			m_messages.println("\tChecksum changed from 0x" + getHex(cartChecksum, 4) + " to 0x" + getHex(calculatedChecksum, 4)) ;
 			}
 		else
 			{
 			// report that current cartridge checksum is okay
-			Message.println("\tChecksum is OK") ;
+			m_messages.println("\tChecksum is OK") ;
 			}
 
 		// if current cartridge complement != calculated complement
 		if (cartComplement != calculatedComplement)
 			{
 			// set cartridge complement to calculated complement
-			m_romImage[k_BYTE_COMPLEMENT] = (byte)(calculatedComplement) ;
+			m_romImage.PutByte(k_BYTE_COMPLEMENT, (byte)(calculatedComplement)) ;
 			// report that current cartridge complement was invalid and has been changed to new calculated checksum
-			Message.println("\tComplement Checksum changed from 0x" + getHex(cartComplement, 2) + " to 0x" + getHex(calculatedComplement, 2)) ;
+			m_messages.println("\tComplement Checksum changed from 0x" + getHex(cartComplement, 2) + " to 0x" + getHex(calculatedComplement, 2)) ;
 			}
 		else
 			{
 			// report that current cartridge complement is okay
-			Message.println("\tComplement Checksum is OK") ;
+			m_messages.println("\tComplement Checksum is OK") ;
 			}
 
+		// only an image that was summed again counts as read through
+		m_phaseBytes = bytesSummed ;
+		CommitEvent(event, bytesSummed, ((cartChecksum == calculatedChecksum) && (cartComplement == calculatedComplement)) ? "ok" : "changed") ;
 		}
 
 	
 	/****************************************************************
-	* NAME: ValidateImage (of ROMProcessor)							*
+	* NAME: DigestImage (of ROMProcessor)							*
+	*																*
+	* Calculates the digests named by the options in one pass over	*
+	* the image in memory, a chunk at a time. If the gameboy		*
+	* checksum isn't known yet it is summed in the same pass, so	*
+	* the image is only traversed once.								*
+	*																*
+	****************************************************************/
+	
+	public void DigestImage()
+		{
+		ByteBuffer		chunk ;
+		ROMChecksum		checksum ;
+		ImageDigests	digests ;
+		
+		int	chunkStart ;
+		int	chunkSize ;
+		
+		checksum = null ;
+		if (!m_romImage.isChecksumKnown())
+			{
+			checksum = new ROMChecksum() ;
+			}
+		
+		digests = NewDigests() ;
+		chunk = m_romImage.getBuffer().duplicate() ;
+		for (chunkStart=0; chunkStart<m_romImage.getStoredSize(); chunkStart+=k_READ_CHUNK_SIZE)
+			{
+			chunkSize = Math.min(k_READ_CHUNK_SIZE, m_romImage.getStoredSize() - chunkStart) ;
+			if (checksum != null)
+				{
+				checksum.Update(m_romImage.getBuffer(), chunkStart, chunkSize, chunkStart) ;
+				}
+			
+			chunk.limit(chunkStart + chunkSize).position(chunkStart) ;
+			digests.Update(chunk) ;
+			}
+		
+		for (chunkStart=m_romImage.getStoredSize(); chunkStart<m_romImage.getSize(); chunkStart+=chunkSize)
+			{
+			chunk = m_romImage.PadChunk(m_romImage.getSize() - chunkStart) ;
+			chunkSize = chunk.remaining() ;
+			digests.Update(chunk) ;
+			}
+		
+		if (checksum != null)
+			{
+			checksum.AddRun(m_romImage.getPadValue(), m_romImage.getSize() - m_romImage.getStoredSize()) ;
+			m_romImage.setChecksum(checksum) ;
+			}
+		
+		ReportDigests(digests) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getDigests (of ROMProcessor)							*
+	* RET:	Map	-- name & value of each digest, or null if none		*
+	*																*
+	****************************************************************/
+	
+	public Map<String, String> getDigests()
+		{
+		return (m_digests) ;
+		}
+	
+	
+	private ImageDigests NewDigests()
+		{
+		if (m_digestNames.length() == 0)
+			{
+			return (null) ;
+			}
+		
+		return (new ImageDigests(m_digestNames)) ;
+		}
+	
+	
+	private void ReportDigests(ImageDigests digests)
+		{
+		if (digests == null)
+			{
+			return ;
+			}
+		
+		m_digests = digests.getResults() ;
+		m_messages.println("Digests:") ;
+		for (Map.Entry<String, String> digest : m_digests.entrySet())
+			{
+			m_messages.println("\t" + digest.getKey() + ": " + digest.getValue()) ;
+			}
+		
+		}
+	
+	
+	/****************************************************************
+	* NAME: VerifyImage (of ROMProcessor)							*
+	* I/P:	filename	-- filename of rom image to verify			*
+	*																*
+	* This function verifies the checksum and checksum complement	*
+	* of a rom image without changing it. The image is streamed a	*
+	* fixed size chunk at a time through a single buffer, so a rom	*
+	* image of any size is verified in the same amount of memory.	*
+	*																*
+	****************************************************************/
+	
+	public boolean VerifyImage(String filename)
+		{
+		File	imageFile ;
+		
+		ReadableByteChannel	imageStream ;
+		
+		ByteBuffer		chunk ;
+		ROMChecksum		checksum ;
+		ImageDigests	digests ;
+		
+		long	bytesRead ;
+		int		chunkBytes ;
+		
+		Debug.assert(filename.length() != 0, "Filename must be supplied for VerifyImage to function") ;
+		imageFile = new File(filename) ;
+		
+		if ((!imageFile.isFile()) || (!imageFile.canRead()))
+			{
+			m_errorMsg = "File does not exist or cannot be read" ;
+			
+			return (false) ;
+			}
+		
+		// a compressed image is only known to be too small once it has been read
+		if ((imageFile.length() < k_MIN_ROM_SIZE) && (!ROMArchive.IsArchive(filename)))
+			{
+			m_errorMsg = "Specified ROM image is smaller than " + k_MIN_ROM_SIZE + " bytes." ;
+				
+			return (false) ;
+			}
+		
+		checksum = new ROMChecksum() ;
+		digests = NewDigests() ;
+		chunk = ByteBuffer.allocate(k_READ_CHUNK_SIZE) ;
+		bytesRead = 0 ;
+		try
+			{
+			if (ROMArchive.IsArchive(filename))
+				{
+				imageStream = Channels.newChannel(ROMArchive.OpenImage(filename)) ;
+				}
+			else
+				{
+				imageStream = new FileInputStream(imageFile).getChannel() ;
+				}
+			
+			try
+				{
+				while ((chunkBytes = imageStream.read(chunk)) >= 0)
+					{
+					checksum.Update(chunk, 0, chunkBytes, bytesRead) ;
+					if (digests != null)
+						{
+						chunk.flip() ;
+						digests.Update(chunk) ;
+						}
+					
+					bytesRead += chunkBytes ;
+					chunk.clear() ;
+					}
+				
+				}
+			
+			finally
+				{
+				imageStream.close() ;
+				}
+			
+			}
+		
+		catch (IOException ioEx)
+			{
+			m_errorMsg = "Error while reading from specified ROM image" ;
+				
+			return (false) ;
+			}
+		
+		if (bytesRead < k_MIN_ROM_SIZE)
+			{
+			m_errorMsg = "Specified ROM image is smaller than " + k_MIN_ROM_SIZE + " bytes." ;
+				
+			return (false) ;
+			}
+		
+		ReportDigests(digests) ;
+		m_messages.println("Verifying checksums:") ;
+		if (checksum.getStoredChecksum() != checksum.getChecksum())
+			{
+			m_errorMsg = "Checksum is 0x" + getHex(checksum.getStoredChecksum(), 4) + ", should be 0x" + getHex(checksum.getChecksum(), 4) ;
+			
+			return (false) ;
+			}
+		
+		m_messages.println("\tChecksum is OK") ;
+		if (checksum.getStoredComplement() != checksum.getComplement())
+			{
+			m_errorMsg = "Complement Checksum is 0x" + getHex(checksum.getStoredComplement(), 2) + ", should be 0x" + getHex(checksum.getComplement(), 2) ;
+			
+			return (false) ;
+			}
+		
+		m_messages.println("\tComplement Checksum is OK") ;
+		
+		return (true) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: BeginValidation (of ROMProcessor)						*
 	*																*
-	* This function validates all parts of a rom image. It makes	*
-	* sure that the Nintendo logo is correct, replacing any invalid	*
-	* bytes with the correct values. Validates the ROM size value	*
-	* in the ROM image against the actual ROM size. Validates the	*
-	* cartridge type and finally calculates the checksum and		*
-	* checksum complement.											*
 	*																*
 	****************************************************************/
 	
-	public void ValidateImage()
+	public void BeginValidation()
 		{
 		// report that the rom image is being validated
-		Message.println("Validating header:") ;
-		// validate & correct nintendo logo
-		ValidateNintendoLogo() ;
-		// validate & correct rom size
-		ValidateROMSize() ;
-		// validate & correct cartridge type
-		ValidateCartridgeType() ;
-		// validate & correct cartridge checksum & complement
+		m_messages.println("Validating header:") ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: UpdateChecksums (of ROMProcessor)						*
+	*																*
+	* Brings the checksums up to date with header values that have	*
+	* been set, without validating the rest of the header.			*
+	*																*
+	****************************************************************/
+	
+	public void UpdateChecksums()
+		{
+		m_messages.println("Updating checksums:") ;
 		ChecksumImage() ;
 		}
 
@@ -0,0 +1,248 @@
+import java.io.* ;
+import java.net.StandardProtocolFamily ;
+import java.net.UnixDomainSocketAddress ;
+import java.nio.channels.Channels ;
+import java.nio.channels.ServerSocketChannel ;
+import java.nio.channels.SocketChannel ;
+import java.nio.charset.StandardCharsets ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.nio.file.Paths ;
+import java.util.concurrent.ExecutorService ;
+import java.util.concurrent.Executors ;
+
+public class ROMServer
+	{
+	private final static String	k_ARGUMENT_SEPARATOR = "\t" ;	// separates the arguments of a request
+
+	private Path	m_socketPath ;								// path of unix domain socket to listen on
+	private String	m_errorMsg ;								// last error encountered by server
+
+	private MessageSink	m_messages ;							// where messages of the server itself are output
+
+
+	/****************************************************************
+	* NAME: ROMServer (constructor)									*
+	* I/P:	socketPath	-- path of unix domain socket to listen on	*
+	*																*
+	* The server keeps a running JVM with warm ROMProcessors so a	*
+	* tool chain can fix a rom image after every link without		*
+	* paying for JVM start up each time.							*
+	*																*
+	* Each request is a single line holding the same arguments		*
+	* that would be given on the command line, options first and	*
+	* the rom image last, separated by tabs. Each line of output	*
+	* is sent back prefixed by "M " (progress) or "E " (error),		*
+	* then the request ends with a line of "OK" or "ERROR <why>".	*
+	* A connection can send any number of requests, e.g.			*
+	*																*
+	*	printf -- '-v\t/path/game.gb\n' | socat - UNIX:/tmp/onzfix	*
+	*																*
+	****************************************************************/
+
+	public ROMServer(String socketPath)
+		{
+		m_socketPath = Paths.get(socketPath) ;
+		m_errorMsg = "No error" ;
+		m_messages = new ConsoleMessageSink() ;
+		}
+
+
+	/****************************************************************
+	* NAME: getError (of ROMServer)									*
+	* RET:	String	-- error message of last error encountered		*
+	*																*
+	****************************************************************/
+
+	public String getError()
+		{
+		return (m_errorMsg) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Run (of ROMServer)										*
+	* RET:	boolean	-- false if the server could not be started		*
+	*																*
+	* Listens for connections until the process is stopped. Every	*
+	* connection is served on its own thread with its own reused	*
+	* ROMProcessor.													*
+	*																*
+	****************************************************************/
+
+	public boolean Run()
+		{
+		ServerSocketChannel	server ;
+		ExecutorService		connections ;
+
+		try
+			{
+			// a socket left behind by a server that was killed would stop bind from working
+			Files.deleteIfExists(m_socketPath) ;
+			server = ServerSocketChannel.open(StandardProtocolFamily.UNIX) ;
+			server.bind(UnixDomainSocketAddress.of(m_socketPath)) ;
+			}
+
+		catch (IOException ioEx)
+			{
+			m_errorMsg = "Could not listen on socket " + m_socketPath + " (" + ioEx.getMessage() + ")" ;
+
+			return (false) ;
+			}
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> DeleteSocket())) ;
+		m_messages.println("Listening on " + m_socketPath) ;
+		connections = Executors.newCachedThreadPool() ;
+		try
+			{
+			while (true)
+				{
+				SocketChannel	connection ;
+
+				connection = server.accept() ;
+				connections.execute(() -> ServeConnection(connection)) ;
+				}
+
+			}
+
+		catch (IOException ioEx)
+			{
+			m_errorMsg = "Could not accept connection (" + ioEx.getMessage() + ")" ;
+			}
+
+		connections.shutdown() ;
+		DeleteSocket() ;
+
+		return (false) ;
+		}
+
+
+	/****************************************************************
+	* NAME: ServeConnection (of ROMServer)							*
+	* I/P:	connection	-- connection from a client					*
+	*																*
+	****************************************************************/
+
+	private void ServeConnection(SocketChannel connection)
+		{
+		BufferedReader	requests ;
+		PrintWriter		responses ;
+		ROMProcessor	rom ;
+		String			request ;
+
+		try (connection)
+			{
+			requests = new BufferedReader(new InputStreamReader(Channels.newInputStream(connection), StandardCharsets.UTF_8)) ;
+			responses = new PrintWriter(new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(connection), StandardCharsets.UTF_8))) ;
+			rom = new ROMProcessor() ;
+			rom.setMessageSink(new MessageSink()
+				{
+				public void println(String message)
+					{
+					SendLines(responses, "M ", message) ;
+					}
+
+				public void error(String message)
+					{
+					SendLines(responses, "E ", message) ;
+					}
+
+				}) ;
+
+			while ((request = requests.readLine()) != null)
+				{
+				if (request.length() != 0)
+					{
+					ServeRequest(rom, request, responses) ;
+					responses.flush() ;
+					}
+
+				}
+
+			}
+
+		catch (IOException ioEx)
+			{
+			// client has gone away, nothing left to send a reply to
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: ServeRequest (of ROMServer)								*
+	* I/P:	rom			-- processor of the connection				*
+	*		request		-- tab separated arguments of request		*
+	*		responses	-- where the reply is sent					*
+	*																*
+	****************************************************************/
+
+	private void ServeRequest(ROMProcessor rom, String request, PrintWriter responses)
+		{
+		UserOptions	options ;
+
+		options = new UserOptions() ;
+		try
+			{
+			if (!options.Process(request.split(k_ARGUMENT_SEPARATOR)))
+				{
+				SendLines(responses, "ERROR ", options.getError()) ;
+				}
+			else if (options.isServer() || ImageCollector.IsBatch(options.getROMImageFilenames()))
+				{
+				SendLines(responses, "ERROR ", "A request must name a single ROM image") ;
+				}
+			else if (!rom.ProcessImage(options))
+				{
+				SendLines(responses, "ERROR ", rom.getError()) ;
+				}
+			else if (!options.getDeferredSync().SyncAll())
+				{
+				// a request is its own batch, the client is only told OK once its image is durable
+				SendLines(responses, "ERROR ", options.getDeferredSync().getError()) ;
+				}
+			else
+				{
+				responses.println("OK") ;
+				}
+
+			}
+
+		// one bad request is answered, the connection carries on serving the client
+		catch (RuntimeException ex)
+			{
+			SendLines(responses, "ERROR ", "Processing failed (" + ex + ")") ;
+			}
+
+		}
+
+
+	private static void SendLines(PrintWriter responses, String prefix, String message)
+		{
+		for (String line : message.split("\n"))
+			{
+			if (line.length() != 0)
+				{
+				responses.println(prefix + line) ;
+				}
+
+			}
+
+		}
+
+
+	private void DeleteSocket()
+		{
+		try
+			{
+			Files.deleteIfExists(m_socketPath) ;
+			}
+
+		catch (IOException ioEx)
+			{
+			// socket is removed at the next start instead
+			}
+
+		}
+
+	}
@@ -0,0 +1,195 @@
+import java.io.* ;
+import java.util.concurrent.atomic.LongAdder ;
+
+public class TimingReport
+	{
+	private final static double	m_percentiles[] = { 50, 90, 99 } ;	// percentiles of wall clock time reported for each phase
+
+	private static TimingReport	m_report ;						// report shared by every rom image of this run, null if not timing
+
+	private PrintStream			m_output ;						// where timings are written
+	private LatencyHistogram	m_wallNanos[] ;					// wall clock time of each phase, per rom image
+	private LatencyHistogram	m_imageWallNanos ;				// wall clock time of each rom image as a whole
+	private LongAdder			m_cpuNanos[] ;					// total cpu time of each phase
+	private LongAdder			m_bytes[] ;						// total bytes processed by each phase
+
+
+	/****************************************************************
+	* NAME: TimingReport (constructor)								*
+	* I/P:	output	-- where timings are written					*
+	*																*
+	****************************************************************/
+
+	private TimingReport(PrintStream output)
+		{
+		int	phase ;
+
+		m_output = output ;
+		m_wallNanos = new LatencyHistogram[ImageTimings.k_PHASES] ;
+		m_cpuNanos = new LongAdder[ImageTimings.k_PHASES] ;
+		m_bytes = new LongAdder[ImageTimings.k_PHASES] ;
+		for (phase=0; phase<ImageTimings.k_PHASES; phase++)
+			{
+			m_wallNanos[phase] = new LatencyHistogram() ;
+			m_cpuNanos[phase] = new LongAdder() ;
+			m_bytes[phase] = new LongAdder() ;
+			}
+
+		m_imageWallNanos = new LatencyHistogram() ;
+		}
+
+
+	/****************************************************************
+	* NAME: Start (of TimingReport)									*
+	* I/P:	filename	-- file to write timings to, or empty for	*
+	*					   standard error							*
+	* RET:	boolean		-- false if the file could not be created	*
+	*																*
+	* Every rom image processed from now on writes one JSON line	*
+	* of its timings as it finishes. A JSON line summarising every	*
+	* phase is written when the program exits, however it exits.	*
+	* Times are in microseconds.									*
+	*																*
+	****************************************************************/
+
+	public static boolean Start(String filename)
+		{
+		PrintStream	output ;
+
+		output = System.err ;
+		if (filename.length() != 0)
+			{
+			try
+				{
+				output = new PrintStream(new BufferedOutputStream(new FileOutputStream(filename)), false, "UTF-8") ;
+				}
+
+			catch (IOException ioEx)
+				{
+				return (false) ;
+				}
+
+			}
+
+		m_report = new TimingReport(output) ;
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> m_report.WriteSummary())) ;
+
+		return (true) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Record (of TimingReport)								*
+	* I/P:	timings	-- timings of a rom image that has finished		*
+	*																*
+	* Does nothing unless timing was started.						*
+	*																*
+	****************************************************************/
+
+	public static void Record(ImageTimings timings)
+		{
+		StringBuilder	line ;
+
+		long	totalWallNanos ;
+		int		phase ;
+
+		if (m_report == null)
+			{
+			return ;
+			}
+
+		totalWallNanos = timings.getTotalWallNanos() ;
+		line = new StringBuilder(512) ;
+		line.append("{\"file\":") ;
+		JSONText.AppendQuoted(line, timings.getFilename()) ;
+		line.append(",\"wall_us\":").append(totalWallNanos / 1000) ;
+		line.append(",\"phases\":{") ;
+		for (phase=0; phase<ImageTimings.k_PHASES; phase++)
+			{
+			if (timings.isRun(phase))
+				{
+				m_report.m_wallNanos[phase].Record(timings.getWallNanos(phase)) ;
+				m_report.m_cpuNanos[phase].add(timings.getCPUNanos(phase)) ;
+				m_report.m_bytes[phase].add(timings.getBytes(phase)) ;
+				line.append((line.charAt(line.length() - 1) == '{') ? "" : ",") ;
+				line.append('"').append(ImageTimings.getPhaseName(phase)).append("\":{") ;
+				line.append("\"wall_us\":").append(timings.getWallNanos(phase) / 1000) ;
+				line.append(",\"cpu_us\":").append(timings.getCPUNanos(phase) / 1000) ;
+				line.append(",\"bytes\":").append(timings.getBytes(phase)).append('}') ;
+				}
+
+			}
+
+		line.append("}}") ;
+		m_report.m_imageWallNanos.Record(totalWallNanos) ;
+		synchronized (m_report.m_output)
+			{
+			m_report.m_output.println(line) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: WriteSummary (of TimingReport)							*
+	*																*
+	* The throughput of a phase is its total bytes over its total	*
+	* wall clock time, so it is per thread rather than for the run. *
+	*																*
+	****************************************************************/
+
+	private void WriteSummary()
+		{
+		StringBuilder	line ;
+
+		long	wallNanos ;
+		int		phase ;
+
+		line = new StringBuilder(2048) ;
+		line.append("{\"summary\":{\"images\":").append(m_imageWallNanos.getCount()) ;
+		line.append(",\"wall_us\":") ;
+		AppendHistogram(line, m_imageWallNanos) ;
+		line.append(",\"phases\":{") ;
+		for (phase=0; phase<ImageTimings.k_PHASES; phase++)
+			{
+			if (m_wallNanos[phase].getCount() == 0)
+				{
+				continue ;
+				}
+
+			wallNanos = m_wallNanos[phase].getTotal() ;
+			line.append((line.charAt(line.length() - 1) == '{') ? "" : ",") ;
+			line.append('"').append(ImageTimings.getPhaseName(phase)).append("\":{") ;
+			line.append("\"count\":").append(m_wallNanos[phase].getCount()) ;
+			line.append(",\"wall_us\":") ;
+			AppendHistogram(line, m_wallNanos[phase]) ;
+			line.append(",\"cpu_us\":").append(m_cpuNanos[phase].sum() / 1000) ;
+			line.append(",\"bytes\":").append(m_bytes[phase].sum()) ;
+			line.append(",\"mb_per_s\":") ;
+			line.append(((wallNanos == 0) || (m_bytes[phase].sum() == 0)) ? "null" : String.format("%.1f", (m_bytes[phase].sum() / 1048576.0) / (wallNanos / 1e9))) ;
+			line.append('}') ;
+			}
+
+		line.append("}}}") ;
+		synchronized (m_output)
+			{
+			m_output.println(line) ;
+			m_output.flush() ;
+			}
+
+		}
+
+
+	private static void AppendHistogram(StringBuilder line, LatencyHistogram histogram)
+		{
+		line.append("{\"min\":").append(histogram.getMin() / 1000) ;
+		for (double percentile : m_percentiles)
+			{
+			line.append(",\"p").append((int)(percentile)).append("\":").append(histogram.getPercentile(percentile) / 1000) ;
+			}
+
+		line.append(",\"max\":").append(histogram.getMax() / 1000) ;
+		line.append(",\"total\":").append(histogram.getTotal() / 1000).append('}') ;
+		}
+
+	}
@@ -0,0 +1,154 @@
+import java.util.ArrayList ;
+import java.util.Collections ;
+import java.util.List ;
+import java.util.function.Consumer ;
+import java.util.function.Predicate ;
+
+public class TransformPlan
+	{
+	private long					m_flags ;					// Options flags of every transform in plan
+	private List<TransformStage>	m_stages ;					// stages applied to each rom image, in order
+
+
+	private TransformPlan(long flags)
+		{
+		m_flags = flags ;
+		m_stages = new ArrayList<TransformStage>() ;
+		}
+
+
+	/****************************************************************
+	* NAME: Compile (of TransformPlan)								*
+	* I/P:	options			-- options given by the user			*
+	* RET:	TransformPlan	-- stages that apply the options		*
+	*																*
+	* The options are reduced to a mask of Options flags & the		*
+	* stages built from it once, for every rom image of a batch.	*
+	* Stages keep the checksum summed as the image was read up to	*
+	* date, so only the digests read the whole image, and the		*
+	* checksum stage when the image is mapped in place. A patch		*
+	* writes anywhere in the image, so a patched image is summed	*
+	* again before the stages run rather than trusting the deltas.	*
+	*																*
+	****************************************************************/
+
+	public static TransformPlan Compile(UserOptions options)
+		{
+		TransformPlan	plan ;
+		ROMManifest		manifest ;
+
+		long	flags ;
+		byte	padValue ;
+		byte	mbcType ;
+		byte	ramSize ;
+		short	newLicensee ;
+		byte	sgbFeatures ;
+		byte	countryCode ;
+		byte	licensee ;
+		byte	version ;
+		String	cartridgeTitle ;
+
+		flags = 0 ;
+		flags |= options.isPadImage() ? Options.k_PAD : 0 ;
+		flags |= options.isTruncateImage() ? Options.k_TRUNCATE : 0 ;
+		flags |= options.isCartridgeTitle() ? Options.k_TITLE : 0 ;
+		flags |= options.isGBCCompatible() ? Options.k_GBC_COMPAT : 0 ;
+		flags |= options.isGBCOnly() ? Options.k_GBC_ONLY : 0 ;
+		flags |= options.isMBCType() ? Options.k_MBC_TYPE : 0 ;
+		flags |= options.isRAMSize() ? Options.k_RAM_SIZE : 0 ;
+		flags |= options.isNewLicensee() ? Options.k_NEW_LICENSEE : 0 ;
+		flags |= options.isSGBOptions() ? Options.k_SGB : 0 ;
+		flags |= options.isCountryCode() ? Options.k_COUNTRY_CODE : 0 ;
+		flags |= options.isLicensee() ? Options.k_LICENSEE_CODE : 0 ;
+		flags |= options.isVersion() ? Options.k_VERSION : 0 ;
+		flags |= (options.getManifest() != null) ? Options.k_MANIFEST : 0 ;
+		flags |= options.isValidateImage() ? Options.k_VALIDATE : 0 ;
+		flags |= (options.getDigestNames().length() != 0) ? Options.k_DIGEST : 0 ;
+
+		plan = new TransformPlan(flags) ;
+		padValue = options.getPadValue() ;
+		mbcType = options.getMBCType() ;
+		ramSize = options.getRAMSize() ;
+		newLicensee = options.getNewLicensee() ;
+		sgbFeatures = options.getSGBOptions() ;
+		countryCode = options.getCountryCode() ;
+		licensee = options.getLicensee() ;
+		version = options.getVersion() ;
+		cartridgeTitle = options.getCartridgeTitle() ;
+		manifest = options.getManifest() ;
+		plan.AddStage(Options.k_PAD, ImageTimings.k_PAD, rom -> rom.PadImage(padValue)) ;
+		plan.AddCheckedStage(Options.k_TRUNCATE, ImageTimings.k_TRUNCATE, rom -> rom.TruncateImage()) ;
+		plan.AddStage(Options.k_TITLE, ImageTimings.k_HEADER, rom -> rom.SetCartridgeTitle(cartridgeTitle)) ;
+		plan.AddStage(Options.k_GBC_COMPAT, ImageTimings.k_HEADER, rom -> rom.SetGBCCompatible()) ;
+		plan.AddStage(Options.k_GBC_ONLY, ImageTimings.k_HEADER, rom -> rom.SetGBCOnly()) ;
+		plan.AddStage(Options.k_MBC_TYPE, ImageTimings.k_HEADER, rom -> rom.SetMBCType(mbcType)) ;
+		plan.AddStage(Options.k_RAM_SIZE, ImageTimings.k_HEADER, rom -> rom.SetRAMSize(ramSize)) ;
+		plan.AddStage(Options.k_NEW_LICENSEE, ImageTimings.k_HEADER, rom -> rom.SetNewLicensee(newLicensee)) ;
+		plan.AddStage(Options.k_SGB, ImageTimings.k_HEADER, rom -> rom.SetSGBFeatures(sgbFeatures)) ;
+		plan.AddStage(Options.k_COUNTRY_CODE, ImageTimings.k_HEADER, rom -> rom.SetCountryCode(countryCode)) ;
+		plan.AddStage(Options.k_LICENSEE_CODE, ImageTimings.k_HEADER, rom -> rom.SetLicensee(licensee)) ;
+		plan.AddStage(Options.k_VERSION, ImageTimings.k_HEADER, rom -> rom.SetVersion(version)) ;
+		// the manifest comes after the options, so the value it gives an image wins
+		plan.AddCheckedStage(Options.k_MANIFEST, ImageTimings.k_HEADER, rom -> rom.ApplyManifest(manifest)) ;
+		plan.AddStage(Options.k_VALIDATE, ImageTimings.k_LOGO, rom -> { rom.BeginValidation() ; rom.ValidateNintendoLogo() ; }) ;
+		plan.AddStage(Options.k_VALIDATE, ImageTimings.k_ROM_SIZE, rom -> rom.ValidateROMSize()) ;
+		plan.AddStage(Options.k_VALIDATE, ImageTimings.k_CARTRIDGE_TYPE, rom -> rom.ValidateCartridgeType()) ;
+		plan.AddStage(Options.k_VALIDATE, ImageTimings.k_CHECKSUM, rom -> rom.ChecksumImage()) ;
+		// header values from a manifest always leave the checksums right, validated or not
+		if ((flags & Options.k_VALIDATE) == 0)
+			{
+			plan.AddStage(Options.k_MANIFEST, ImageTimings.k_CHECKSUM, rom -> rom.UpdateChecksums()) ;
+			}
+
+		// digests are of the image as it will be written, so they come after every change
+		plan.AddStage(Options.k_DIGEST, ImageTimings.k_DIGEST, rom -> rom.DigestImage()) ;
+
+		return (plan) ;
+		}
+
+
+	/****************************************************************
+	* NAME: AddStage (of TransformPlan)								*
+	* I/P:	flag		-- Options flag the stage applies			*
+	*		phase		-- phase of ImageTimings the stage is timed *
+	*					   as										*
+	*		transform	-- change the stage makes to the rom image	*
+	*																*
+	* The stage is left out of the plan unless its flag is set.		*
+	*																*
+	****************************************************************/
+
+	private void AddStage(long flag, int phase, Consumer<ROMProcessor> transform)
+		{
+		AddCheckedStage(flag, phase, rom -> { transform.accept(rom) ; return (true) ; }) ;
+		}
+
+
+	/****************************************************************
+	* NAME: AddCheckedStage (of TransformPlan)						*
+	* I/P:	flag		-- Options flag the stage applies			*
+	*		phase		-- phase of ImageTimings the stage is timed *
+	*					   as										*
+	*		transform	-- change the stage makes to the rom image,	*
+	*					   false if it failed						*
+	*																*
+	* The stages after a stage that fails are not applied.			*
+	*																*
+	****************************************************************/
+
+	private void AddCheckedStage(long flag, int phase, Predicate<ROMProcessor> transform)
+		{
+		if ((m_flags & flag) != 0)
+			{
+			m_stages.add(new TransformStage(phase, transform)) ;
+			}
+
+		}
+
+
+	public List<TransformStage> getStages()
+		{
+		return (Collections.unmodifiableList(m_stages)) ;
+		}
+
+	}
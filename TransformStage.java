@@ -0,0 +1,48 @@
+import java.util.function.Predicate ;
+
+public class TransformStage
+	{
+	private int						m_phase ;					// phase of ImageTimings the stage is timed as
+	private Predicate<ROMProcessor>	m_transform ;				// change the stage makes to the rom image of a processor
+
+
+	/****************************************************************
+	* NAME: TransformStage (constructor)							*
+	* I/P:	phase		-- phase of ImageTimings the stage is timed *
+	*					   as										*
+	*		transform	-- change the stage makes to the rom image	*
+	*					   of a processor, false if it failed		*
+	*																*
+	* A stage holds no state of its own beyond the option values	*
+	* it was built with, so one stage is shared by every rom image	*
+	* of a batch, on every thread.									*
+	*																*
+	****************************************************************/
+
+	public TransformStage(int phase, Predicate<ROMProcessor> transform)
+		{
+		m_phase = phase ;
+		m_transform = transform ;
+		}
+
+
+	/****************************************************************
+	* NAME: Apply (of TransformStage)								*
+	* I/P:	rom		-- processor holding the rom image to change	*
+	* RET:	boolean	-- false if the image could not be changed, the	*
+	*				   processor holds the error					*
+	*																*
+	****************************************************************/
+
+	public boolean Apply(ROMProcessor rom)
+		{
+		return (m_transform.test(rom)) ;
+		}
+
+
+	public int getPhase()
+		{
+		return (m_phase) ;
+		}
+
+	}
@@ -0,0 +1,10 @@
+import jdk.jfr.Description ;
+import jdk.jfr.Label ;
+import jdk.jfr.Name ;
+
+@Name("onzfix.Truncate")
+@Label("Truncate")
+@Description("A rom image was truncated to a valid size")
+public class TruncateEvent extends ROMEvent
+	{
+	}
@@ -1,3 +1,7 @@
+import java.io.File ;
+import java.util.ArrayList ;
+import java.util.List ;
+
 public class UserOptions
 	{
 	private final static short	k_MAX_CART_TITLE_LEN = 16 ;
@@ -16,6 +20,22 @@ public class UserOptions
 	private boolean m_optSGBOptions ;							// set super gameboy option flag
 	private boolean m_optVersion ;								// set version option flag
 	private boolean m_optLicensee ;								// set licensee option flag
+	private boolean m_optInPlace ;								// map rom image in place option flag
+	private boolean m_optVerifyOnly ;							// verify checksums only option flag
+	private boolean m_optPipelined ;							// pipelined batch processing option flag
+	private boolean m_optArchives ;								// search directories for archives option flag
+	private boolean m_optServer ;								// run as server option flag
+	private boolean m_optScan ;									// scan rom image headers option flag
+	private boolean m_optCache ;								// skip rom images unchanged since last run option flag
+	private boolean m_optDigests ;								// calculate digests of rom image option flag
+	private boolean m_optTiming ;								// time each phase of processing option flag
+	private boolean m_optQuiet ;								// only output errors option flag
+	private boolean m_optJSON ;									// output messages as json lines option flag
+	private boolean m_optAtomicWrite ;							// write rom image to a temporary file & rename it option flag
+	private boolean m_optOutput ;								// write fixed rom image to a separate output path option flag
+	private boolean m_optPatch ;								// apply ips or bps patch before fixing option flag
+	private boolean m_optManifest ;								// set header values of each rom image from a manifest option flag
+	private boolean m_outputIsDirectory ;						// output path is a directory that fixed rom images are written in to
 	
 	private	short	m_padValue ;								// pad value to set if rom image requires padding to the next size
 	private	short	m_ramSize ;									// ram size to set in rom image
@@ -28,7 +48,22 @@ public class UserOptions
 
 	private String	m_errorMsg ;								// string of last error generated by this class
 	private String	m_cartridgeTitle ;							// cartridge title if specified
-	private String	m_romImageFilename ;						// filename of rom image
+	private String	m_romImageFilename ;						// filename of first rom image
+	private String	m_socketPath ;								// path of unix domain socket to serve on
+	private String	m_scanFormat ;								// format of scan output, json or csv
+	private String	m_cacheFilename ;							// filename of validation cache
+	private String	m_digestNames ;								// comma separated names of digests to calculate
+	private TransformPlan	m_transformPlan ;					// stages compiled from the options, null until they are processed
+	private String	m_timingFilename ;							// filename timings are written to, empty for standard error
+	private String	m_syncPolicy ;								// when written rom images are synced, file, batch or none
+	private DeferredSync	m_deferredSync ;					// images written with the batch sync policy, synced at the end of the run
+	private String	m_outputPath ;								// file or directory fixed rom images are written to
+	private boolean	m_outputIsPattern ;							// a * in the output filename is replaced by each image's name
+	private String	m_patchFilename ;							// filename of ips or bps patch to apply
+	private String	m_manifestFilename ;						// filename of manifest of header values
+	private ROMManifest	m_manifest ;							// header values of each rom image, null until it is read
+
+	private List<String>	m_romImageFilenames ;				// filenames, directories & glob patterns of all rom images
 	
 	
 	/****************************************************************
@@ -54,8 +89,38 @@ public class UserOptions
 		m_optSGBOptions = false ;
 		m_optVersion = false ;
 		m_optLicensee = false ;
+		m_optInPlace = false ;
+		m_optVerifyOnly = false ;
+		m_optPipelined = false ;
+		m_optArchives = false ;
+		m_optServer = false ;
+		m_optScan = false ;
+		m_optCache = false ;
+		m_optDigests = false ;
+		m_optTiming = false ;
+		m_optQuiet = false ;
+		m_optJSON = false ;
+		m_optAtomicWrite = false ;
+		m_optOutput = false ;
+		m_optPatch = false ;
+		m_optManifest = false ;
+		m_outputIsDirectory = false ;
+		m_outputIsPattern = false ;
 		
 		m_romImageFilename = "" ;
+		m_socketPath = "" ;
+		m_scanFormat = "" ;
+		m_cacheFilename = "" ;
+		m_digestNames = "" ;
+		m_transformPlan = null ;
+		m_timingFilename = "" ;
+		m_syncPolicy = "none" ;
+		m_deferredSync = new DeferredSync() ;
+		m_outputPath = "" ;
+		m_patchFilename = "" ;
+		m_manifestFilename = "" ;
+		m_manifest = null ;
+		m_romImageFilenames = new ArrayList<String>() ;
 		m_cartridgeTitle = "" ;
 		m_padValue = 0 ;
 		m_ramSize = 0 ;
@@ -100,7 +165,7 @@ public class UserOptions
 	
 	public byte getPadValue()
 		{
-		return (new Short(m_padValue).byteValue()) ;
+		return ((byte)(m_padValue)) ;
 		}
 	
 	
@@ -124,7 +189,7 @@ public class UserOptions
 	
 	public byte getMBCType()
 		{
-		return (new Short(m_mbcType).byteValue()) ;
+		return ((byte)(m_mbcType)) ;
 		}
 	
 	
@@ -160,7 +225,141 @@ public class UserOptions
 	
 	public byte getRAMSize()
 		{
-		return (new Short(m_ramSize).byteValue()) ;
+		return ((byte)(m_ramSize)) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: isNewLicensee (of UserOptions)							*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public boolean isNewLicensee()
+		{
+		return (m_optNewLicensee) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getNewLicensee (of UserOptions)							*
+	*																*
+	* The two characters of the code, the first in the msb.			*
+	*																*
+	****************************************************************/
+	
+	public short getNewLicensee()
+		{
+		return ((short)(m_newLicensee)) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: isLicensee (of UserOptions)								*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public boolean isLicensee()
+		{
+		return (m_optLicensee) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getLicensee (of UserOptions)							*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public byte getLicensee()
+		{
+		return ((byte)(m_licensee)) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: isSGBOptions (of UserOptions)							*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public boolean isSGBOptions()
+		{
+		return (m_optSGBOptions) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getSGBOptions (of UserOptions)							*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public byte getSGBOptions()
+		{
+		return ((byte)(m_sgbOptions)) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: isCountryCode (of UserOptions)							*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public boolean isCountryCode()
+		{
+		return (m_optCountryCode) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getCountryCode (of UserOptions)							*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public byte getCountryCode()
+		{
+		return ((byte)(m_countryCode)) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: isVersion (of UserOptions)								*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public boolean isVersion()
+		{
+		return (m_optVersion) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getVersion (of UserOptions)								*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public byte getVersion()
+		{
+		return ((byte)(m_version)) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getManifest (of UserOptions)							*
+	* RET:	ROMManifest	-- header values of each rom image, null if *
+	*					   no manifest was given					*
+	*																*
+	****************************************************************/
+	
+	public ROMManifest getManifest()
+		{
+		return (m_manifest) ;
 		}
 	
 	
@@ -225,190 +424,720 @@ public class UserOptions
 	
 	
 	/****************************************************************
-	* NAME: getROMImageFilename (of UserOptions)					*
+	* NAME: isInPlace (of UserOptions)								*
 	*																*
 	*																*
 	****************************************************************/
 	
-	public String getROMImageFilename()
+	public boolean isInPlace()
 		{
-		return (m_romImageFilename) ;
+		return (m_optInPlace) ;
 		}
 	
 	
 	/****************************************************************
-	* NAME: getError (of UserOptions)								*
+	* NAME: isVerifyOnly (of UserOptions)							*
 	*																*
 	*																*
 	****************************************************************/
 	
-	public String getError()
+	public boolean isVerifyOnly()
 		{
-		return (m_errorMsg) ;
+		return (m_optVerifyOnly) ;
 		}
 	
-	private void PrintOptionInfo(String info)
+	
+	/****************************************************************
+	* NAME: isPipelined (of UserOptions)							*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public boolean isPipelined()
 		{
-		String paddedInfo ;
-		
-		paddedInfo = info ;
-		for (int i=0; i<20; i++)
-			{
-			paddedInfo = " " + paddedInfo ;
-			}
-			
-		System.out.println(paddedInfo) ;
+		return (m_optPipelined) ;
 		}
 	
-	private void PrintOption(String option, String usage)
+	
+	/****************************************************************
+	* NAME: isArchives (of UserOptions)								*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public boolean isArchives()
 		{
-		String paddedOption ;
-		
-		paddedOption = option ;
-		while (paddedOption.length() < 15)
-			{
-			paddedOption = paddedOption + " " ;
-			}
-			
-		System.out.println("    -" + paddedOption + usage) ;
+		return (m_optArchives) ;
 		}
 	
 	
 	/****************************************************************
-	* NAME: PrintUsage (of UserOptions)								*
+	* NAME: isServer (of UserOptions)								*
 	*																*
 	*																*
 	****************************************************************/
 	
-	public void PrintUsage()
+	public boolean isServer()
 		{
-		System.out.println(Version.getFixToolName() + " " + Version.ONZFIXVersion()) ;
-		System.out.println("Usage: " + Version.getFixToolName() + " [options] image") ;
-		System.out.println("Options:") ;
-		PrintOption("h", "This text") ;
-		PrintOption("q", "Quiet mode -- supress all output except errors") ;
-		PrintOption("d", "Debug: Don't change image") ;
-		PrintOption("m<hex value>", "Change RAM size of cartridge") ;
-		PrintOption("p[<hex value>]", "Pad image to valid size") ;
-		PrintOptionInfo("Pads to 32/64/128/256/512KB as appropriate") ;
-		PrintOptionInfo("An optional hexadecimal pad value can be supplied") ;
-		PrintOption("r", "Truncate image to valid size") ;
-		PrintOptionInfo("Truncates to 32/64/128/256/512KB as appropriate") ;
-		PrintOption("t<name>", "Change cartridge title field (" + k_MAX_CART_TITLE_LEN + " characters)") ;
-		PrintOption("v", "Validate header") ;
-		PrintOptionInfo("Corrects - Nintendo Character Area         (0x0104)") ;
-		PrintOptionInfo("         - ROM type                        (0x0147)") ;
-		PrintOptionInfo("         - ROM size                        (0x0148)") ;
-		PrintOptionInfo("         - Checksums                       (0x014D-0x014F)") ;
-		PrintOption("b<hex value>", "Set MBC type                               (0x0147)") ;
-		PrintOption("c", "Set Colour GameBoy compatible (0x80) flag  (0x0143)") ;
-		PrintOption("o", "Set Colour GameBoy only (0xC0) flag        (0x0143)") ;
-		PrintOption("l", "Two Byte Licensee code                     (0x0144-0x0145)") ;
-		PrintOption("s", "SGB Features                               (0x0146)") ;
-		PrintOption("cc<hex value>", "Country Code                               (0x014A)") ;
-		PrintOption("lc<hex value>", "Licensee Code                              (0x014B)") ;
-		PrintOption("", "") ;
+		return (m_optServer) ;
 		}
-
+	
 	
 	/****************************************************************
-	* NAME: Process (of UserOptions)								*
+	* NAME: getSocketPath (of UserOptions)							*
 	*																*
 	*																*
 	****************************************************************/
 	
-	public boolean Process(String[] args)
+	public String getSocketPath()
 		{
-		int	argIndex ;
-		
-		if (args.length == 0)
-			{
-			m_errorMsg = "No arguments specified" ;
-			
-			return (false) ;
-			}
-		
-		for (argIndex=0; argIndex < args.length; argIndex++)
-			{
-			String	optionString ;
-			String	optionParameter ;
-			
-			if (args[argIndex].charAt(0) == '-')
-				{
-				if (args[argIndex].length() == 1)
-					{
-					m_errorMsg = "Unrecognised command line option" ;
-					
-					return (false) ;
-					}
-
-				optionString = args[argIndex].substring(1, 2) ;
-				if (args[argIndex].length() > 2)
-					{
-					optionParameter = args[argIndex].substring(2) ;
-					}
-				else
-					{
-					optionParameter = "" ;
-					}
-				
-				if (optionString.equals("?") || optionString.equalsIgnoreCase("h"))
-					{
-					if (optionParameter.length() != 0)
-						{
-						m_errorMsg = "Help option does not take a parameter" ;
-						
-						return (false) ;
-						}
-					
-					}
-				else if (optionString.equalsIgnoreCase("d"))
-					{
-					if (optionParameter.length() != 0)
-						{
-						m_errorMsg = "Debug option does not take a parameter" ;
-						
-						return (false) ;
-						}
-					
-					m_optDebugOnly = true ;
-					}
-				else if (optionString.equalsIgnoreCase("p"))
-					{
-					if (optionParameter.length()==0)
-						{
-						m_errorMsg = "Pad value must be specified" ;
-						
-						return (false) ;
-						}
-					
-					try
-						{
-						long	value ;
-
-						value = Short.valueOf(optionParameter, 16).longValue() ;
-						if ((value < 0) || (value > 255))
-							{
-							m_errorMsg = "Pad value must be in the range of 00h to FFh" ;
-							
-							return (false) ;
-							}
-						
-						m_padValue = (short)(value) ;
-						}
-					
-					catch (NumberFormatException e)
-						{
-						m_errorMsg = "Pad value must be specified as a valid Hex number" ;
-						
-						return (false) ;
-						}
-					
-					m_optPadImage = true ;
-					}
-				else if (optionString.equalsIgnoreCase("r"))
-					{
-					if (optionParameter.length() != 0)
+		return (m_socketPath) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: isScan (of UserOptions)									*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public boolean isScan()
+		{
+		return (m_optScan) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getScanFormat (of UserOptions)							*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public String getScanFormat()
+		{
+		return (m_scanFormat) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: isCache (of UserOptions)								*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public boolean isCache()
+		{
+		return (m_optCache) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getCacheFilename (of UserOptions)						*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public String getCacheFilename()
+		{
+		return (m_cacheFilename) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getDigestNames (of UserOptions)							*
+	*																*
+	* Comma separated names of the digests to calculate, or an		*
+	* empty string if none are.										*
+	*																*
+	****************************************************************/
+	
+	public String getDigestNames()
+		{
+		return (m_digestNames) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: isTiming (of UserOptions)								*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public boolean isTiming()
+		{
+		return (m_optTiming) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getTimingFilename (of UserOptions)						*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public String getTimingFilename()
+		{
+		return (m_timingFilename) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: isQuiet (of UserOptions)								*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public boolean isQuiet()
+		{
+		return (m_optQuiet) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: isJSON (of UserOptions)									*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public boolean isJSON()
+		{
+		return (m_optJSON) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: isAtomicWrite (of UserOptions)							*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public boolean isAtomicWrite()
+		{
+		return (m_optAtomicWrite) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getSyncPolicy (of UserOptions)							*
+	*																*
+	* When written rom images are made durable: file syncs each as	*
+	* it is written, batch syncs them all at the end of the run and *
+	* none leaves it to the operating system.						*
+	*																*
+	****************************************************************/
+	
+	public String getSyncPolicy()
+		{
+		return (m_syncPolicy) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getDeferredSync (of UserOptions)						*
+	*																*
+	* The images of this run, or of this request to a server, that	*
+	* the batch sync policy has left to be synced at its end.		*
+	*																*
+	****************************************************************/
+	
+	public DeferredSync getDeferredSync()
+		{
+		return (m_deferredSync) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: isOutput (of UserOptions)								*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public boolean isOutput()
+		{
+		return (m_optOutput) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getOutputFilename (of UserOptions)						*
+	* I/P:	filename	-- filename of rom image being processed	*
+	* RET:	String		-- filename the fixed rom image is written	*
+	*					   to										*
+	*																*
+	* The rom image itself unless an output path was given. In an	*
+	* output directory the fixed image keeps its own filename. A *	*
+	* in the output filename is replaced by the image's filename	*
+	* without its extension, so patches/*.ips gives each image of a *
+	* batch its own patch.											*
+	*																*
+	****************************************************************/
+	
+	public String getOutputFilename(String filename)
+		{
+		String	name ;
+		
+		if (!m_optOutput)
+			{
+			return (filename) ;
+			}
+		
+		if (m_outputIsDirectory)
+			{
+			return (new File(m_outputPath, new File(filename).getName()).getPath()) ;
+			}
+		
+		if (m_outputIsPattern)
+			{
+			name = new File(filename).getName() ;
+			if (name.lastIndexOf('.') > 0)
+				{
+				name = name.substring(0, name.lastIndexOf('.')) ;
+				}
+			
+			return (new File(new File(m_outputPath).getParentFile(), new File(m_outputPath).getName().replace("*", name)).getPath()) ;
+			}
+		
+		return (m_outputPath) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getTransformPlan (of UserOptions)						*
+	* RET:	TransformPlan	-- stages that apply the options to a	*
+	*						   rom image							*
+	*																*
+	****************************************************************/
+	
+	public TransformPlan getTransformPlan()
+		{
+		if (m_transformPlan == null)
+			{
+			m_transformPlan = TransformPlan.Compile(this) ;
+			}
+		
+		return (m_transformPlan) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getPatchFilename (of UserOptions)						*
+	*																*
+	* Filename of the ips or bps patch to apply, or an empty string	*
+	* if none is.													*
+	*																*
+	****************************************************************/
+	
+	public String getPatchFilename()
+		{
+		return (m_patchFilename) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getImageOptionsKey (of UserOptions)						*
+	* RET:	String	-- every option that changes or checks an image *
+	*																*
+	* Two runs with the same key do the same thing to an image, so	*
+	* an image that passed one needs nothing from the other.		*
+	*																*
+	****************************************************************/
+	
+	public String getImageOptionsKey()
+		{
+		return ("p" + m_optPadImage + m_padValue + " r" + m_optTruncateImage + " v" + m_optValidateImage +
+			" t" + m_optCartTitle + m_cartridgeTitle + " c" + m_optGBCCompatibility + " o" + m_optGBCOnly +
+			" m" + m_optRAMSize + m_ramSize + " b" + m_optMBCType + m_mbcType + " k" + m_optVerifyOnly +
+			" l" + m_optNewLicensee + m_newLicensee + " lc" + m_optLicensee + m_licensee + " s" + m_optSGBOptions + m_sgbOptions +
+			" cc" + m_optCountryCode + m_countryCode + " vn" + m_optVersion + m_version +
+			(m_optPatch ? " y" + m_patchFilename : "") + (m_optManifest ? " w" + m_manifestFilename + getManifestStamp() : "")) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getManifestStamp (of UserOptions)						*
+	* RET:	String	-- size & modification time of manifest			*
+	*																*
+	* Images are only skipped as unchanged while the manifest that	*
+	* set their header is unchanged too.							*
+	*																*
+	****************************************************************/
+	
+	private String getManifestStamp()
+		{
+		File	manifest ;
+		
+		manifest = new File(m_manifestFilename) ;
+		
+		return (" " + manifest.length() + " " + manifest.lastModified()) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getROMImageFilename (of UserOptions)					*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public String getROMImageFilename()
+		{
+		return (m_romImageFilename) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getROMImageFilenames (of UserOptions)					*
+	*																*
+	* Every rom image named on the command line, in order. These	*
+	* can be filenames, directories or glob patterns.				*
+	*																*
+	****************************************************************/
+	
+	public List<String> getROMImageFilenames()
+		{
+		return (m_romImageFilenames) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: getError (of UserOptions)								*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public String getError()
+		{
+		return (m_errorMsg) ;
+		}
+	
+	private void PrintOptionInfo(String info)
+		{
+		String paddedInfo ;
+		
+		paddedInfo = info ;
+		for (int i=0; i<20; i++)
+			{
+			paddedInfo = " " + paddedInfo ;
+			}
+			
+		System.out.println(paddedInfo) ;
+		}
+	
+	private void PrintOption(String option, String usage)
+		{
+		String paddedOption ;
+		
+		paddedOption = option ;
+		while (paddedOption.length() < 15)
+			{
+			paddedOption = paddedOption + " " ;
+			}
+			
+		System.out.println("    -" + paddedOption + usage) ;
+		}
+	
+	
+	/****************************************************************
+	* NAME: PrintUsage (of UserOptions)								*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public void PrintUsage()
+		{
+		System.out.println(Version.getFixToolName() + " " + Version.ONZFIXVersion()) ;
+		System.out.println("Usage: " + Version.getFixToolName() + " [options] image [image ...]") ;
+		System.out.println("Each image can be a file, a directory or a glob pattern (e.g. roms/**.gb)") ;
+		System.out.println("More than one image is processed in parallel as a batch") ;
+		System.out.println("An image in a .zip archive or a .gz file is fixed without unpacking it") ;
+		System.out.println("Options:") ;
+		PrintOption("h", "This text") ;
+		PrintOption("g[<digests>]", "Print digests of image once it is fixed") ;
+		PrintOptionInfo("Any of crc32,crc32c,md5,sha1,sha256 (default " + ImageDigests.k_DEFAULT_DIGESTS + ")") ;
+		PrintOption("a", "Pipelined batch: overlap reading, fixing & writing of images") ;
+		PrintOptionInfo("For batches on slow or network storage") ;
+		PrintOption("ar", "Archives: search directories for .zip & .gz images as well") ;
+		PrintOption("q", "Quiet mode -- supress all output except errors") ;
+		PrintOption("j", "Output messages as JSON lines of level, file & message") ;
+		PrintOption("d", "Debug: Don't change image") ;
+		PrintOption("e<cachefile>", "Skip images unchanged since they last passed") ;
+		PrintOptionInfo("The cache file remembers the images that passed each run") ;
+		PrintOption("f<json|csv>", "Scan: list the header of every image found") ;
+		PrintOptionInfo("Only reads headers, any file with the Nintendo logo is listed") ;
+		PrintOption("i", "In place: map image & only write back changed bytes") ;
+		PrintOption("k", "Check checksums only: don't change image") ;
+		PrintOptionInfo("Streams image, any size is checked in fixed memory") ;
+		PrintOption("m<hex value>", "Change RAM size of cartridge") ;
+		PrintOption("n<path>", "Write fixed image to a file or directory, not in place") ;
+		PrintOptionInfo("A batch needs an existing directory or a * in the filename,") ;
+		PrintOptionInfo("which is replaced by the image's name. Images may be read only") ;
+		PrintOptionInfo("A path ending .ips or .bps gets a patch of the fixes instead") ;
+		PrintOption("p[<hex value>]", "Pad image to valid size") ;
+		PrintOptionInfo("Pads to 32/64/128/256/512KB as appropriate") ;
+		PrintOptionInfo("An optional hexadecimal pad value can be supplied") ;
+		PrintOption("r", "Truncate image to valid size") ;
+		PrintOptionInfo("Truncates to 32/64/128/256/512KB as appropriate") ;
+		PrintOption("u<socket>", "Server: fix images sent over a unix domain socket") ;
+		PrintOptionInfo("Each request is one line of tab separated arguments") ;
+		PrintOption("t<name>", "Change cartridge title field (" + k_MAX_CART_TITLE_LEN + " characters)") ;
+		PrintOption("v", "Validate header") ;
+		PrintOptionInfo("Corrects - Nintendo Character Area         (0x0104)") ;
+		PrintOptionInfo("         - ROM type                        (0x0147)") ;
+		PrintOptionInfo("         - ROM size                        (0x0148)") ;
+		PrintOptionInfo("         - Checksums                       (0x014D-0x014F)") ;
+		PrintOption("b<hex value>", "Set MBC type                               (0x0147)") ;
+		PrintOption("c", "Set Colour GameBoy compatible (0x80) flag  (0x0143)") ;
+		PrintOption("o", "Set Colour GameBoy only (0xC0) flag        (0x0143)") ;
+		PrintOption("l<code>", "Two Byte Licensee code                     (0x0144-0x0145)") ;
+		PrintOption("s[<hex value>]", "SGB Features (default 03)                  (0x0146)") ;
+		PrintOption("cc<hex value>", "Country Code                               (0x014A)") ;
+		PrintOption("lc<hex value>", "Licensee Code, two hex digits              (0x014B)") ;
+		PrintOption("vn<hex value>", "Version                                    (0x014C)") ;
+		PrintOption("w<manifest>", "Set header values of each image from a manifest") ;
+		PrintOptionInfo("CSV or JSON lines with the fields of a scan, plus country_code.") ;
+		PrintOptionInfo("Images listed are processed if none are named & checksums fixed") ;
+		PrintOption("x[<policy>]", "Atomic write: write image to a temporary file & rename it") ;
+		PrintOptionInfo("Policy file syncs each image, batch syncs all at the end,") ;
+		PrintOptionInfo("none never syncs (default file)") ;
+		PrintOption("y<patch>", "Apply IPS or BPS patch to image before fixing it") ;
+		PrintOptionInfo("BPS patches are checked against the CRC32s they hold") ;
+		PrintOption("z[<file>]", "Time each phase of processing every image") ;
+		PrintOptionInfo("JSON lines per image & a summary at exit, to stderr or <file>") ;
+		PrintOption("", "") ;
+		}
+
+	
+	/****************************************************************
+	* NAME: Process (of UserOptions)								*
+	*																*
+	*																*
+	****************************************************************/
+	
+	public boolean Process(String[] args)
+		{
+		int	argIndex ;
+		
+		if (args.length == 0)
+			{
+			m_errorMsg = "No arguments specified" ;
+			
+			return (false) ;
+			}
+		
+		for (argIndex=0; argIndex < args.length; argIndex++)
+			{
+			String	optionString ;
+			String	optionParameter ;
+			
+			// an empty argument can come from a server request with two tabs together
+			if (args[argIndex].length() == 0)
+				{
+				m_errorMsg = "Empty command line argument" ;
+				
+				return (false) ;
+				}
+			
+			if (args[argIndex].charAt(0) == '-')
+				{
+				if (m_romImageFilenames.size() != 0)
+					{
+					m_errorMsg = "ROM image filenames must be the last options" ;
+					
+					return (false) ;
+					}
+				
+				if (args[argIndex].length() == 1)
+					{
+					m_errorMsg = "Unrecognised command line option" ;
+					
+					return (false) ;
+					}
+
+				optionString = args[argIndex].substring(1, 2) ;
+				if (args[argIndex].length() > 2)
+					{
+					optionParameter = args[argIndex].substring(2) ;
+					}
+				else
+					{
+					optionParameter = "" ;
+					}
+				
+				if (optionString.equals("?") || optionString.equalsIgnoreCase("h"))
+					{
+					if (optionParameter.length() != 0)
+						{
+						m_errorMsg = "Help option does not take a parameter" ;
+						
+						return (false) ;
+						}
+					
+					}
+				else if (optionString.equalsIgnoreCase("a") && optionParameter.toLowerCase().startsWith("r"))
+					{
+					if (optionParameter.length() != 1)
+						{
+						m_errorMsg = "Archives option does not take a parameter" ;
+						
+						return (false) ;
+						}
+					
+					m_optArchives = true ;
+					}
+				else if (optionString.equalsIgnoreCase("a"))
+					{
+					if (optionParameter.length() != 0)
+						{
+						m_errorMsg = "Pipelined batch option does not take a parameter" ;
+						
+						return (false) ;
+						}
+					
+					m_optPipelined = true ;
+					}
+				else if (optionString.equalsIgnoreCase("d"))
+					{
+					if (optionParameter.length() != 0)
+						{
+						m_errorMsg = "Debug option does not take a parameter" ;
+						
+						return (false) ;
+						}
+					
+					m_optDebugOnly = true ;
+					}
+				else if (optionString.equalsIgnoreCase("e"))
+					{
+					if (optionParameter.length()==0)
+						{
+						m_errorMsg = "Validation cache filename must be specified" ;
+						
+						return (false) ;
+						}
+					
+					m_cacheFilename = optionParameter ;
+					m_optCache = true ;
+					}
+				else if (optionString.equalsIgnoreCase("f"))
+					{
+					if (!optionParameter.equalsIgnoreCase("json") && !optionParameter.equalsIgnoreCase("csv"))
+						{
+						m_errorMsg = "Scan format must be json or csv" ;
+						
+						return (false) ;
+						}
+					
+					m_scanFormat = optionParameter.toLowerCase() ;
+					m_optScan = true ;
+					}
+				else if (optionString.equalsIgnoreCase("g"))
+					{
+					if (optionParameter.length()==0)
+						{
+						optionParameter = ImageDigests.k_DEFAULT_DIGESTS ;
+						}
+					
+					if (!ImageDigests.IsDigestList(optionParameter))
+						{
+						m_errorMsg = "Digests must be a comma separated list of crc32, crc32c, md5, sha1 or sha256" ;
+						
+						return (false) ;
+						}
+					
+					m_digestNames = optionParameter.toLowerCase() ;
+					m_optDigests = true ;
+					}
+				else if (optionString.equalsIgnoreCase("i"))
+					{
+					if (optionParameter.length() != 0)
+						{
+						m_errorMsg = "In place option does not take a parameter" ;
+						
+						return (false) ;
+						}
+					
+					m_optInPlace = true ;
+					}
+				else if (optionString.equalsIgnoreCase("j"))
+					{
+					if (optionParameter.length() != 0)
+						{
+						m_errorMsg = "JSON messages option does not take a parameter" ;
+						
+						return (false) ;
+						}
+					
+					m_optJSON = true ;
+					}
+				else if (optionString.equalsIgnoreCase("k"))
+					{
+					if (optionParameter.length() != 0)
+						{
+						m_errorMsg = "Check checksums option does not take a parameter" ;
+						
+						return (false) ;
+						}
+					
+					m_optVerifyOnly = true ;
+					}
+				else if (optionString.equalsIgnoreCase("n"))
+					{
+					if (optionParameter.length()==0)
+						{
+						m_errorMsg = "Output file or directory must be specified" ;
+						
+						return (false) ;
+						}
+					
+					m_outputPath = optionParameter ;
+					m_optOutput = true ;
+					}
+				else if (optionString.equalsIgnoreCase("p"))
+					{
+					if (optionParameter.length()==0)
+						{
+						m_errorMsg = "Pad value must be specified" ;
+						
+						return (false) ;
+						}
+					
+					try
+						{
+						long	value ;
+
+						value = Short.valueOf(optionParameter, 16).longValue() ;
+						if ((value < 0) || (value > 255))
+							{
+							m_errorMsg = "Pad value must be in the range of 00h to FFh" ;
+							
+							return (false) ;
+							}
+						
+						m_padValue = (short)(value) ;
+						}
+					
+					catch (NumberFormatException e)
+						{
+						m_errorMsg = "Pad value must be specified as a valid Hex number" ;
+						
+						return (false) ;
+						}
+					
+					m_optPadImage = true ;
+					}
+				else if (optionString.equalsIgnoreCase("q"))
+					{
+					if (optionParameter.length() != 0)
+						{
+						m_errorMsg = "Quiet option does not take a parameter" ;
+						
+						return (false) ;
+						}
+					
+					m_optQuiet = true ;
+					}
+				else if (optionString.equalsIgnoreCase("r"))
+					{
+					if (optionParameter.length() != 0)
 						{
 						m_errorMsg = "Truncate image option does not take a parameter" ;
 						
@@ -417,6 +1146,40 @@ public class UserOptions
 					
 					m_optTruncateImage = true ;
 					}
+				else if (optionString.equalsIgnoreCase("v") && optionParameter.toLowerCase().startsWith("n"))
+					{
+					optionParameter = optionParameter.substring(1) ;
+					if (optionParameter.length()==0)
+						{
+						m_errorMsg = "Version must be specified" ;
+						
+						return (false) ;
+						}
+					
+					try
+						{
+						long	value ;
+
+						value = Short.valueOf(optionParameter, 16).longValue() ;
+						if ((value < 0) || (value > 255))
+							{
+							m_errorMsg = "Version must be in the range of 00h to FFh" ;
+							
+							return (false) ;
+							}
+						
+						m_version = (short)(value) ;
+						}
+					
+					catch (NumberFormatException e)
+						{
+						m_errorMsg = "Version must be specified as a valid Hex number" ;
+						
+						return (false) ;
+						}
+					
+					m_optVersion = true ;
+					}
 				else if (optionString.equalsIgnoreCase("v"))
 					{
 					if (optionParameter.length() != 0)
@@ -513,6 +1276,177 @@ public class UserOptions
 					
 					m_optRAMSize = true ;
 					}
+				else if (optionString.equalsIgnoreCase("u"))
+					{
+					if (optionParameter.length()==0)
+						{
+						m_errorMsg = "Server socket path must be specified" ;
+						
+						return (false) ;
+						}
+					
+					m_socketPath = optionParameter ;
+					m_optServer = true ;
+					}
+				else if (optionString.equalsIgnoreCase("x"))
+					{
+					if (optionParameter.length()==0)
+						{
+						optionParameter = "file" ;
+						}
+					
+					if (!optionParameter.equalsIgnoreCase("file") && !optionParameter.equalsIgnoreCase("batch") && !optionParameter.equalsIgnoreCase("none"))
+						{
+						m_errorMsg = "Sync policy must be file, batch or none" ;
+						
+						return (false) ;
+						}
+					
+					m_syncPolicy = optionParameter.toLowerCase() ;
+					m_optAtomicWrite = true ;
+					}
+				else if (optionString.equalsIgnoreCase("y"))
+					{
+					if (optionParameter.length()==0)
+						{
+						m_errorMsg = "Patch filename must be specified" ;
+						
+						return (false) ;
+						}
+					
+					m_patchFilename = optionParameter ;
+					m_optPatch = true ;
+					}
+				else if (optionString.equalsIgnoreCase("z"))
+					{
+					m_timingFilename = optionParameter ;
+					m_optTiming = true ;
+					}
+				else if (optionString.equalsIgnoreCase("c") && optionParameter.toLowerCase().startsWith("c"))
+					{
+					optionParameter = optionParameter.substring(1) ;
+					if (optionParameter.length()==0)
+						{
+						m_errorMsg = "Country Code must be specified" ;
+						
+						return (false) ;
+						}
+					
+					try
+						{
+						long	value ;
+
+						value = Short.valueOf(optionParameter, 16).longValue() ;
+						if ((value < 0) || (value > 255))
+							{
+							m_errorMsg = "Country Code must be in the range of 00h to FFh" ;
+							
+							return (false) ;
+							}
+						
+						m_countryCode = (short)(value) ;
+						}
+					
+					catch (NumberFormatException e)
+						{
+						m_errorMsg = "Country Code must be specified as a valid Hex number" ;
+						
+						return (false) ;
+						}
+					
+					m_optCountryCode = true ;
+					}
+				// a two byte licensee code can start with c as well, so -lc always takes exactly two hex digits
+				else if (optionString.equalsIgnoreCase("l") && optionParameter.toLowerCase().startsWith("c") && (optionParameter.length() != 2))
+					{
+					optionParameter = optionParameter.substring(1) ;
+					if (optionParameter.length() != 2)
+						{
+						m_errorMsg = "Licensee Code must be specified as two hex digits" ;
+						
+						return (false) ;
+						}
+					
+					try
+						{
+						long	value ;
+
+						value = Short.valueOf(optionParameter, 16).longValue() ;
+						if ((value < 0) || (value > 255))
+							{
+							m_errorMsg = "Licensee Code must be in the range of 00h to FFh" ;
+							
+							return (false) ;
+							}
+						
+						m_licensee = (short)(value) ;
+						}
+					
+					catch (NumberFormatException e)
+						{
+						m_errorMsg = "Licensee Code must be specified as a valid Hex number" ;
+						
+						return (false) ;
+						}
+					
+					m_optLicensee = true ;
+					}
+				else if (optionString.equalsIgnoreCase("l"))
+					{
+					if ((optionParameter.length() != 2) || (optionParameter.charAt(0) < 0x20) || (optionParameter.charAt(0) > 0x7E) ||
+						(optionParameter.charAt(1) < 0x20) || (optionParameter.charAt(1) > 0x7E))
+						{
+						m_errorMsg = "Two Byte Licensee code must be two characters" ;
+						
+						return (false) ;
+						}
+					
+					m_newLicensee = (optionParameter.charAt(0) << 8) | optionParameter.charAt(1) ;
+					m_optNewLicensee = true ;
+					}
+				else if (optionString.equalsIgnoreCase("s"))
+					{
+					if (optionParameter.length()==0)
+						{
+						optionParameter = "03" ;
+						}
+					
+					try
+						{
+						long	value ;
+
+						value = Short.valueOf(optionParameter, 16).longValue() ;
+						if ((value < 0) || (value > 255))
+							{
+							m_errorMsg = "SGB Features must be in the range of 00h to FFh" ;
+							
+							return (false) ;
+							}
+						
+						m_sgbOptions = (short)(value) ;
+						}
+					
+					catch (NumberFormatException e)
+						{
+						m_errorMsg = "SGB Features must be specified as a valid Hex number" ;
+						
+						return (false) ;
+						}
+					
+					m_optSGBOptions = true ;
+					}
+				else if (optionString.equalsIgnoreCase("w"))
+					{
+					if (optionParameter.length()==0)
+						{
+						m_errorMsg = "Manifest filename must be specified" ;
+						
+						return (false) ;
+						}
+					
+					m_manifestFilename = optionParameter ;
+					m_optManifest = true ;
+					}
 				else if (optionString.equalsIgnoreCase("c"))
 					{
 					if (optionParameter.length() != 0)
@@ -545,14 +1479,12 @@ public class UserOptions
 				}
 			else
 				{
-				if (argIndex != (args.length-1))
+				if (m_romImageFilenames.size() == 0)
 					{
-					m_errorMsg = "ROM image filename must be the last option" ;
-					
-					return (false) ;
+					m_romImageFilename = args[argIndex] ;
 					}
 				
-				m_romImageFilename = args[argIndex] ;
+				m_romImageFilenames.add(args[argIndex]) ;
 				}
 			
 			}
@@ -564,6 +1496,113 @@ public class UserOptions
 			return (false) ;
 			}
 		
+		if (m_optVerifyOnly && (m_optPadImage || m_optTruncateImage || m_optValidateImage || m_optCartTitle ||
+			m_optGBCCompatibility || m_optGBCOnly || m_optRAMSize || m_optMBCType || m_optInPlace || m_optPatch ||
+			m_optNewLicensee || m_optLicensee || m_optSGBOptions || m_optCountryCode || m_optVersion || m_optManifest))
+			{
+			m_errorMsg = "Check checksums option cannot be combined with options that change the image" ;
+			
+			return (false) ;
+			}
+		
+		if (m_optScan && (m_optPadImage || m_optTruncateImage || m_optValidateImage || m_optCartTitle ||
+			m_optGBCCompatibility || m_optGBCOnly || m_optRAMSize || m_optMBCType || m_optInPlace || m_optVerifyOnly ||
+			m_optPipelined || m_optServer || m_optDigests || m_optPatch || m_optNewLicensee || m_optLicensee || m_optSGBOptions ||
+			m_optCountryCode || m_optVersion || m_optManifest || m_optArchives))
+			{
+			m_errorMsg = "Scan option cannot be combined with options that process the image" ;
+			
+			return (false) ;
+			}
+		
+		if (m_optNewLicensee && m_optLicensee && (m_licensee != 0x33))
+			{
+			m_errorMsg = "Two Byte Licensee code needs a Licensee Code of 33h" ;
+			
+			return (false) ;
+			}
+		
+		if (m_optManifest && m_optServer)
+			{
+			m_errorMsg = "Manifest cannot be given to the server, only in its requests" ;
+			
+			return (false) ;
+			}
+		
+		// every image listed in the manifest is processed, unless images are named as well
+		if (m_optManifest)
+			{
+			m_manifest = new ROMManifest() ;
+			if (!m_manifest.Read(m_manifestFilename))
+				{
+				m_errorMsg = m_manifest.getError() ;
+				
+				return (false) ;
+				}
+			
+			if (m_romImageFilenames.size() == 0)
+				{
+				m_romImageFilenames.addAll(m_manifest.getFilenames()) ;
+				m_romImageFilename = m_romImageFilenames.get(0) ;
+				}
+			
+			}
+		
+		if (m_optPatch && m_optInPlace)
+			{
+			m_errorMsg = "Patch cannot be applied to an image mapped in place" ;
+			
+			return (false) ;
+			}
+		
+		if (m_optAtomicWrite && (m_optInPlace || m_optVerifyOnly || m_optScan))
+			{
+			m_errorMsg = "Atomic write cannot be combined with in place, check checksums or scan options" ;
+			
+			return (false) ;
+			}
+		
+		if (m_optOutput && (m_optInPlace || m_optVerifyOnly || m_optScan || m_optServer || m_optCache))
+			{
+			m_errorMsg = "Output path cannot be combined with in place, check checksums, scan, server or validation cache options" ;
+			
+			return (false) ;
+			}
+		
+		if (m_optOutput)
+			{
+			m_outputIsDirectory = new File(m_outputPath).isDirectory() ;
+			m_outputIsPattern = (!m_outputIsDirectory) && (new File(m_outputPath).getName().contains("*")) ;
+			if ((!m_outputIsDirectory) && (!m_outputIsPattern) && (m_romImageFilenames.size() != 0) && (ImageCollector.IsBatch(m_romImageFilenames)))
+				{
+				m_errorMsg = "Output path of a batch must be an existing directory or contain a *" ;
+				
+				return (false) ;
+				}
+			
+			}
+		
+		if (m_optCache && (m_optDebugOnly || m_optScan || m_optServer))
+			{
+			m_errorMsg = "Validation cache cannot be combined with debug, scan or server options" ;
+			
+			return (false) ;
+			}
+		
+		// compiled once, every image of a batch shares the plan
+		m_transformPlan = TransformPlan.Compile(this) ;
+		if (m_optServer)
+			{
+			if (m_romImageFilenames.size() != 0)
+				{
+				m_errorMsg = "ROM images are sent to the server, not given on its command line" ;
+				
+				return (false) ;
+				}
+			
+			return (true) ;
+			}
+		
 		if (m_romImageFilename.length() == 0)
 			{
 			m_errorMsg = "No ROM image file was specified" ;
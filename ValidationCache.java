@@ -0,0 +1,588 @@
+import java.io.* ;
+import java.nio.ByteBuffer ;
+import java.nio.MappedByteBuffer ;
+import java.nio.channels.FileChannel ;
+import java.nio.channels.FileLock ;
+import java.nio.charset.StandardCharsets ;
+import java.nio.file.* ;
+import java.nio.file.attribute.BasicFileAttributes ;
+import java.util.concurrent.TimeUnit ;
+import java.util.zip.CRC32C ;
+
+public class ValidationCache
+	{
+	private final static int	k_MAGIC = 0x4F4E5A43 ;			// "ONZC", marks a file as a validation cache
+	private final static int	k_FORMAT_VERSION = 1 ;			// layout of the cache file
+
+	private final static int	k_HEADER_MAGIC = 0 ;			// offset of magic number in header
+	private final static int	k_HEADER_VERSION = 4 ;			// offset of format version in header
+	private final static int	k_HEADER_CAPACITY = 8 ;			// offset of number of slots in header
+	private final static int	k_HEADER_COUNT = 12 ;			// offset of number of entries in header
+	private final static int	k_HEADER_GENERATION = 16 ;		// offset of number of the last run in header
+	private final static int	k_HEADER_SIZE = 32 ;			// size of header before the first slot
+
+	private final static int	k_ENTRY_PATH_HASH = 0 ;			// offset of hash of path in entry, zero if slot is empty
+	private final static int	k_ENTRY_SIZE = 8 ;				// offset of size of rom image file in entry
+	private final static int	k_ENTRY_MODIFIED = 16 ;			// offset of modification time of rom image file in entry
+	private final static int	k_ENTRY_FINGERPRINT = 24 ;		// offset of crc32c of rom image file in entry
+	private final static int	k_ENTRY_OPTIONS = 28 ;			// offset of hash of options the rom image passed with in entry
+	private final static int	k_ENTRY_GENERATION = 32 ;		// offset of number of the run that last saw the entry
+	private final static int	k_SLOT_SIZE = 40 ;				// size of each slot of the table
+
+	private final static int	k_MIN_CAPACITY = 1024 ;			// fewest slots a table is created with
+	private final static int	k_EVICT_AFTER_RUNS = 16 ;		// runs an entry can go unseen before it is evicted
+	private final static int	k_FINGERPRINT_CHUNK_SIZE = 0x100000 ;	// size of each chunk read to fingerprint a file
+
+	private Path				m_cachePath ;					// path of cache file
+	private FileChannel			m_channel ;						// channel of cache file
+	private FileLock			m_lock ;						// stops two runs using the cache file at once
+	private MappedByteBuffer	m_table ;						// memory mapping of cache file
+	private String				m_errorMsg ;					// last error encountered by cache
+
+	private int		m_capacity ;								// number of slots in table, always a power of two
+	private int		m_count ;									// number of slots in use
+	private int		m_generation ;								// number of this run
+	private int		m_optionsKey ;								// hash of the options of this run
+
+
+	/****************************************************************
+	* NAME: ValidationCache (constructor)							*
+	* I/P:	cacheFilename	-- filename of cache file				*
+	*		options			-- options of this run					*
+	*																*
+	* Remembers every rom image that was processed successfully so	*
+	* that running the same options over a library again only		*
+	* processes the images that changed since the last run.			*
+	*																*
+	* The cache file is a hash table of fixed size entries that is	*
+	* memory mapped, so only the pages of the entries looked up are *
+	* ever read. Each entry holds a hash of the path of a rom		*
+	* image, its size, modification time & CRC32C, and the options	*
+	* it passed with. A rom image is unchanged if its entry has the *
+	* same size & time, and the file isn't read at all. If only the *
+	* time has changed then the file is fingerprinted, so a file	*
+	* that was only touched or copied isn't processed again.		*
+	*																*
+	* An entry is removed as soon as its rom image is seen to have	*
+	* changed, and an entry that hasn't been seen for 16 runs is	*
+	* evicted, which removes the entries of files that are gone.	*
+	*																*
+	****************************************************************/
+
+	public ValidationCache(String cacheFilename, UserOptions options)
+		{
+		m_cachePath = Paths.get(cacheFilename) ;
+		m_optionsKey = options.getImageOptionsKey().hashCode() ;
+		m_errorMsg = "No error" ;
+		}
+
+
+	/****************************************************************
+	* NAME: getError (of ValidationCache)							*
+	* RET:	String	-- error message of last error encountered		*
+	*																*
+	****************************************************************/
+
+	public String getError()
+		{
+		return (m_errorMsg) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Open (of ValidationCache)								*
+	* RET:	boolean	-- false if the cache file could not be used	*
+	*																*
+	* A cache file that is missing, from another version or damaged *
+	* is started again from empty.									*
+	*																*
+	****************************************************************/
+
+	public boolean Open()
+		{
+		long	fileSize ;
+
+		try
+			{
+			m_channel = FileChannel.open(m_cachePath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE) ;
+			m_lock = m_channel.tryLock() ;
+			if (m_lock == null)
+				{
+				m_channel.close() ;
+				m_errorMsg = "Validation cache " + m_cachePath + " is in use by another run" ;
+
+				return (false) ;
+				}
+
+			fileSize = m_channel.size() ;
+			m_table = m_channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(fileSize, k_HEADER_SIZE)) ;
+			m_capacity = m_table.getInt(k_HEADER_CAPACITY) ;
+			if ((m_table.getInt(k_HEADER_MAGIC) != k_MAGIC) || (m_table.getInt(k_HEADER_VERSION) != k_FORMAT_VERSION) ||
+				(m_capacity < k_MIN_CAPACITY) || (Integer.bitCount(m_capacity) != 1) ||
+				(fileSize != k_HEADER_SIZE + (long)(m_capacity) * k_SLOT_SIZE))
+				{
+				m_generation = 0 ;
+				Resize(k_MIN_CAPACITY) ;
+				}
+			else
+				{
+				m_count = m_table.getInt(k_HEADER_COUNT) ;
+				m_generation = m_table.getInt(k_HEADER_GENERATION) ;
+				}
+
+			m_generation++ ;
+			}
+
+		catch (IOException ioEx)
+			{
+			m_errorMsg = "Could not open validation cache " + m_cachePath + " (" + ioEx.getMessage() + ")" ;
+			Release() ;
+
+			return (false) ;
+			}
+
+		return (true) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Close (of ValidationCache)								*
+	* RET:	boolean	-- false if the cache file could not be saved	*
+	*																*
+	* Evicts entries that haven't been seen for too many runs, then *
+	* stores the table.												*
+	*																*
+	****************************************************************/
+
+	public synchronized boolean Close()
+		{
+		int	stale ;
+		int	slot ;
+
+		if (m_table == null)
+			{
+			return (true) ;
+			}
+
+		try
+			{
+			stale = 0 ;
+			for (slot=0; slot<m_capacity; slot++)
+				{
+				if ((m_table.getLong(SlotOffset(slot) + k_ENTRY_PATH_HASH) != 0) && (IsStale(slot)))
+					{
+					stale++ ;
+					}
+
+				}
+
+			// evicting moves the other entries, so the table is rebuilt without the stale ones
+			if (stale != 0)
+				{
+				Resize(m_capacity) ;
+				}
+
+			m_table.putInt(k_HEADER_COUNT, m_count) ;
+			m_table.putInt(k_HEADER_GENERATION, m_generation) ;
+			m_table.force() ;
+			}
+
+		catch (IOException ioEx)
+			{
+			m_errorMsg = "Could not save validation cache " + m_cachePath + " (" + ioEx.getMessage() + ")" ;
+			Release() ;
+
+			return (false) ;
+			}
+
+		Release() ;
+
+		return (true) ;
+		}
+
+
+	/****************************************************************
+	* NAME: IsUnchanged (of ValidationCache)						*
+	* I/P:	filename	-- filename of rom image					*
+	* RET:	boolean		-- true if rom image passed with the same	*
+	*					   options & hasn't changed since			*
+	*																*
+	* Can be called from many threads at once. The table is only	*
+	* locked while an entry is looked up or changed, not while a	*
+	* file is fingerprinted.										*
+	*																*
+	****************************************************************/
+
+	public boolean IsUnchanged(String filename)
+		{
+		BasicFileAttributes	attributes ;
+		Path				path ;
+
+		long	pathHash ;
+		long	modified ;
+		int		fingerprint ;
+
+		path = Paths.get(filename) ;
+		pathHash = PathHash(path) ;
+		try
+			{
+			attributes = Files.readAttributes(path, BasicFileAttributes.class) ;
+			modified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS) ;
+			synchronized (this)
+				{
+				int	slot ;
+				int	offset ;
+
+				slot = FindSlot(pathHash) ;
+				offset = SlotOffset(slot) ;
+				if (m_table.getLong(offset + k_ENTRY_PATH_HASH) == 0)
+					{
+					return (false) ;
+					}
+
+				if ((m_table.getInt(offset + k_ENTRY_OPTIONS) != m_optionsKey) || (m_table.getLong(offset + k_ENTRY_SIZE) != attributes.size()))
+					{
+					RemoveSlot(slot) ;
+
+					return (false) ;
+					}
+
+				if (m_table.getLong(offset + k_ENTRY_MODIFIED) == modified)
+					{
+					m_table.putInt(offset + k_ENTRY_GENERATION, m_generation) ;
+
+					return (true) ;
+					}
+
+				fingerprint = m_table.getInt(offset + k_ENTRY_FINGERPRINT) ;
+				}
+
+			// only the time has changed, so the contents decide
+			if (Fingerprint(path) != fingerprint)
+				{
+				Remove(filename) ;
+
+				return (false) ;
+				}
+
+			Put(pathHash, attributes.size(), modified, fingerprint) ;
+			}
+
+		catch (IOException ioEx)
+			{
+			return (false) ;
+			}
+
+		return (true) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Store (of ValidationCache)								*
+	* I/P:	filename	-- filename of rom image that passed		*
+	*																*
+	* Called once the rom image has been written, so the entry		*
+	* describes the file as it is left on disk.						*
+	*																*
+	****************************************************************/
+
+	public void Store(String filename)
+		{
+		BasicFileAttributes	attributes ;
+		Path				path ;
+
+		int	fingerprint ;
+
+		path = Paths.get(filename) ;
+		try
+			{
+			fingerprint = Fingerprint(path) ;
+			attributes = Files.readAttributes(path, BasicFileAttributes.class) ;
+			Put(PathHash(path), attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), fingerprint) ;
+			}
+
+		catch (IOException ioEx)
+			{
+			// rom image is simply processed again next time
+			Remove(filename) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: Remove (of ValidationCache)								*
+	* I/P:	filename	-- filename of rom image					*
+	*																*
+	****************************************************************/
+
+	public synchronized void Remove(String filename)
+		{
+		int	slot ;
+
+		slot = FindSlot(PathHash(Paths.get(filename))) ;
+		if (m_table.getLong(SlotOffset(slot) + k_ENTRY_PATH_HASH) != 0)
+			{
+			RemoveSlot(slot) ;
+			}
+
+		}
+
+
+	/****************************************************************
+	* NAME: Put (of ValidationCache)								*
+	* I/P:	pathHash	-- hash of path of rom image				*
+	*		size		-- size of rom image file					*
+	*		modified	-- modification time of rom image file		*
+	*		fingerprint	-- crc32c of rom image file					*
+	*																*
+	* The table is doubled in size before it is three quarters		*
+	* full, which keeps the runs of slots that are searched short.	*
+	*																*
+	****************************************************************/
+
+	private synchronized void Put(long pathHash, long size, long modified, int fingerprint) throws IOException
+		{
+		int	slot ;
+		int	offset ;
+
+		slot = FindSlot(pathHash) ;
+		if (m_table.getLong(SlotOffset(slot) + k_ENTRY_PATH_HASH) == 0)
+			{
+			if ((m_count + 1) * 4L > m_capacity * 3L)
+				{
+				Resize(m_capacity * 2) ;
+				slot = FindSlot(pathHash) ;
+				}
+
+			m_count++ ;
+			m_table.putInt(k_HEADER_COUNT, m_count) ;
+			}
+
+		offset = SlotOffset(slot) ;
+		m_table.putLong(offset + k_ENTRY_PATH_HASH, pathHash) ;
+		m_table.putLong(offset + k_ENTRY_SIZE, size) ;
+		m_table.putLong(offset + k_ENTRY_MODIFIED, modified) ;
+		m_table.putInt(offset + k_ENTRY_FINGERPRINT, fingerprint) ;
+		m_table.putInt(offset + k_ENTRY_OPTIONS, m_optionsKey) ;
+		m_table.putInt(offset + k_ENTRY_GENERATION, m_generation) ;
+		}
+
+
+	/****************************************************************
+	* NAME: FindSlot (of ValidationCache)							*
+	* I/P:	pathHash	-- hash of path of rom image				*
+	* RET:	int			-- slot holding the entry, or the empty		*
+	*					   slot it would be stored in				*
+	*																*
+	****************************************************************/
+
+	private int FindSlot(long pathHash)
+		{
+		long	slotHash ;
+		int		slot ;
+
+		slot = HomeSlot(pathHash) ;
+		while (((slotHash = m_table.getLong(SlotOffset(slot) + k_ENTRY_PATH_HASH)) != 0) && (slotHash != pathHash))
+			{
+			slot = (slot + 1) & (m_capacity - 1) ;
+			}
+
+		return (slot) ;
+		}
+
+
+	/****************************************************************
+	* NAME: RemoveSlot (of ValidationCache)							*
+	* I/P:	slot	-- slot of entry to remove						*
+	*																*
+	* Entries after the removed one are moved back in to the gap if *
+	* they would otherwise no longer be found, so no markers of		*
+	* removed entries are left behind to slow down searches.		*
+	*																*
+	****************************************************************/
+
+	private void RemoveSlot(int slot)
+		{
+		byte	entry[] ;
+
+		long	slotHash ;
+		int		next ;
+		int		home ;
+
+		entry = new byte[k_SLOT_SIZE] ;
+		next = slot ;
+		while (true)
+			{
+			next = (next + 1) & (m_capacity - 1) ;
+			slotHash = m_table.getLong(SlotOffset(next) + k_ENTRY_PATH_HASH) ;
+			if (slotHash == 0)
+				{
+				break ;
+				}
+
+			// an entry can fill the gap unless its home slot lies after the gap
+			home = HomeSlot(slotHash) ;
+			if (((next - home) & (m_capacity - 1)) >= ((next - slot) & (m_capacity - 1)))
+				{
+				m_table.get(SlotOffset(next), entry) ;
+				m_table.put(SlotOffset(slot), entry) ;
+				slot = next ;
+				}
+
+			}
+
+		m_table.put(SlotOffset(slot), new byte[k_SLOT_SIZE]) ;
+		m_count-- ;
+		m_table.putInt(k_HEADER_COUNT, m_count) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Resize (of ValidationCache)								*
+	* I/P:	capacity	-- number of slots of new table				*
+	*																*
+	* Rebuilds the table with a new number of slots. Stale entries	*
+	* are dropped as they are moved.								*
+	*																*
+	****************************************************************/
+
+	private void Resize(int capacity) throws IOException
+		{
+		ByteBuffer	kept ;
+		byte		entries[] ;
+
+		long	pathHash ;
+		int		oldCapacity ;
+		int		slot ;
+		int		offset ;
+
+		// keep every entry that is in use & not stale
+		oldCapacity = (m_count == 0) ? 0 : m_capacity ;
+		entries = new byte[oldCapacity * k_SLOT_SIZE] ;
+		for (slot=0; slot<oldCapacity; slot++)
+			{
+			if ((m_table.getLong(SlotOffset(slot) + k_ENTRY_PATH_HASH) != 0) && (!IsStale(slot)))
+				{
+				m_table.get(SlotOffset(slot), entries, slot * k_SLOT_SIZE, k_SLOT_SIZE) ;
+				}
+
+			}
+
+		// cutting the file back to the header & growing it again leaves every slot zero, i.e. empty
+		m_channel.truncate(k_HEADER_SIZE) ;
+		m_channel.write(ByteBuffer.wrap(new byte[1]), k_HEADER_SIZE + (long)(capacity) * k_SLOT_SIZE - 1) ;
+		m_table = m_channel.map(FileChannel.MapMode.READ_WRITE, 0, k_HEADER_SIZE + (long)(capacity) * k_SLOT_SIZE) ;
+		m_table.putInt(k_HEADER_MAGIC, k_MAGIC) ;
+		m_table.putInt(k_HEADER_VERSION, k_FORMAT_VERSION) ;
+		m_table.putInt(k_HEADER_CAPACITY, capacity) ;
+		m_capacity = capacity ;
+		m_count = 0 ;
+		kept = ByteBuffer.wrap(entries) ;
+		for (offset=0; offset<entries.length; offset+=k_SLOT_SIZE)
+			{
+			pathHash = kept.getLong(offset + k_ENTRY_PATH_HASH) ;
+			if (pathHash != 0)
+				{
+				m_table.put(SlotOffset(FindSlot(pathHash)), entries, offset, k_SLOT_SIZE) ;
+				m_count++ ;
+				}
+
+			}
+
+		}
+
+
+	private boolean IsStale(int slot)
+		{
+		return (m_generation - m_table.getInt(SlotOffset(slot) + k_ENTRY_GENERATION) > k_EVICT_AFTER_RUNS) ;
+		}
+
+
+	private int SlotOffset(int slot)
+		{
+		return (k_HEADER_SIZE + slot * k_SLOT_SIZE) ;
+		}
+
+
+	private int HomeSlot(long pathHash)
+		{
+		return ((int)(pathHash ^ (pathHash >>> 32)) & (m_capacity - 1)) ;
+		}
+
+
+	/****************************************************************
+	* NAME: PathHash (of ValidationCache)							*
+	* I/P:	path	-- path of rom image							*
+	* RET:	long	-- 64-bit FNV-1a hash of the absolute path		*
+	*																*
+	* Zero marks an empty slot, so it is never returned.			*
+	*																*
+	****************************************************************/
+
+	private static long PathHash(Path path)
+		{
+		long	hash ;
+
+		hash = 0xCBF29CE484222325L ;
+		for (byte pathByte : path.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8))
+			{
+			hash = (hash ^ (pathByte & 0xFF)) * 0x100000001B3L ;
+			}
+
+		return ((hash == 0) ? 1 : hash) ;
+		}
+
+
+	/****************************************************************
+	* NAME: Fingerprint (of ValidationCache)						*
+	* I/P:	path	-- path of rom image							*
+	* RET:	int		-- CRC32C of the whole file						*
+	*																*
+	****************************************************************/
+
+	private static int Fingerprint(Path path) throws IOException
+		{
+		ByteBuffer	chunk ;
+		CRC32C		crc ;
+
+		crc = new CRC32C() ;
+		chunk = ByteBuffer.allocateDirect(k_FINGERPRINT_CHUNK_SIZE) ;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+			{
+			while (channel.read(chunk) >= 0)
+				{
+				chunk.flip() ;
+				crc.update(chunk) ;
+				chunk.clear() ;
+				}
+
+			}
+
+		return ((int)(crc.getValue())) ;
+		}
+
+
+	private void Release()
+		{
+		try
+			{
+			if (m_channel != null)
+				{
+				// closing the channel also releases the lock
+				m_channel.close() ;
+				}
+
+			}
+
+		catch (IOException ioEx)
+			{
+			// nothing more can be done with the cache file
+			}
+
+		m_table = null ;
+		m_channel = null ;
+		m_lock = null ;
+		}
+
+	}